@@ -147,10 +147,18 @@ public class AuthenticationRequest {
         OpenIdConnectKey.UI_LOCALES };
 
     private static Map<String, String> buildRequestMap(final HttpServletRequest req,
-        final JsonWebKeySet privateJwks) throws IOException,
-            GeneralSecurityException {
+        final JsonObject requestObject) {
 
         final Map<String, String> requestMap = new HashMap<>();
+        for (final String key : REQUEST_KEYS) {
+            processValueFromMapOrObject(requestMap, key, req, requestObject);
+        }
+        return requestMap;
+    }
+
+    private static Map<String, String> buildRequestMap(final HttpServletRequest req,
+        final JsonWebKeySet privateJwks) throws IOException,
+            GeneralSecurityException {
 
         final JsonObject requestObject;
         if (req.getParameter(OpenIdConnectKey.REQUEST) != null && privateJwks != null) {
@@ -163,18 +171,13 @@ public class AuthenticationRequest {
         } else {
             requestObject = null;
         }
-        for (final String key : REQUEST_KEYS) {
-            processValueFromMapOrObject(requestMap, key, req, requestObject);
-        }
-        return requestMap;
+        return buildRequestMap(req, requestObject);
     }
 
     private static Map<String, String> buildRequestMap(final String requestJwt,
         final JsonWebKeySet privateJwks) throws IOException,
             GeneralSecurityException {
 
-        final Map<String, String> requestMap = new HashMap<>();
-
         final JsonObject requestObject;
         if (requestJwt != null && privateJwks != null) {
             final JsonWebToken jwt = new JsonWebToken(requestJwt);
@@ -183,10 +186,7 @@ public class AuthenticationRequest {
         } else {
             requestObject = null;
         }
-        for (final String key : REQUEST_KEYS) {
-            processValueFromMapOrObject(requestMap, key, null, requestObject);
-        }
-        return requestMap;
+        return buildRequestMap(null, requestObject);
     }
 
     /**
@@ -302,6 +302,38 @@ public class AuthenticationRequest {
         this(buildRequestMap(req, privateJwks));
     }
 
+    /**
+     * Constructs the authentication request using the servlet request
+     * parameters and a request object that had already been decrypted and
+     * verified. This allows the caller to avoid decrypting the same request
+     * object more than once.
+     *
+     * @param req
+     *            servlet request
+     * @param requestObject
+     *            payload of the "request" parameter, may be <code>null</code>
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    public AuthenticationRequest(final HttpServletRequest req, final JsonObject requestObject) throws IOException, GeneralSecurityException {
+
+        this(buildRequestMap(req, requestObject));
+    }
+
+    /**
+     * Constructs the authentication request using a request object that had
+     * already been decrypted and verified.
+     *
+     * @param requestObject
+     *            request object
+     * @throws GeneralSecurityException
+     * @throws IOException
+     */
+    public AuthenticationRequest(final JsonObject requestObject) throws IOException, GeneralSecurityException {
+
+        this(buildRequestMap(null, requestObject));
+    }
+
     private AuthenticationRequest(final Map<String, String> requestMap) throws IOException, GeneralSecurityException {
 
         this.requestMap = requestMap;
@@ -49,6 +49,14 @@ public class OpenIdProviderConfiguration {
     @XmlElement(name = "authorization_endpoint")
     private URI authorizationEndpoint;
 
+    /**
+     * Boolean value specifying whether the OP supports back-channel logout,
+     * with true indicating support. If omitted, the default value is
+     * <code>false</code>.
+     */
+    @XmlElement(name = "backchannel_logout_supported")
+    private boolean backchannelLogoutSupported;
+
     /**
      * URL of an OP iframe that supports cross-origin communications for session
      * state information with the RP Client, using the HTML5 postMessage API.
@@ -479,6 +487,11 @@ public class OpenIdProviderConfiguration {
         return userinfoSigningAlgValuesSupported;
     }
 
+    public boolean isBackchannelLogoutSupported() {
+
+        return backchannelLogoutSupported;
+    }
+
     public boolean isClaimsParameterSupported() {
 
         return claimsParameterSupported;
@@ -509,6 +522,11 @@ public class OpenIdProviderConfiguration {
         this.authorizationEndpoint = authorizationEndpoint;
     }
 
+    public void setBackchannelLogoutSupported(final boolean backchannelLogoutSupported) {
+
+        this.backchannelLogoutSupported = backchannelLogoutSupported;
+    }
+
     public void setCheckSessionIframe(final URI checkSessionIframe) {
 
         this.checkSessionIframe = checkSessionIframe;
@@ -4,6 +4,8 @@ import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.KeyFactory;
 import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.spec.ECParameterSpec;
 import java.security.spec.ECPoint;
 import java.security.spec.ECPrivateKeySpec;
@@ -11,8 +13,34 @@ import java.security.spec.ECPublicKeySpec;
 
 import javax.json.JsonObjectBuilder;
 
+import net.trajano.openidconnect.internal.Util;
+
 public class EcWebKey extends JsonWebKey {
 
+    public EcWebKey() {
+
+        setKty(KeyType.EC);
+    }
+
+    public EcWebKey(final String kid, final NamedEllipticCurve curve, final ECPublicKey publicKey) {
+
+        setKty(KeyType.EC);
+        setKid(kid);
+        setUse(KeyUse.sig);
+        crv = Util.toString(curve);
+        x = Encoding.base64EncodeUint(publicKey.getW()
+                .getAffineX());
+        y = Encoding.base64EncodeUint(publicKey.getW()
+                .getAffineY());
+    }
+
+    public EcWebKey(final String kid, final NamedEllipticCurve curve, final ECPrivateKey privateKey, final ECPublicKey publicKey) {
+
+        this(kid, curve, publicKey);
+        setUse(KeyUse.enc);
+        d = Encoding.base64EncodeUint(privateKey.getS());
+    }
+
     private String crv;
 
     /**
@@ -85,7 +113,7 @@ public class EcWebKey extends JsonWebKey {
     public PublicKey toJcaPublicKey() throws GeneralSecurityException {
 
         final KeyFactory keyFactory = KeyFactory.getInstance("EC");
-        final ECParameterSpec ecParameterSpec = NamedEllipticCurve.valueOf(crv)
+        final ECParameterSpec ecParameterSpec = Util.valueOf(NamedEllipticCurve.class, crv)
                 .toECParameterSpec();
         final ECPublicKeySpec keySpec = new ECPublicKeySpec(new ECPoint(Encoding.base64urlDecodeUint(x), Encoding.base64urlDecodeUint(y)), ecParameterSpec);
         return keyFactory.generatePublic(keySpec);
@@ -95,7 +123,7 @@ public class EcWebKey extends JsonWebKey {
     public Key toJcaKey() throws GeneralSecurityException {
 
         final KeyFactory keyFactory = KeyFactory.getInstance("EC");
-        final ECParameterSpec ecParameterSpec = NamedEllipticCurve.valueOf(crv)
+        final ECParameterSpec ecParameterSpec = Util.valueOf(NamedEllipticCurve.class, crv)
                 .toECParameterSpec();
         if (getUse() == KeyUse.sig) {
             final ECPublicKeySpec keySpec = new ECPublicKeySpec(new ECPoint(Encoding.base64urlDecodeUint(x), Encoding.base64urlDecodeUint(y)), ecParameterSpec);
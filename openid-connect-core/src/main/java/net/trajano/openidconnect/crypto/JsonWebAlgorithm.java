@@ -3,7 +3,6 @@ package net.trajano.openidconnect.crypto;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.Signature;
-import java.security.spec.ECParameterSpec;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -60,6 +59,44 @@ public class JsonWebAlgorithm {
 
     public static final String RSA1_5 = "RSA1_5";
 
+    /**
+     * Gets the elliptic curve used by an ECDSA signature algorithm.
+     *
+     * @param alg
+     *            JSON Web algorithm name
+     * @return curve or <code>null</code> if the algorithm is not an available
+     *         ECDSA algorithm.
+     */
+    public static NamedEllipticCurve getCurve(final String alg) {
+
+        return INSTANCE.jwaEcMap.get(alg);
+    }
+
+    /**
+     * Gets the JCA name of the hash algorithm of a signature or MAC
+     * algorithm. This is the hash algorithm that OpenID Connect uses for the
+     * <code>at_hash</code> and <code>c_hash</code> claims.
+     *
+     * @param alg
+     *            JSON Web algorithm name
+     * @return JCA message digest name
+     * @throws NoSuchAlgorithmException
+     *             the algorithm does not have a hash algorithm
+     */
+    public static String getDigestAlg(final String alg) throws NoSuchAlgorithmException {
+
+        if (alg != null && !JsonWebToken.ALG_NONE.equals(alg)) {
+            if (alg.endsWith("256")) {
+                return "SHA-256";
+            } else if (alg.endsWith("384")) {
+                return "SHA-384";
+            } else if (alg.endsWith("512")) {
+                return "SHA-512";
+            }
+        }
+        throw new NoSuchAlgorithmException("algorithm " + alg + " does not have a hash algorithm");
+    }
+
     public static String[] getEncAlgorithms() {
 
         return INSTANCE.encs.toArray(new String[0]);
@@ -152,7 +189,7 @@ public class JsonWebAlgorithm {
     /**
      * A map of EC JWA names to EC Curves.
      */
-    private final Map<String, ECParameterSpec> jwaEcMap = new HashMap<>();
+    private final Map<String, NamedEllipticCurve> jwaEcMap = new HashMap<>();
 
     /**
      * A map of AES JWA names to initialVector sizes.
@@ -313,7 +350,7 @@ public class JsonWebAlgorithm {
         try {
             Signature.getInstance(jca);
             jwaJcaMap.put(jwa, jca);
-            jwaEcMap.put(jwa, crv.toECParameterSpec());
+            jwaEcMap.put(jwa, crv);
             sigs.add(jwa);
         } catch (final GeneralSecurityException e) {
             Log.fine("algNotSupportedForSig", jwa);
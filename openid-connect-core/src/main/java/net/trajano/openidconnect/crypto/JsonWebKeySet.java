@@ -25,6 +25,19 @@ public class JsonWebKeySet {
         }
     }
 
+    /**
+     * Adds a key that can be looked up by its key ID but is never chosen as a
+     * signing key. This is used for keys that are published ahead of their
+     * use or are being retired.
+     *
+     * @param jwk
+     *            JSON web key
+     */
+    public void addInactive(final JsonWebKey jwk) {
+
+        keys.put(jwk.getKid(), jwk);
+    }
+
     @XmlElement(name = "keys", required = true)
     public JsonWebKey[] getKeys() {
 
@@ -106,6 +106,17 @@ public class JsonWebTokenBuilder {
         return new JsonWebToken(header, crypto.buildJWEPayload(header, payloadBytes, jwk));
     }
 
+    /**
+     * Gets the algorithm that will be applied. This is the algorithm of the
+     * JWK once it is chosen.
+     *
+     * @return algorithm name
+     */
+    public String getAlg() {
+
+        return alg;
+    }
+
     public JsonWebTokenBuilder compress(final boolean compressed) {
 
         this.compressed = compressed;
@@ -143,7 +154,8 @@ public class JsonWebTokenBuilder {
     }
 
     /**
-     * Chooses a random key from the JWKS.
+     * Chooses a random signing key from the JWKS. The algorithm is set to the
+     * one specified in the key.
      *
      * @param jwks
      *            JWK set
@@ -153,9 +165,7 @@ public class JsonWebTokenBuilder {
 
         final JsonWebKey[] keys = jwks.getSigningKeys();
 
-        jwk = keys[random.nextInt(keys.length)];
-
-        return this;
+        return jwk(keys[random.nextInt(keys.length)]);
     }
 
     public JsonWebTokenBuilder payload(final byte[] payloadBytes) {
@@ -62,9 +62,6 @@ public enum NamedEllipticCurve {
 
         final BigInteger p = new BigInteger(pS);
         final BigInteger r = new BigInteger(rS);
-        final BigInteger s = new BigInteger(sS, 16);
-
-        final EllipticCurve curve = new EllipticCurve(new ECFieldFp(p), r, s);
 
         final BigInteger gx = new BigInteger(gxS, 16);
         final BigInteger gy = new BigInteger(gyS, 16);
@@ -73,7 +70,10 @@ public enum NamedEllipticCurve {
         final BigInteger b = new BigInteger(bS, 16);
         final BigInteger c = new BigInteger(cS, 16);
         assert validate(b, c, p);
-        parameterSpec = new ECParameterSpec(curve, g, b, 1);
+
+        // the NIST prime curves use a = -3 and have a cofactor of 1.
+        final EllipticCurve curve = new EllipticCurve(new ECFieldFp(p), p.subtract(BigInteger.valueOf(3)), b);
+        parameterSpec = new ECParameterSpec(curve, g, r, 1);
 
     }
 
@@ -240,6 +240,7 @@ public class RsaWebKey extends JsonWebKey {
         if (getUse() == KeyUse.enc) {
             keyBuilder.add("d", d);
             keyBuilder.add("p", p);
+            keyBuilder.add("q", q);
             keyBuilder.add("dp", dp);
             keyBuilder.add("dq", dq);
             keyBuilder.add("qi", qi);
@@ -2,6 +2,7 @@ package net.trajano.openidconnect.internal;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
@@ -12,6 +13,7 @@ import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -31,11 +33,103 @@ import net.trajano.openidconnect.crypto.JsonWebAlgorithm;
 import net.trajano.openidconnect.crypto.JsonWebKey;
 import net.trajano.openidconnect.crypto.JsonWebToken;
 import net.trajano.openidconnect.crypto.JsonWebTokenCrypto;
+import net.trajano.openidconnect.crypto.NamedEllipticCurve;
 
 public class JcaJsonWebTokenCrypto implements JsonWebTokenCrypto {
 
     private static final JcaJsonWebTokenCrypto INSTANCE = new JcaJsonWebTokenCrypto();
 
+    /**
+     * Converts the concatenated R and S values used by JWS to the DER encoded
+     * ECDSA signature that is used by JCA.
+     *
+     * @param concatenated
+     *            JWS signature
+     * @param length
+     *            length of each value in bytes
+     * @return DER encoded signature
+     * @throws SignatureException
+     *             signature is not the expected length
+     */
+    private static byte[] concatenatedToDer(final byte[] concatenated,
+        final int length) throws SignatureException {
+
+        if (concatenated.length != length * 2) {
+            throw new SignatureException("invalid ECDSA signature length");
+        }
+        final byte[] r = new BigInteger(1, Arrays.copyOfRange(concatenated, 0, length)).toByteArray();
+        final byte[] s = new BigInteger(1, Arrays.copyOfRange(concatenated, length, concatenated.length)).toByteArray();
+        final int sequenceLength = 4 + r.length + s.length;
+
+        final ByteArrayOutputStream der = new ByteArrayOutputStream();
+        der.write(0x30);
+        if (sequenceLength > 127) {
+            der.write(0x81);
+        }
+        der.write(sequenceLength);
+        der.write(0x02);
+        der.write(r.length);
+        der.write(r, 0, r.length);
+        der.write(0x02);
+        der.write(s.length);
+        der.write(s, 0, s.length);
+        return der.toByteArray();
+    }
+
+    /**
+     * Converts a DER encoded ECDSA signature produced by JCA to the
+     * concatenated R and S values used by JWS.
+     *
+     * @param der
+     *            DER encoded signature
+     * @param length
+     *            length of each value in bytes
+     * @return JWS signature
+     * @throws SignatureException
+     *             signature is not a valid DER sequence
+     */
+    private static byte[] derToConcatenated(final byte[] der,
+        final int length) throws SignatureException {
+
+        if (der.length < 8 || der[0] != 0x30) {
+            throw new SignatureException("invalid ECDSA signature");
+        }
+        int offset = der[1] == (byte) 0x81 ? 3 : 2;
+        final byte[] concatenated = new byte[length * 2];
+        for (int i = 0; i < 2; ++i) {
+            if (der[offset] != 0x02) {
+                throw new SignatureException("invalid ECDSA signature");
+            }
+            final int integerLength = der[offset + 1] & 0xff;
+            int start = offset + 2;
+            int valueLength = integerLength;
+            while (valueLength > length && der[start] == 0) {
+                ++start;
+                --valueLength;
+            }
+            if (valueLength > length) {
+                throw new SignatureException("invalid ECDSA signature");
+            }
+            System.arraycopy(der, start, concatenated, (i + 1) * length - valueLength, valueLength);
+            offset += 2 + integerLength;
+        }
+        return concatenated;
+    }
+
+    /**
+     * Gets the length in bytes of the R and S values for the curve.
+     *
+     * @param curve
+     *            curve
+     * @return length in bytes
+     */
+    private static int getCoordinateLength(final NamedEllipticCurve curve) {
+
+        return (curve.toECParameterSpec()
+            .getOrder()
+            .bitLength() + 7) / 8;
+    }
+
     public static JsonWebTokenCrypto getInstance() {
 
         return INSTANCE;
@@ -71,7 +165,12 @@ public class JcaJsonWebTokenCrypto implements JsonWebTokenCrypto {
             signature.update((byte) '.');
             signature.update(Encoding.base64urlEncode(payloadBytes).getBytes(
                 CharSets.US_ASCII));
-            payloads[1] = signature.sign();
+            final NamedEllipticCurve curve = JsonWebAlgorithm.getCurve(header.getAlg());
+            if (curve == null) {
+                payloads[1] = signature.sign();
+            } else {
+                payloads[1] = derToConcatenated(signature.sign(), getCoordinateLength(curve));
+            }
 
         }
         return payloads;
@@ -395,7 +494,13 @@ public class JcaJsonWebTokenCrypto implements JsonWebTokenCrypto {
             final Signature signature = Signature.getInstance(JsonWebAlgorithm
                 .toJca(alg));
 
-            final byte[] jwtSignatureBytes = jsonWebToken.getPayload(1);
+            final NamedEllipticCurve curve = JsonWebAlgorithm.getCurve(alg);
+            final byte[] jwtSignatureBytes;
+            if (curve == null) {
+                jwtSignatureBytes = jsonWebToken.getPayload(1);
+            } else {
+                jwtSignatureBytes = concatenatedToDer(jsonWebToken.getPayload(1), getCoordinateLength(curve));
+            }
 
             signature.initVerify(signingKey);
             signature.update(jsonWebToken.getJoseHeaderEncoded().getBytes());
@@ -105,6 +105,12 @@ public class JsonWebKeyProvider implements MessageBodyReader<JsonWebKey>, Messag
                 ecWebKey.setAlg(alg);
             if (use != null)
                 ecWebKey.setUse(use);
+            if (use == KeyUse.enc || keyObject.containsKey("d")) {
+                ecWebKey.setD(keyObject.getString("d"));
+            }
+            ecWebKey.setCrv(keyObject.getString("crv"));
+            ecWebKey.setX(keyObject.getString("x"));
+            ecWebKey.setY(keyObject.getString("y"));
 
             return ecWebKey;
         } else if (kty == KeyType.oct) {
@@ -116,6 +122,7 @@ public class JsonWebKeyProvider implements MessageBodyReader<JsonWebKey>, Messag
                 octWebKey.setAlg(alg);
             if (use != null)
                 octWebKey.setUse(use);
+            octWebKey.setK(keyObject.getString("k"));
             return octWebKey;
 
         } else {
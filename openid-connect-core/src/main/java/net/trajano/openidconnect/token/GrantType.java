@@ -2,5 +2,5 @@ package net.trajano.openidconnect.token;
 
 
 public enum GrantType {
-    authorization_code, implicit, refresh_token
+    authorization_code, client_credentials, implicit, refresh_token
 }
@@ -75,6 +75,14 @@ public class IdTokenResponse extends TokenResponse {
         required = true)
     private String encodedIdToken;
 
+    /**
+     * Decoded ID Token. This is only set by the issuer of the token when it
+     * builds the response so that it does not have to verify its own signature
+     * again. It is never populated from a JSON or JWT source.
+     */
+    @XmlTransient
+    private IdToken idToken;
+
     /**
      * Flag to indicate that the token was retrieved using a used up
      * authentication code.
@@ -105,6 +113,19 @@ public class IdTokenResponse extends TokenResponse {
         return encodedIdToken;
     }
 
+    /**
+     * Gets the decoded ID Token that was attached by the issuer using
+     * {@link #setIdToken(IdToken)}. This does not perform any signature
+     * validation so it must only be used for responses that were built and
+     * stored locally.
+     *
+     * @return ID token or <code>null</code> if it was not attached.
+     */
+    public IdToken getIdToken() {
+
+        return idToken;
+    }
+
     /**
      * Gets the ID Token with signature validation.
      *
@@ -137,6 +158,18 @@ public class IdTokenResponse extends TokenResponse {
         this.encodedIdToken = encodedIdToken;
     }
 
+    /**
+     * Attaches the decoded ID Token that was used to build
+     * {@link #getEncodedIdToken()}.
+     *
+     * @param idToken
+     *            ID token
+     */
+    public void setIdToken(final IdToken idToken) {
+
+        this.idToken = idToken;
+    }
+
     public void setUsedUpAuthenticationCode(final boolean usedUpAuthenticationCode) {
 
         this.usedUpAuthenticationCode = usedUpAuthenticationCode;
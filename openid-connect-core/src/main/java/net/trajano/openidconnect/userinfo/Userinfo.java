@@ -288,7 +288,7 @@ public class Userinfo {
         return sub;
     }
 
-    public long getUpdatedAt() {
+    public Long getUpdatedAt() {
 
         return updatedAt;
     }
@@ -303,12 +303,12 @@ public class Userinfo {
         return zoneinfo;
     }
 
-    public boolean isEmailVerified() {
+    public Boolean isEmailVerified() {
 
         return emailVerified;
     }
 
-    public boolean isPhoneNumberVerified() {
+    public Boolean isPhoneNumberVerified() {
 
         return phoneNumberVerified;
     }
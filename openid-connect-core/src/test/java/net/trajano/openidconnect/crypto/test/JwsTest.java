@@ -1,12 +1,18 @@
 package net.trajano.openidconnect.crypto.test;
 
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.util.Random;
 
+import net.trajano.openidconnect.crypto.EcWebKey;
 import net.trajano.openidconnect.crypto.Encoding;
 import net.trajano.openidconnect.crypto.JsonWebKey;
 import net.trajano.openidconnect.crypto.JsonWebToken;
 import net.trajano.openidconnect.crypto.JsonWebTokenBuilder;
 import net.trajano.openidconnect.crypto.JsonWebTokenProcessor;
+import net.trajano.openidconnect.crypto.NamedEllipticCurve;
 import net.trajano.openidconnect.crypto.OctWebKey;
 
 import org.junit.Assert;
@@ -48,4 +54,30 @@ public class JwsTest {
                 .jwk(jwk);
         Assert.assertArrayEquals(payload, p.getPayload());
     }
+
+    @Test
+    public void testWithES256() throws Exception {
+
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(NamedEllipticCurve.P256.toECParameterSpec());
+        final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        final EcWebKey privateJwk = new EcWebKey("ec", NamedEllipticCurve.P256, (ECPrivateKey) keyPair.getPrivate(), (ECPublicKey) keyPair.getPublic());
+        privateJwk.setAlg("ES256");
+        final EcWebKey publicJwk = new EcWebKey("ec", NamedEllipticCurve.P256, (ECPublicKey) keyPair.getPublic());
+        publicJwk.setAlg("ES256");
+
+        byte[] payload = "{\"sub\":\"test\"}".getBytes("UTF-8");
+
+        JsonWebToken jws = new JsonWebTokenBuilder().payload(payload)
+                .jwk(privateJwk)
+                .build();
+
+        // JWS uses the 64 byte R || S form rather than DER
+        Assert.assertEquals(64, Encoding.base64urlDecode(jws.toString()
+                .split("\\.")[2]).length);
+
+        JsonWebTokenProcessor p = new JsonWebTokenProcessor(jws).allowJwkToBeSet(true)
+                .jwk(publicJwk);
+        Assert.assertArrayEquals(payload, p.getPayload());
+    }
 }
@@ -21,7 +21,6 @@ import java.security.Principal;
 import java.text.MessageFormat;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -91,6 +90,13 @@ import net.trajano.openidconnect.token.IdTokenResponse;
  * applications and uses the OAuth token to manage the authentication state. The
  * e-mail addresses are not requested.
  * </p>
+ * <p>
+ * The module is initialized once and shared by all the requests that go
+ * through its {@link net.trajano.openidconnect.jaspic.internal.OpenIdConnectModuleConfig}
+ * so it only holds configuration that is set in
+ * {@link #initialize(MessagePolicy, MessagePolicy, CallbackHandler, Map)}.
+ * The state of a request is kept in its {@link ValidateContext}.
+ * </p>
  *
  * @author Archimedes Trajano
  */
@@ -221,12 +227,6 @@ public class OpenIdConnectAuthModule implements
      */
     private Map<String, String> moduleOptions;
 
-    /**
-     * Randomizer used for nonce generation. It does not need to be
-     * cryptographically secure.
-     */
-    private final Random random = ThreadLocalRandom.current();
-
     /**
      * Redirection endpoint URI. This is set through "redirection_endpoint"
      * option. This must start with a forward slash. This value is optional.
@@ -286,6 +286,16 @@ public class OpenIdConnectAuthModule implements
         return ClientBuilder.newBuilder().hostnameVerifier(NullHostnameVerifier.INSTANCE).sslContext(context).build();
     }
 
+    /**
+     * Closes the REST client. The module is not usable afterwards.
+     */
+    public void close() {
+
+        if (restClient != null) {
+            restClient.close();
+        }
+    }
+
     /**
      * Cleans off the user principal and group principal from the subject.
      *
@@ -614,8 +624,11 @@ public class OpenIdConnectAuthModule implements
      */
     private String nextNonce() {
 
+        // the module is shared by concurrent requests so the randomizer of the
+        // current thread is used. It does not need to be cryptographically
+        // secure.
         final byte[] bytes = new byte[8];
-        random.nextBytes(bytes);
+        ThreadLocalRandom.current().nextBytes(bytes);
         return Encoding.base64urlEncode(bytes);
     }
 
@@ -905,7 +918,7 @@ public class OpenIdConnectAuthModule implements
             final TokenCookie tokenCookie = processTokenCookie(clientSubject, req, resp);
 
             final ValidateContext context = new ValidateContext(restClient, clientSubject, mandatory, moduleOptions,
-                req, resp, tokenCookie, cookieContext, handler);
+                secret, req, resp, tokenCookie, cookieContext, handler);
 
             final ValidateRequestProcessor requestProcessor = ValidateRequestProcessors.getInstance();
 
@@ -1,5 +1,6 @@
 package net.trajano.openidconnect.jaspic.internal;
 
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -17,10 +18,45 @@ import net.trajano.openidconnect.jaspic.OpenIdConnectAuthModule;
 
 
 /**
- * Provides initialized server modules/contexts.
+ * Provides initialized server modules/contexts. A module is initialized once
+ * for each combination of message policy and effective options and reused by
+ * the subsequent requests as initialization derives the cookie secret key and
+ * builds a JAX-RS client.
  */
 public class OpenIdConnectModuleConfig implements ServerAuthConfig {
 
+    /**
+     * Identifies an initialized module.
+     */
+    private static final class ContextKey {
+
+        private final boolean mandatory;
+
+        private final Map<?, ?> options;
+
+        public ContextKey(final boolean mandatory, final Map<?, ?> options) {
+
+            this.mandatory = mandatory;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+
+            if (!(obj instanceof ContextKey)) {
+                return false;
+            }
+            final ContextKey other = (ContextKey) obj;
+            return mandatory == other.mandatory && options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+
+            return options.hashCode() * 31 + (mandatory ? 1 : 0);
+        }
+    }
+
     /**
      * <p>
      * The {@link MessageInfo} map must contain this key and its associated
@@ -48,6 +84,13 @@ public class OpenIdConnectModuleConfig implements ServerAuthConfig {
      */
     private static final String JAVAX_SECURITY_AUTH_MESSAGE_MESSAGE_POLICY_IS_MANDATORY = "javax.security.auth.message.MessagePolicy.isMandatory";
 
+    /**
+     * Maximum number of initialized modules that are kept. Options that are
+     * augmented with different properties on every call are not cached past
+     * this.
+     */
+    private static final int MAX_CACHED_CONTEXTS = 16;
+
     /**
      * Mandatory message policy.
      */
@@ -63,6 +106,11 @@ public class OpenIdConnectModuleConfig implements ServerAuthConfig {
      */
     private final String appContext;
 
+    /**
+     * Initialized modules.
+     */
+    private final ConcurrentMap<ContextKey, OpenIdConnectAuthModule> contexts = new ConcurrentHashMap<>();
+
     /**
      * Callback handler.
      */
@@ -104,12 +152,48 @@ public class OpenIdConnectModuleConfig implements ServerAuthConfig {
             @SuppressWarnings("rawtypes") final Map properties) throws AuthException {
 
         final Map<?, ?> augmentedOptions = augmentProperties(properties);
-        final OpenIdConnectAuthModule module = new OpenIdConnectAuthModule();
+        final ContextKey key = new ContextKey(authContextID != null, augmentedOptions);
+        final OpenIdConnectAuthModule cached = contexts.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        if (contexts.size() < MAX_CACHED_CONTEXTS) {
+            // serialized so concurrent first requests initialize only one
+            // module
+            synchronized (contexts) {
+                final OpenIdConnectAuthModule existing = contexts.get(key);
+                if (existing != null) {
+                    return existing;
+                }
+                if (contexts.size() < MAX_CACHED_CONTEXTS) {
+                    final OpenIdConnectAuthModule module = newModule(authContextID != null, augmentedOptions);
+                    contexts.put(key, module);
+                    return module;
+                }
+            }
+        }
+        // not cached so it is initialized without holding the lock
+        return newModule(authContextID != null, augmentedOptions);
+    }
 
-        if (authContextID == null) {
-            module.initialize(NON_MANDATORY, NON_MANDATORY, handler, augmentedOptions);
-        } else {
+    /**
+     * Creates and initializes a module.
+     *
+     * @param mandatory
+     *            <code>true</code> if authentication is mandatory
+     * @param augmentedOptions
+     *            options
+     * @return initialized module
+     * @throws AuthException
+     */
+    private OpenIdConnectAuthModule newModule(final boolean mandatory,
+            final Map<?, ?> augmentedOptions) throws AuthException {
+
+        final OpenIdConnectAuthModule module = new OpenIdConnectAuthModule();
+        if (mandatory) {
             module.initialize(MANDATORY, MANDATORY, handler, augmentedOptions);
+        } else {
+            module.initialize(NON_MANDATORY, NON_MANDATORY, handler, augmentedOptions);
         }
         return module;
     }
@@ -144,10 +228,17 @@ public class OpenIdConnectModuleConfig implements ServerAuthConfig {
     }
 
     /**
-     * Does nothing as the module does not accept changes at runtime.
+     * Discards the initialized modules so the next requests initialize them
+     * again. The REST clients of the discarded modules are closed.
      */
     public void refresh() {
 
+        final Iterator<OpenIdConnectAuthModule> i = contexts.values().iterator();
+        while (i.hasNext()) {
+            final OpenIdConnectAuthModule module = i.next();
+            i.remove();
+            module.close();
+        }
     }
 
     public boolean isProtected() {
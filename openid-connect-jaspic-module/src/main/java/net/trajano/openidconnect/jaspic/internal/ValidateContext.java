@@ -47,16 +47,17 @@ public class ValidateContext {
 
     private final HttpServletResponse resp;
 
-    private SecretKey secret;
+    private final SecretKey secret;
 
     private final TokenCookie tokenCookie;
 
-    public ValidateContext(final Client client, final Subject clientSubject, final boolean mandatory, final Map<String, String> options, final HttpServletRequest req, final HttpServletResponse resp, final TokenCookie tokenCookie, final String cookieContext, final CallbackHandler handler) {
+    public ValidateContext(final Client client, final Subject clientSubject, final boolean mandatory, final Map<String, String> options, final SecretKey secret, final HttpServletRequest req, final HttpServletResponse resp, final TokenCookie tokenCookie, final String cookieContext, final CallbackHandler handler) {
 
         this.client = client;
         this.clientSubject = clientSubject;
         this.mandatory = mandatory;
         this.options = options;
+        this.secret = secret;
         this.req = req;
         this.resp = resp;
         this.tokenCookie = tokenCookie;
@@ -178,11 +179,14 @@ public class ValidateContext {
         return resp;
     }
 
-    public synchronized SecretKey getSecret() throws GeneralSecurityException {
+    /**
+     * Gets the secret key of the module. It is derived once when the module is
+     * initialized rather than on every request.
+     *
+     * @return secret key
+     */
+    public SecretKey getSecret() {
 
-        if (secret == null) {
-            secret = CipherUtil.buildSecretKey(options.get(OpenIdConnectKey.CLIENT_ID), options.get(OpenIdConnectKey.CLIENT_SECRET));
-        }
         return secret;
     }
 
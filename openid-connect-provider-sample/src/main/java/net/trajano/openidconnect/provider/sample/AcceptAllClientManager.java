@@ -45,6 +45,12 @@ public class AcceptAllClientManager implements ClientManager, Authenticator, Use
         return clientId;
     }
 
+    @Override
+    public URI getBackChannelLogoutUri(final String clientId) {
+
+        return null;
+    }
+
     @Override
     public Userinfo getUserinfo(final IdToken idToken) {
 
@@ -12,15 +12,15 @@ import javax.servlet.http.HttpServletResponse;
 
 import net.trajano.openidconnect.auth.AuthenticationRequest;
 import net.trajano.openidconnect.core.OpenIdConnectKey;
+import net.trajano.openidconnect.provider.ejb.AuthenticationRequestStore;
 import net.trajano.openidconnect.provider.spi.AuthenticationResponseProvider;
 import net.trajano.openidconnect.provider.spi.Authenticator;
-import net.trajano.openidconnect.provider.spi.KeyProvider;
 
 @WebServlet(urlPatterns = "/doConsent")
 public class ConsentServlet extends HttpServlet {
 
     @EJB
-    private KeyProvider keyProvider;
+    private AuthenticationRequestStore requestStore;
 
     /**
      * 
@@ -37,7 +37,7 @@ public class ConsentServlet extends HttpServlet {
 
         String requestJwt = req.getParameter(OpenIdConnectKey.REQUEST);
         try {
-            AuthenticationRequest authReq = new AuthenticationRequest(requestJwt, keyProvider.getPrivateJwks());
+            AuthenticationRequest authReq = requestStore.resolve(requestJwt);
             req.setAttribute("requestObject", authReq);
             req.getRequestDispatcher("WEB-INF/consent.jsp")
                     .forward(req, resp);
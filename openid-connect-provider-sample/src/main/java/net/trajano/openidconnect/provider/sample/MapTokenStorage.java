@@ -1,19 +1,22 @@
 package net.trajano.openidconnect.provider.sample;
 
-import java.io.StringReader;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import javax.ejb.Lock;
 import javax.ejb.LockType;
+import javax.ejb.Schedule;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
-import javax.json.Json;
 import javax.json.JsonObject;
 
 import net.trajano.openidconnect.provider.spi.Consent;
+import net.trajano.openidconnect.provider.spi.ReplayDetector;
 import net.trajano.openidconnect.provider.spi.TokenStorage;
 import net.trajano.openidconnect.token.IdToken;
 import net.trajano.openidconnect.token.IdTokenResponse;
@@ -30,19 +33,132 @@ import net.trajano.openidconnect.token.IdTokenResponse;
 public class MapTokenStorage implements
     TokenStorage {
 
+    /**
+     * Current state of a refresh token family. This is only modified while
+     * holding the write lock.
+     */
+    private static final class RefreshTokenFamily {
+
+        private String accessToken;
+
+        /**
+         * Refresh token that was current before the latest rotation.
+         */
+        private String previousRefreshToken;
+
+        private String refreshToken;
+
+        private boolean revoked;
+
+        /**
+         * Time of the latest rotation in milliseconds since the epoch.
+         */
+        private long rotatedAt;
+
+        /**
+         * Local subject the family was granted to.
+         */
+        private String subject;
+
+        public RefreshTokenFamily(final String accessToken, final String refreshToken) {
+
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+        }
+    }
+
     private static final int ONE_HOUR = 120;
 
-    private final ConcurrentMap<String, String> accessTokenToClaims = new ConcurrentHashMap<>();
+    /**
+     * Default number of milliseconds the previous refresh token of a family
+     * resolves to the response it was rotated into.
+     */
+    private static final long DEFAULT_ROTATION_GRACE_MILLIS = 10000L;
+
+    /**
+     * Number of milliseconds a used code is remembered.
+     */
+    private static final long USED_CODE_MILLIS = 600000L;
+
+    private final ConcurrentMap<String, JsonObject> accessTokenToClaims = new ConcurrentHashMap<>();
 
     private final ConcurrentMap<String, IdTokenResponse> accessTokenToTokenResponse = new ConcurrentHashMap<>();
 
     private final ConcurrentMap<String, IdTokenResponse> codeToTokenResponse = new ConcurrentHashMap<>();
 
-    private final ConcurrentMap<Consent, IdTokenResponse> consentToTokenResponse = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RefreshTokenFamily> families = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, String> refreshTokenToFamily = new ConcurrentHashMap<>();
 
     private final ConcurrentMap<String, IdTokenResponse> refreshTokenToTokenResponse = new ConcurrentHashMap<>();
 
-    private final Set<String> usedCodes = new HashSet<>();
+    /**
+     * Number of milliseconds the previous refresh token of a family resolves
+     * to the response it was rotated into.
+     */
+    private long rotationGraceMillis = DEFAULT_ROTATION_GRACE_MILLIS;
+
+    /**
+     * Refresh token families granted to each subject.
+     */
+    private final ConcurrentMap<String, Set<String>> subjectToFamilies = new ConcurrentHashMap<>();
+
+    /**
+     * Used codes along with the family they granted. Memory stays bounded as
+     * the exact sets are limited and backed by a filter.
+     */
+    private final ReplayDetector usedCodes = new ReplayDetector(USED_CODE_MILLIS, 60000L, 10000);
+
+    @Override
+    @Lock(LockType.WRITE)
+    public void addSubjectGrant(final String subject,
+        final String family) {
+
+        Set<String> subjectFamilies = subjectToFamilies.get(subject);
+        if (subjectFamilies == null) {
+            subjectFamilies = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            subjectToFamilies.put(subject, subjectFamilies);
+        }
+        subjectFamilies.add(family);
+        final RefreshTokenFamily state = families.get(family);
+        if (state != null) {
+            state.subject = subject;
+        }
+    }
+
+    /**
+     * Removes the families that were revoked and the previous refresh tokens
+     * that are past their grace period. Once removed, presenting such a
+     * refresh token is treated like any unknown refresh token.
+     */
+    @Schedule(minute = "*",
+        hour = "*",
+        persistent = false)
+    @Lock(LockType.WRITE)
+    public void evict() {
+
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<String, RefreshTokenFamily>> i = families.entrySet()
+            .iterator();
+        while (i.hasNext()) {
+            final Map.Entry<String, RefreshTokenFamily> entry = i.next();
+            final RefreshTokenFamily state = entry.getValue();
+            if (state.previousRefreshToken != null && (state.revoked || now - state.rotatedAt >= rotationGraceMillis)) {
+                refreshTokenToFamily.remove(state.previousRefreshToken);
+                state.previousRefreshToken = null;
+            }
+            if (state.revoked) {
+                refreshTokenToFamily.remove(state.refreshToken);
+                i.remove();
+                if (state.subject != null) {
+                    final Set<String> subjectFamilies = subjectToFamilies.get(state.subject);
+                    if (subjectFamilies != null && subjectFamilies.remove(entry.getKey()) && subjectFamilies.isEmpty()) {
+                        subjectToFamilies.remove(state.subject, subjectFamilies);
+                    }
+                }
+            }
+        }
+    }
 
     @Override
     public IdTokenResponse getByAccessToken(final String accessToken) {
@@ -56,17 +172,51 @@ public class MapTokenStorage implements
         return codeToTokenResponse.get(code);
     }
 
+    /**
+     * Consent is tracked by the token provider so no mapping is kept.
+     */
     @Override
+    @Deprecated
     public IdTokenResponse getByConsent(final Consent consent) {
 
-        return consentToTokenResponse.get(consent);
+        return null;
+    }
+
+    @Override
+    public IdTokenResponse getByRefreshToken(final String refreshToken) {
+
+        return refreshTokenToTokenResponse.get(refreshToken);
+    }
+
+    /**
+     * {@inheritDoc} Families that were revoked are removed from the index.
+     */
+    @Override
+    public Map<String, IdTokenResponse> getBySubject(final String subject) {
+
+        final Set<String> subjectFamilies = subjectToFamilies.get(subject);
+        if (subjectFamilies == null) {
+            return Collections.emptyMap();
+        }
+        final Map<String, IdTokenResponse> responses = new HashMap<>();
+        final Iterator<String> i = subjectFamilies.iterator();
+        while (i.hasNext()) {
+            final String family = i.next();
+            final RefreshTokenFamily state = families.get(family);
+            final IdTokenResponse response = state == null || state.revoked ? null : refreshTokenToTokenResponse.get(state.refreshToken);
+            if (response == null) {
+                i.remove();
+            } else {
+                responses.put(family, response);
+            }
+        }
+        return responses;
     }
 
     @Override
     public JsonObject getClaimsByAccessToken(final String accessToken) {
 
-        return Json.createReader(new StringReader(accessTokenToClaims.get(accessToken)))
-            .readObject();
+        return accessTokenToClaims.get(accessToken);
     }
 
     @Override
@@ -81,16 +231,53 @@ public class MapTokenStorage implements
         return desiredExpiration;
     }
 
+    @Override
+    public String getLocalSubject(final String family) {
+
+        final RefreshTokenFamily state = families.get(family);
+        if (state == null) {
+            return null;
+        }
+        return state.subject;
+    }
+
+    @Override
+    public String getRefreshTokenFamily(final String refreshToken) {
+
+        return refreshTokenToFamily.get(refreshToken);
+    }
+
+    @Override
+    public IdTokenResponse getRotatedResponse(final String refreshToken) {
+
+        final String family = refreshTokenToFamily.get(refreshToken);
+        if (family == null) {
+            return null;
+        }
+        final RefreshTokenFamily state = families.get(family);
+        if (state == null || state.revoked || !refreshToken.equals(state.previousRefreshToken) || System.currentTimeMillis() - state.rotatedAt >= rotationGraceMillis) {
+            return null;
+        }
+        return refreshTokenToTokenResponse.get(state.refreshToken);
+    }
+
+    @Override
+    public String getUsedCodeFamily(final String code) {
+
+        return usedCodes.getConfirmedValue(code);
+    }
+
     @Override
     public boolean isCodeUsed(final String code) {
 
-        return usedCodes.contains(code);
+        return usedCodes.isUsed(code);
     }
 
     @Override
-    public void markCodeAsUsed(final String code) {
+    public void markCodeAsUsed(final String code,
+        final String family) {
 
-        usedCodes.add(code);
+        usedCodes.markUsed(code, family);
     }
 
     @Override
@@ -109,11 +296,10 @@ public class MapTokenStorage implements
     }
 
     @Override
-    @Lock(LockType.WRITE)
+    @Deprecated
     public IdTokenResponse removeMappingForConsent(final Consent consent) {
 
-        return consentToTokenResponse.remove(consent);
-
+        return null;
     }
 
     @Override
@@ -124,16 +310,71 @@ public class MapTokenStorage implements
 
     }
 
+    @Override
+    @Lock(LockType.WRITE)
+    public void revokeRefreshTokenFamily(final String family) {
+
+        final RefreshTokenFamily state = families.get(family);
+        if (state == null || state.revoked) {
+            return;
+        }
+        state.revoked = true;
+        removeMappingForAccessToken(state.accessToken);
+        removeMappingForRefreshToken(state.refreshToken);
+    }
+
+    @Override
+    @Lock(LockType.WRITE)
+    public boolean rotateRefreshToken(final String family,
+        final String expectedRefreshToken,
+        final IdToken idToken,
+        final IdTokenResponse idTokenResponse,
+        final JsonObject claims) {
+
+        final RefreshTokenFamily state = families.get(family);
+        if (state == null || state.revoked || !state.refreshToken.equals(expectedRefreshToken)) {
+            return false;
+        }
+        removeMappingForAccessToken(state.accessToken);
+        removeMappingForRefreshToken(state.refreshToken);
+        storeMappings(idToken, idTokenResponse, claims);
+
+        // only the refresh token that was current until now is given a grace
+        // period, an older one is no longer mapped to the family.
+        if (state.previousRefreshToken != null) {
+            refreshTokenToFamily.remove(state.previousRefreshToken);
+        }
+        state.accessToken = idTokenResponse.getAccessToken();
+        state.previousRefreshToken = state.refreshToken;
+        state.refreshToken = idTokenResponse.getRefreshToken();
+        state.rotatedAt = System.currentTimeMillis();
+        refreshTokenToFamily.put(state.refreshToken, family);
+        return true;
+    }
+
+    /**
+     * Sets the number of milliseconds the previous refresh token of a family
+     * resolves to the response it was rotated into.
+     *
+     * @param rotationGraceMillis
+     *            grace period in milliseconds
+     */
+    public void setRotationGraceMillis(final long rotationGraceMillis) {
+
+        this.rotationGraceMillis = rotationGraceMillis;
+    }
+
     @Lock(LockType.WRITE)
     @Override
     public void store(final IdToken idToken,
         final IdTokenResponse idTokenResponse,
         final JsonObject claims) {
 
-        accessTokenToTokenResponse.put(idTokenResponse.getAccessToken(), idTokenResponse);
-        accessTokenToClaims.put(idTokenResponse.getAccessToken(), claims.toString());
-        refreshTokenToTokenResponse.put(idTokenResponse.getRefreshToken(), idTokenResponse);
-        consentToTokenResponse.put(new Consent(idToken, idTokenResponse), idTokenResponse);
+        storeMappings(idToken, idTokenResponse, claims);
+
+        final String family = idTokenResponse.getRefreshToken();
+        families.put(family, new RefreshTokenFamily(idTokenResponse.getAccessToken(), family));
+        refreshTokenToFamily.put(family, family);
     }
 
     @Lock(LockType.WRITE)
@@ -148,4 +389,13 @@ public class MapTokenStorage implements
         codeToTokenResponse.put(code, idTokenResponse);
 
     }
+
+    private void storeMappings(final IdToken idToken,
+        final IdTokenResponse idTokenResponse,
+        final JsonObject claims) {
+
+        accessTokenToTokenResponse.put(idTokenResponse.getAccessToken(), idTokenResponse);
+        accessTokenToClaims.put(idTokenResponse.getAccessToken(), claims);
+        refreshTokenToTokenResponse.put(idTokenResponse.getRefreshToken(), idTokenResponse);
+    }
 }
@@ -0,0 +1,127 @@
+package net.trajano.openidconnect.provider.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import net.trajano.openidconnect.provider.sample.MapTokenStorage;
+import net.trajano.openidconnect.token.IdToken;
+import net.trajano.openidconnect.token.IdTokenResponse;
+
+import org.junit.Test;
+
+public class MapTokenStorageTest {
+
+    private static final JsonObject CLAIMS = Json.createObjectBuilder()
+        .build();
+
+    private static IdTokenResponse buildResponse(final String accessToken,
+        final String refreshToken) {
+
+        final IdTokenResponse response = new IdTokenResponse();
+        response.setAccessToken(accessToken);
+        response.setRefreshToken(refreshToken);
+        return response;
+    }
+
+    private static MapTokenStorage buildStorage(final long rotationGraceMillis) {
+
+        final MapTokenStorage storage = new MapTokenStorage();
+        storage.setRotationGraceMillis(rotationGraceMillis);
+        storage.store(new IdToken(), buildResponse("a1", "r1"), CLAIMS);
+        storage.addSubjectGrant("sub", "r1");
+        return storage;
+    }
+
+    @Test
+    public void testEvictDropsRevokedFamily() {
+
+        final MapTokenStorage storage = buildStorage(60000L);
+        storage.revokeRefreshTokenFamily("r1");
+        assertNull(storage.getByRefreshToken("r1"));
+        assertNull(storage.getByAccessToken("a1"));
+        assertEquals("r1", storage.getRefreshTokenFamily("r1"));
+
+        storage.evict();
+        assertNull(storage.getRefreshTokenFamily("r1"));
+        assertNull(storage.getLocalSubject("r1"));
+        assertTrue(storage.getBySubject("sub")
+            .isEmpty());
+    }
+
+    @Test
+    public void testEvictPrunesPreviousRefreshToken() throws Exception {
+
+        final MapTokenStorage storage = buildStorage(0L);
+        assertTrue(storage.rotateRefreshToken("r1", "r1", new IdToken(), buildResponse("a2", "r2"), CLAIMS));
+
+        // the previous refresh token is detected as reused until it is evicted
+        assertEquals("r1", storage.getRefreshTokenFamily("r1"));
+        assertNull(storage.getRotatedResponse("r1"));
+
+        storage.evict();
+        assertNull(storage.getRefreshTokenFamily("r1"));
+        assertEquals("r1", storage.getRefreshTokenFamily("r2"));
+        assertEquals("sub", storage.getLocalSubject("r1"));
+    }
+
+    @Test
+    public void testEvictKeepsPreviousRefreshTokenInGracePeriod() {
+
+        final MapTokenStorage storage = buildStorage(60000L);
+        assertTrue(storage.rotateRefreshToken("r1", "r1", new IdToken(), buildResponse("a2", "r2"), CLAIMS));
+
+        storage.evict();
+        assertEquals("r1", storage.getRefreshTokenFamily("r1"));
+        assertEquals("a2", storage.getRotatedResponse("r1")
+            .getAccessToken());
+    }
+
+    @Test
+    public void testUsedCodeKeepsFamily() {
+
+        final MapTokenStorage storage = buildStorage(60000L);
+        assertFalse(storage.isCodeUsed("code"));
+        storage.markCodeAsUsed("code", "r1");
+        assertTrue(storage.isCodeUsed("code"));
+        assertEquals("r1", storage.getUsedCodeFamily("code"));
+        assertNull(storage.getUsedCodeFamily("other"));
+    }
+
+    @Test
+    public void testRevokedFamilyIsNotRotated() {
+
+        final MapTokenStorage storage = buildStorage(60000L);
+        storage.revokeRefreshTokenFamily("r1");
+        assertFalse(storage.rotateRefreshToken("r1", "r1", new IdToken(), buildResponse("a2", "r2"), CLAIMS));
+        assertNull(storage.getByAccessToken("a2"));
+    }
+
+    @Test
+    public void testRotateOnlyFromCurrentRefreshToken() {
+
+        final MapTokenStorage storage = buildStorage(60000L);
+        final IdTokenResponse rotated = buildResponse("a2", "r2");
+        assertTrue(storage.rotateRefreshToken("r1", "r1", new IdToken(), rotated, CLAIMS));
+        assertNull(storage.getByRefreshToken("r1"));
+        assertNull(storage.getByAccessToken("a1"));
+        assertSame(rotated, storage.getByRefreshToken("r2"));
+
+        // a concurrent rotation from the same refresh token loses the race
+        assertFalse(storage.rotateRefreshToken("r1", "r1", new IdToken(), buildResponse("a3", "r3"), CLAIMS));
+        assertNull(storage.getByAccessToken("a3"));
+        assertSame(rotated, storage.getRotatedResponse("r1"));
+
+        // rotating again drops the mapping of the oldest refresh token
+        assertTrue(storage.rotateRefreshToken("r1", "r2", new IdToken(), buildResponse("a4", "r4"), CLAIMS));
+        assertNull(storage.getRefreshTokenFamily("r1"));
+        assertNull(storage.getRotatedResponse("r1"));
+        assertEquals("a4", storage.getRotatedResponse("r2")
+            .getAccessToken());
+    }
+}
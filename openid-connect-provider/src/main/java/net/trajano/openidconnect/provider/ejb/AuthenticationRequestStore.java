@@ -0,0 +1,234 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import net.trajano.openidconnect.auth.AuthenticationRequest;
+import net.trajano.openidconnect.core.ErrorCode;
+import net.trajano.openidconnect.core.OpenIdConnectException;
+import net.trajano.openidconnect.crypto.Encoding;
+
+/**
+ * <p>
+ * Optional store of parsed authentication requests that are in the middle of
+ * the login and consent flow. Rather than passing a (possibly encrypted)
+ * request JWT through the login and consent pages and parsing it again at
+ * every step, an opaque handle is passed and the parsed
+ * {@link AuthenticationRequest} is looked up.
+ * </p>
+ * <p>
+ * The store is disabled unless the <code>requestHandleSeconds</code>
+ * environment entry is set to the number of seconds a handle stays valid.
+ * Since the requests are only kept in memory, it should only be enabled when
+ * requests from a user agent are routed to the same node. When the store is
+ * full as limited by <code>requestHandleMaxEntries</code> no handle is issued
+ * and the caller passes a request JWT as before.
+ * </p>
+ * <p>
+ * Handles do not contain a "." so they can be told apart from a JWT.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class AuthenticationRequestStore {
+
+    /**
+     * Parsed request along with its expiration in milliseconds since the
+     * epoch.
+     */
+    private static final class StoredRequest {
+
+        private final long expiresAt;
+
+        private final AuthenticationRequest request;
+
+        public StoredRequest(final AuthenticationRequest request, final long expiresAt) {
+
+            this.request = request;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Default maximum number of stored requests.
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * Number of random bytes in a handle.
+     */
+    private static final int HANDLE_BYTES = 16;
+
+    /**
+     * Checks if the value is a request JWT rather than a handle.
+     *
+     * @param requestJwtOrHandle
+     *            request JWT or handle
+     * @return <code>true</code> if it is a JWT.
+     */
+    private static boolean isJwt(final String requestJwtOrHandle) {
+
+        return requestJwtOrHandle.indexOf('.') != -1;
+    }
+
+    /**
+     * Maximum number of stored requests.
+     */
+    @Resource(name = "requestHandleMaxEntries")
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private RequestObjectCache requestObjectCache;
+
+    private final ConcurrentMap<String, StoredRequest> requests = new ConcurrentHashMap<>();
+
+    /**
+     * Number of seconds a handle is valid. The store is disabled if this is
+     * not positive.
+     */
+    @Resource(name = "requestHandleSeconds")
+    private int ttlSeconds;
+
+    /**
+     * Removes the expired requests.
+     */
+    @Schedule(minute = "*",
+        hour = "*",
+        persistent = false)
+    public void evict() {
+
+        final long now = System.currentTimeMillis();
+        final Iterator<StoredRequest> i = requests.values()
+            .iterator();
+        while (i.hasNext()) {
+            if (now >= i.next().expiresAt) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of stored requests including those that have expired but
+     * have not been evicted yet.
+     *
+     * @return number of stored requests.
+     */
+    public int getStoredCount() {
+
+        return requests.size();
+    }
+
+    /**
+     * Checks if requests are stored.
+     *
+     * @return <code>true</code> if the store is enabled.
+     */
+    public boolean isEnabled() {
+
+        return ttlSeconds > 0;
+    }
+
+    /**
+     * Stores the parsed request if the store is enabled and not full.
+     *
+     * @param request
+     *            parsed authentication request
+     * @return handle or <code>null</code> if the request is not stored.
+     */
+    public String put(final AuthenticationRequest request) {
+
+        if (!isEnabled() || requests.size() >= maxEntries) {
+            return null;
+        }
+        final byte[] bytes = new byte[HANDLE_BYTES];
+        random.nextBytes(bytes);
+        final String handle = Encoding.base64urlEncode(bytes);
+        requests.put(handle, new StoredRequest(request, System.currentTimeMillis() + ttlSeconds * 1000L));
+        return handle;
+    }
+
+    /**
+     * Removes the request once the flow has completed. This does nothing if a
+     * request JWT is passed.
+     *
+     * @param requestJwtOrHandle
+     *            request JWT or handle
+     */
+    public void remove(final String requestJwtOrHandle) {
+
+        if (!isJwt(requestJwtOrHandle)) {
+            requests.remove(requestJwtOrHandle);
+        }
+    }
+
+    /**
+     * Gets the authentication request for a handle or parses the request JWT.
+     * The request object is obtained through the {@link RequestObjectCache}.
+     *
+     * @param requestJwtOrHandle
+     *            request JWT or handle
+     * @return authentication request
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public AuthenticationRequest resolve(final String requestJwtOrHandle) throws IOException,
+        GeneralSecurityException {
+
+        if (requestJwtOrHandle == null) {
+            throw new OpenIdConnectException(ErrorCode.invalid_request, "missing request");
+        }
+        if (isJwt(requestJwtOrHandle)) {
+            return new AuthenticationRequest(requestObjectCache.getRequestObject(requestJwtOrHandle));
+        }
+        final StoredRequest stored = requests.get(requestJwtOrHandle);
+        if (stored == null || System.currentTimeMillis() >= stored.expiresAt) {
+            throw new OpenIdConnectException(ErrorCode.invalid_request, "authentication request has expired");
+        }
+        return stored.request;
+    }
+
+    /**
+     * Sets the maximum number of stored requests.
+     *
+     * @param maxEntries
+     *            maximum number of stored requests
+     */
+    public void setMaxEntries(final int maxEntries) {
+
+        this.maxEntries = maxEntries;
+    }
+
+    @EJB
+    public void setRequestObjectCache(final RequestObjectCache requestObjectCache) {
+
+        this.requestObjectCache = requestObjectCache;
+    }
+
+    /**
+     * Sets the number of seconds a handle is valid.
+     *
+     * @param ttlSeconds
+     *            number of seconds, the store is disabled if this is not
+     *            positive
+     */
+    public void setTtlSeconds(final int ttlSeconds) {
+
+        this.ttlSeconds = ttlSeconds;
+    }
+}
@@ -0,0 +1,266 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+
+import net.trajano.openidconnect.crypto.Encoding;
+import net.trajano.openidconnect.crypto.JsonWebKey;
+import net.trajano.openidconnect.internal.CharSets;
+import net.trajano.openidconnect.provider.spi.KeyProvider;
+import net.trajano.openidconnect.provider.spi.ReplayDetector;
+
+/**
+ * <p>
+ * Produces stateless authorization codes. Rather than storing a code mapping
+ * in the {@link net.trajano.openidconnect.provider.spi.TokenStorage}, the
+ * code is the access token it grants sealed with AES-GCM using the current
+ * secret key of the {@link KeyProvider}. The sealed data also contains a
+ * random code ID and the expiration of the code.
+ * </p>
+ * <p>
+ * The code is <code>kid.data</code> where <code>data</code> is the base64url
+ * encoding of the GCM IV followed by the cipher text. The key ID is used as
+ * additional authenticated data. Codes that were already exchanged are
+ * tracked by their code ID in a {@link ReplayDetector} until they expire.
+ * </p>
+ * <p>
+ * This mode is enabled by setting the
+ * <code>statelessAuthorizationCodes</code> environment entry to
+ * <code>true</code>. Since consumed codes are tracked in memory, the token
+ * endpoint requests for a code need to be served by the same node for replay
+ * detection to be complete. The code lifetime is set by
+ * <code>authorizationCodeSeconds</code>.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Lock(LockType.READ)
+public class AuthorizationCodeSealer {
+
+    /**
+     * Contents of a sealed code.
+     */
+    public static final class SealedCode {
+
+        private final String accessToken;
+
+        private final String codeId;
+
+        private final long expiresAt;
+
+        private SealedCode(final String codeId, final long expiresAt, final String accessToken) {
+
+            this.codeId = codeId;
+            this.expiresAt = expiresAt;
+            this.accessToken = accessToken;
+        }
+
+        public String getAccessToken() {
+
+            return accessToken;
+        }
+    }
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+
+    /**
+     * Number of random bytes in the code ID.
+     */
+    private static final int CODE_ID_BYTES = 16;
+
+    /**
+     * Default number of seconds a code is valid.
+     */
+    private static final int DEFAULT_CODE_SECONDS = 60;
+
+    /**
+     * GCM IV size in bytes.
+     */
+    private static final int IV_BYTES = 12;
+
+    /**
+     * GCM authentication tag size in bits.
+     */
+    private static final int TAG_BITS = 128;
+
+    /**
+     * Checks if the code is a sealed code rather than a code stored in the
+     * {@link net.trajano.openidconnect.provider.spi.TokenStorage}. Stored codes
+     * never contain a ".".
+     *
+     * @param code
+     *            code
+     * @return <code>true</code> if it is a sealed code.
+     */
+    public static boolean isSealed(final String code) {
+
+        return code.indexOf('.') != -1;
+    }
+
+    /**
+     * Number of seconds a code is valid.
+     */
+    @Resource(name = "authorizationCodeSeconds")
+    private int codeSeconds = DEFAULT_CODE_SECONDS;
+
+    /**
+     * Indicates that stateless codes are issued.
+     */
+    @Resource(name = "statelessAuthorizationCodes")
+    private boolean enabled;
+
+    private KeyProvider keyProvider;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private ReplayDetector replayDetector;
+
+    /**
+     * Marks the code as exchanged.
+     *
+     * @param sealedCode
+     *            opened code
+     * @return <code>false</code> if the code was already exchanged.
+     */
+    public boolean consume(final SealedCode sealedCode) {
+
+        return replayDetector.markUsed(sealedCode.codeId, sealedCode.expiresAt);
+    }
+
+    @PostConstruct
+    public void init() {
+
+        replayDetector = new ReplayDetector(codeSeconds * 1000L, 10000L);
+    }
+
+    /**
+     * Checks if the code was already exchanged.
+     *
+     * @param sealedCode
+     *            opened code
+     * @return <code>true</code> if the code was already exchanged.
+     */
+    public boolean isConsumed(final SealedCode sealedCode) {
+
+        return replayDetector.isUsed(sealedCode.codeId, sealedCode.expiresAt);
+    }
+
+    /**
+     * Checks if new codes are sealed.
+     *
+     * @return <code>true</code> if stateless codes are issued.
+     */
+    public boolean isEnabled() {
+
+        return enabled;
+    }
+
+    /**
+     * Opens a sealed code.
+     *
+     * @param code
+     *            sealed code
+     * @return contents of the code or <code>null</code> if the code is not
+     *         authentic or has expired.
+     */
+    public SealedCode open(final String code) {
+
+        final int dot = code.lastIndexOf('.');
+        final String kid = code.substring(0, dot);
+        final JsonWebKey jwk = keyProvider.getPrivateJwks()
+            .getJwk(kid);
+        if (jwk == null) {
+            return null;
+        }
+
+        final ByteBuffer plainText;
+        try {
+            final byte[] data = Encoding.base64urlDecode(code.substring(dot + 1));
+            if (data.length < IV_BYTES) {
+                return null;
+            }
+            final Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, jwk.toJcaKey(), new GCMParameterSpec(TAG_BITS, data, 0, IV_BYTES));
+            cipher.updateAAD(kid.getBytes(CharSets.US_ASCII));
+            plainText = ByteBuffer.wrap(cipher.doFinal(data, IV_BYTES, data.length - IV_BYTES));
+        } catch (final GeneralSecurityException
+            | IllegalArgumentException e) {
+            return null;
+        }
+
+        final byte[] codeId = new byte[CODE_ID_BYTES];
+        plainText.get(codeId);
+        final long expiresAt = plainText.getLong();
+        if (System.currentTimeMillis() >= expiresAt) {
+            return null;
+        }
+        final byte[] accessToken = new byte[plainText.remaining()];
+        plainText.get(accessToken);
+        return new SealedCode(Encoding.base64urlEncode(codeId), expiresAt, new String(accessToken, CharSets.US_ASCII));
+    }
+
+    /**
+     * Seals the access token into a new code.
+     *
+     * @param accessToken
+     *            access token that the code grants
+     * @return sealed code
+     * @throws GeneralSecurityException
+     */
+    public String seal(final String accessToken) throws GeneralSecurityException {
+
+        final String kid = keyProvider.getSecretKeyId();
+        final Key key = keyProvider.getPrivateJwks()
+            .getKey(kid);
+
+        final byte[] accessTokenBytes = accessToken.getBytes(CharSets.US_ASCII);
+        final ByteBuffer plainText = ByteBuffer.allocate(CODE_ID_BYTES + 8 + accessTokenBytes.length);
+        final byte[] codeId = new byte[CODE_ID_BYTES];
+        final byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(codeId);
+        random.nextBytes(iv);
+        plainText.put(codeId);
+        plainText.putLong(System.currentTimeMillis() + codeSeconds * 1000L);
+        plainText.put(accessTokenBytes);
+
+        final Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(kid.getBytes(CharSets.US_ASCII));
+        final byte[] cipherText = cipher.doFinal(plainText.array());
+
+        final byte[] data = new byte[IV_BYTES + cipherText.length];
+        System.arraycopy(iv, 0, data, 0, IV_BYTES);
+        System.arraycopy(cipherText, 0, data, IV_BYTES, cipherText.length);
+        return kid + '.' + Encoding.base64urlEncode(data);
+    }
+
+    /**
+     * Sets the number of seconds a code is valid. This must be called before
+     * {@link #init()}.
+     *
+     * @param codeSeconds
+     *            number of seconds
+     */
+    public void setCodeSeconds(final int codeSeconds) {
+
+        this.codeSeconds = codeSeconds;
+    }
+
+    @EJB
+    public void setKeyProvider(final KeyProvider keyProvider) {
+
+        this.keyProvider = keyProvider;
+    }
+}
@@ -0,0 +1,253 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.json.Json;
+
+import net.trajano.openidconnect.core.Scope;
+import net.trajano.openidconnect.crypto.JsonWebTokenBuilder;
+import net.trajano.openidconnect.provider.internal.LogoutTokenDispatcher;
+import net.trajano.openidconnect.provider.spi.ClientManager;
+import net.trajano.openidconnect.provider.spi.KeyProvider;
+import net.trajano.openidconnect.provider.spi.TokenStorage;
+import net.trajano.openidconnect.token.IdToken;
+import net.trajano.openidconnect.token.IdTokenResponse;
+
+/**
+ * <p>
+ * Notifies the clients that hold tokens for a subject when the session of the
+ * subject is ended, as per OpenID Connect Back-Channel Logout. The clients are
+ * found through {@link TokenStorage#getBySubject(String)} and one logout token
+ * is signed for each client that has a
+ * {@link ClientManager#getBackChannelLogoutUri(String) back-channel logout
+ * URI}. The refresh token families that were not granted
+ * <code>offline_access</code> are revoked.
+ * </p>
+ * <p>
+ * The tokens are delivered in the background by a {@link LogoutTokenDispatcher}
+ * so ending a session does not wait for the clients. The deliveries run on
+ * <code>backChannelLogoutThreads</code> threads, at most
+ * <code>backChannelLogoutMaxPending</code> deliveries may be pending and each
+ * is attempted up to <code>backChannelLogoutMaxAttempts</code> times with a
+ * timeout of <code>backChannelLogoutTimeoutMillis</code>.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Lock(LockType.READ)
+public class BackChannelLogout {
+
+    /**
+     * Event that identifies a logout token.
+     */
+    private static final String BACKCHANNEL_LOGOUT_EVENT = "http://schemas.openid.net/event/backchannel-logout";
+
+    /**
+     * Default maximum number of attempts per delivery.
+     */
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    /**
+     * Default maximum number of pending deliveries.
+     */
+    private static final int DEFAULT_MAX_PENDING = 1000;
+
+    /**
+     * Default number of threads performing deliveries.
+     */
+    private static final int DEFAULT_THREADS = 8;
+
+    /**
+     * Default connect and read timeout in milliseconds.
+     */
+    private static final int DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Milliseconds to wait before the first retry.
+     */
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+    /**
+     * Number of seconds a logout token is valid.
+     */
+    private static final int LOGOUT_TOKEN_SECONDS = 120;
+
+    @EJB
+    private ClientManager clientManager;
+
+    private LogoutTokenDispatcher dispatcher;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    @EJB
+    private KeyProvider keyProvider;
+
+    /**
+     * Maximum number of attempts per delivery.
+     */
+    @Resource(name = "backChannelLogoutMaxAttempts")
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    /**
+     * Maximum number of pending deliveries.
+     */
+    @Resource(name = "backChannelLogoutMaxPending")
+    private int maxPending = DEFAULT_MAX_PENDING;
+
+    /**
+     * Container managed thread factory. This may not be available outside of
+     * a Java EE container.
+     */
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    /**
+     * Number of threads performing deliveries.
+     */
+    @Resource(name = "backChannelLogoutThreads")
+    private int threads = DEFAULT_THREADS;
+
+    /**
+     * Connect and read timeout in milliseconds.
+     */
+    @Resource(name = "backChannelLogoutTimeoutMillis")
+    private int timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    @EJB
+    private TokenStorage tokenStorage;
+
+    /**
+     * Number of logout tokens that were accepted by the clients.
+     *
+     * @return delivered count
+     */
+    public long getDeliveredCount() {
+
+        return dispatcher.getDeliveredCount();
+    }
+
+    /**
+     * Number of logout tokens that were dropped or could not be delivered.
+     *
+     * @return failed count
+     */
+    public long getFailedCount() {
+
+        return dispatcher.getDroppedCount() + dispatcher.getFailedCount();
+    }
+
+    /**
+     * Gets the decoded ID token of the stored response.
+     *
+     * @param idTokenResponse
+     *            stored token response
+     * @return ID token
+     */
+    private IdToken getIdToken(final IdTokenResponse idTokenResponse) {
+
+        final IdToken idToken = idTokenResponse.getIdToken();
+        if (idToken != null) {
+            return idToken;
+        }
+        return idTokenResponse.getIdToken(keyProvider.getJwks());
+    }
+
+    /**
+     * Number of deliveries that are in progress or waiting to be retried.
+     *
+     * @return pending count
+     */
+    public int getPendingCount() {
+
+        return dispatcher.getPendingCount();
+    }
+
+    /**
+     * Creates the dispatcher.
+     */
+    @PostConstruct
+    public void init() {
+
+        final ThreadFactory factory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+        executor = new ScheduledThreadPoolExecutor(threads, factory);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        dispatcher = new LogoutTokenDispatcher(executor, maxPending, maxAttempts, INITIAL_BACKOFF_MILLIS, timeoutMillis);
+    }
+
+    /**
+     * Revokes the online grants of the subject and sends a logout token to
+     * each of its clients that support back-channel logout. This returns once
+     * the tokens are signed and queued.
+     *
+     * @param subject
+     *            local subject
+     * @param issuer
+     *            issuer
+     * @return number of logout tokens that were queued
+     */
+    public int logout(final String subject,
+        final URI issuer) {
+
+        // sub given to each client, they differ when subjects are pairwise
+        final Map<String, String> clientSubjects = new HashMap<>();
+        for (final Map.Entry<String, IdTokenResponse> grant : tokenStorage.getBySubject(subject)
+            .entrySet()) {
+            final IdToken idToken = getIdToken(grant.getValue());
+            clientSubjects.put(idToken.getAud(), idToken.getSub());
+            if (!grant.getValue()
+                .getScopes()
+                .contains(Scope.offline_access)) {
+                tokenStorage.revokeRefreshTokenFamily(grant.getKey());
+            }
+        }
+
+        int queued = 0;
+        final long iat = System.currentTimeMillis() / 1000;
+        for (final Map.Entry<String, String> e : clientSubjects.entrySet()) {
+            final URI logoutUri = clientManager.getBackChannelLogoutUri(e.getKey());
+            if (logoutUri == null) {
+                continue;
+            }
+            final String logoutToken = new JsonWebTokenBuilder().jwk(keyProvider.getPrivateJwks())
+                .payload(Json.createObjectBuilder()
+                    .add("iss", issuer.toASCIIString())
+                    .add("sub", e.getValue())
+                    .add("aud", e.getKey())
+                    .add("iat", iat)
+                    .add("exp", iat + LOGOUT_TOKEN_SECONDS)
+                    .add("jti", keyProvider.nextEncodedToken())
+                    .add("events", Json.createObjectBuilder()
+                        .add(BACKCHANNEL_LOGOUT_EVENT, Json.createObjectBuilder()))
+                    .build())
+                .toString();
+            if (dispatcher.dispatch(logoutUri, logoutToken)) {
+                ++queued;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Stops the delivery threads. Deliveries waiting to be retried are
+     * abandoned.
+     */
+    @PreDestroy
+    public void shutdown() {
+
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,334 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.net.URI;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+import net.trajano.openidconnect.core.Scope;
+import net.trajano.openidconnect.crypto.JsonWebTokenBuilder;
+import net.trajano.openidconnect.internal.Util;
+import net.trajano.openidconnect.provider.spi.KeyProvider;
+import net.trajano.openidconnect.provider.spi.TokenStorage;
+import net.trajano.openidconnect.token.TokenResponse;
+
+/**
+ * <p>
+ * Caches the signed access tokens that are issued for the
+ * <code>client_credentials</code> grant. There is one entry per client and
+ * requested scope combination. A still valid token is handed out to every
+ * caller so that the request path does not need to sign or write to storage.
+ * </p>
+ * <p>
+ * The issuer is taken from the request so it is not part of the key, as
+ * otherwise the number of entries would be up to the callers. An entry only
+ * holds a token for the issuer it was last signed for and requesting a
+ * different issuer replaces it.
+ * </p>
+ * <p>
+ * Tokens that were handed out are re-signed in the background once they reach
+ * the refresh ahead threshold which is a percentage of the token lifetime
+ * configured by the <code>clientCredentialsRefreshAheadPercent</code>
+ * environment entry. Entries that were not used since they were signed are
+ * dropped when they expire. The request path only signs when there is no
+ * valid token available.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class ClientCredentialsTokenCache {
+
+    /**
+     * Cached token data for a client and scope combination.
+     */
+    private static final class CacheEntry {
+
+        private final String clientId;
+
+        private final URI issuer;
+
+        private final String scope;
+
+        private volatile SignedToken token;
+
+        /**
+         * Indicates that the current token was handed out.
+         */
+        private final AtomicBoolean used = new AtomicBoolean();
+
+        public CacheEntry(final String clientId, final URI issuer, final String scope) {
+
+            this.clientId = clientId;
+            this.issuer = issuer;
+            this.scope = scope;
+        }
+    }
+
+    /**
+     * Immutable signed token with its timing data in seconds since the epoch.
+     */
+    private static final class SignedToken {
+
+        private final String encoded;
+
+        private final long expiresAt;
+
+        private final long refreshAt;
+
+        public SignedToken(final String encoded, final long expiresAt, final long refreshAt) {
+
+            this.encoded = encoded;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+    }
+
+    /**
+     * Default percentage of the token lifetime that remains when the token is
+     * re-signed.
+     */
+    private static final int DEFAULT_REFRESH_AHEAD_PERCENT = 25;
+
+    private static long now() {
+
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * Builds the response for the token.
+     *
+     * @param token
+     *            signed token
+     * @param scope
+     *            scope of the token
+     * @param now
+     *            current time in seconds since the epoch
+     * @return token response
+     */
+    private static TokenResponse toResponse(final SignedToken token,
+        final String scope,
+        final long now) {
+
+        final TokenResponse response = new TokenResponse();
+        response.setAccessToken(token.encoded);
+        response.setExpiresIn((int) (token.expiresAt - now));
+        response.setScope(scope);
+        response.setTokenType(TokenResponse.BEARER);
+        return response;
+    }
+
+    private static String toKey(final String clientId,
+        final String scope) {
+
+        return clientId + ' ' + scope;
+    }
+
+    private static String toScope(final Set<Scope> scopes) {
+
+        return scopes.isEmpty() ? null : Util.toString(EnumSet.copyOf(scopes));
+    }
+
+    private final ConcurrentMap<String, CacheEntry> entries = new ConcurrentHashMap<>();
+
+    private KeyProvider keyProvider;
+
+    /**
+     * Percentage of the token lifetime that remains when the token is
+     * re-signed in the background.
+     */
+    @Resource(name = "clientCredentialsRefreshAheadPercent")
+    private int refreshAheadPercent = DEFAULT_REFRESH_AHEAD_PERCENT;
+
+    private TokenStorage tokenStorage;
+
+    /**
+     * Gets a token response for the client only if a cached token is still
+     * valid. This never signs so it can be called on the request thread.
+     *
+     * @param clientId
+     *            authenticated client ID
+     * @param issuer
+     *            issuer URI
+     * @param scopes
+     *            requested scopes, may be empty
+     * @return token response or <code>null</code> if a token has to be signed
+     *         by {@link #getToken(String, URI, Set)}.
+     */
+    public TokenResponse getCachedToken(final String clientId,
+        final URI issuer,
+        final Set<Scope> scopes) {
+
+        final String scope = toScope(scopes);
+        final CacheEntry entry = entries.get(toKey(clientId, scope));
+        if (entry == null || !entry.issuer.equals(issuer)) {
+            return null;
+        }
+        final long now = now();
+        final SignedToken token = entry.token;
+        if (token == null || now >= token.expiresAt) {
+            return null;
+        }
+        entry.used.set(true);
+        return toResponse(token, scope, now);
+    }
+
+    /**
+     * Gets the number of cache entries.
+     *
+     * @return number of cache entries.
+     */
+    public int getEntryCount() {
+
+        return entries.size();
+    }
+
+    /**
+     * Gets a token response for the client. A cached token is used if it is
+     * still valid, otherwise a new one is signed.
+     *
+     * @param clientId
+     *            authenticated client ID
+     * @param issuer
+     *            issuer URI
+     * @param scopes
+     *            requested scopes, may be empty
+     * @return token response
+     */
+    public TokenResponse getToken(final String clientId,
+        final URI issuer,
+        final Set<Scope> scopes) {
+
+        final String scope = toScope(scopes);
+        final String key = toKey(clientId, scope);
+
+        CacheEntry entry = entries.get(key);
+        while (entry == null || !entry.issuer.equals(issuer)) {
+            final CacheEntry newEntry = new CacheEntry(clientId, issuer, scope);
+            if (entry == null ? entries.putIfAbsent(key, newEntry) == null : entries.replace(key, entry, newEntry)) {
+                entry = newEntry;
+            } else {
+                entry = entries.get(key);
+            }
+        }
+
+        final long now = now();
+        SignedToken token = entry.token;
+        if (token == null || now >= token.expiresAt) {
+            synchronized (entry) {
+                token = entry.token;
+                if (token == null || now >= token.expiresAt) {
+                    token = sign(entry);
+                }
+            }
+        }
+        entry.used.set(true);
+        return toResponse(token, scope, now);
+    }
+
+    /**
+     * Re-signs the tokens that were handed out and have reached the refresh
+     * ahead threshold and drops the entries that have expired without being
+     * used.
+     */
+    @Schedule(second = "*/15",
+        minute = "*",
+        hour = "*",
+        persistent = false)
+    public void refreshAhead() {
+
+        final long now = now();
+        final Iterator<CacheEntry> i = entries.values()
+            .iterator();
+        while (i.hasNext()) {
+            final CacheEntry entry = i.next();
+            final SignedToken token = entry.token;
+            if (token == null || now < token.refreshAt) {
+                continue;
+            }
+            if (entry.used.get()) {
+                synchronized (entry) {
+                    if (entry.token == token) {
+                        sign(entry);
+                    }
+                }
+            } else if (now >= token.expiresAt) {
+                i.remove();
+            }
+        }
+    }
+
+    @EJB
+    public void setKeyProvider(final KeyProvider keyProvider) {
+
+        this.keyProvider = keyProvider;
+    }
+
+    /**
+     * Sets the percentage of the token lifetime that remains when the token
+     * is re-signed in the background.
+     *
+     * @param refreshAheadPercent
+     *            percentage of the token lifetime
+     */
+    public void setRefreshAheadPercent(final int refreshAheadPercent) {
+
+        this.refreshAheadPercent = refreshAheadPercent;
+    }
+
+    @EJB
+    public void setTokenStorage(final TokenStorage tokenStorage) {
+
+        this.tokenStorage = tokenStorage;
+    }
+
+    /**
+     * Signs a new access token for the entry and stores it in the entry. This
+     * must be called while holding the lock on the entry.
+     *
+     * @param entry
+     *            cache entry
+     * @return signed token
+     */
+    private SignedToken sign(final CacheEntry entry) {
+
+        final int lifetime = tokenStorage.getDefaultExpiration();
+        final long iat = now();
+        final long exp = iat + lifetime;
+
+        final JsonObjectBuilder claims = Json.createObjectBuilder()
+            .add("iss", entry.issuer.toASCIIString())
+            .add("sub", entry.clientId)
+            .add("aud", entry.clientId)
+            .add("jti", keyProvider.nextEncodedToken())
+            .add("iat", iat)
+            .add("exp", exp);
+        if (entry.scope != null) {
+            claims.add("scope", entry.scope);
+        }
+
+        final String encoded = new JsonWebTokenBuilder().jwk(keyProvider.getPrivateJwks())
+            .payload(claims.build())
+            .toString();
+
+        final SignedToken token = new SignedToken(encoded, exp, exp - lifetime * (long) refreshAheadPercent / 100);
+        entry.token = token;
+        entry.used.set(false);
+        return token;
+    }
+}
@@ -0,0 +1,241 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import net.trajano.openidconnect.core.ErrorCode;
+import net.trajano.openidconnect.core.ErrorResponse;
+import net.trajano.openidconnect.provider.internal.CacheConstants;
+import net.trajano.openidconnect.provider.internal.TokenBuckets;
+import net.trajano.openidconnect.provider.internal.TokenBuckets.Quota;
+
+/**
+ * <p>
+ * Per client rate limiting for the endpoints. This is checked on the request
+ * thread before any storage or cryptographic work is done, so a misbehaving
+ * client is turned away without taking signing capacity from the others. A
+ * request that is over the quota is answered with a
+ * <code>429 Too Many Requests</code> and a <code>Retry-After</code> header.
+ * </p>
+ * <p>
+ * A request is only charged to a client once it is known to come from that
+ * client, otherwise anyone could use up the quota of a client by presenting
+ * its ID. Requests that fail client authentication or cannot be attributed to
+ * a client are charged to their remote address instead with the quota set by
+ * <code>rateLimitSourceQuota</code>, which defaults to the default quota.
+ * </p>
+ * <p>
+ * Rate limiting is disabled by default. The <code>rateLimitQuotas</code>
+ * environment entry sets the quotas of specific clients as a comma separated
+ * list of <code>client_id=rate/burst</code> where the rate is in requests per
+ * second and the burst is the number of requests that may be made at once.
+ * The <code>rateLimitDefaultQuota</code> entry sets the quota of the other
+ * clients in the form <code>rate/burst</code>. The other clients are tracked
+ * individually up to <code>rateLimitMaxClients</code> after which they share
+ * striped buckets.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class ClientRateLimiter {
+
+    /**
+     * Default maximum number of individually tracked clients.
+     */
+    private static final int DEFAULT_MAX_CLIENTS = 10000;
+
+    /**
+     * Number of shared buckets used when the maximum number of clients is
+     * reached.
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * HTTP status code for Too Many Requests which is not part of
+     * {@link javax.ws.rs.core.Response.Status}.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private TokenBuckets buckets;
+
+    /**
+     * Buckets keyed by remote address, <code>null</code> if those requests are
+     * not limited.
+     */
+    private TokenBuckets sourceBuckets;
+
+    /**
+     * Quota of clients that do not have their own.
+     */
+    @Resource(name = "rateLimitDefaultQuota")
+    private String defaultQuota;
+
+    /**
+     * Maximum number of individually tracked clients.
+     */
+    @Resource(name = "rateLimitMaxClients")
+    private int maxClients = DEFAULT_MAX_CLIENTS;
+
+    /**
+     * Quotas of specific clients.
+     */
+    @Resource(name = "rateLimitQuotas")
+    private String quotas;
+
+    /**
+     * Number of requests that were turned away.
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Quota of each remote address for the requests that are not attributed
+     * to a client.
+     */
+    @Resource(name = "rateLimitSourceQuota")
+    private String sourceQuota;
+
+    /**
+     * Parses an optional quota.
+     *
+     * @param quota
+     *            quota, may be <code>null</code> or empty
+     * @return parsed quota or <code>null</code>
+     */
+    private static Quota parseQuota(final String quota) {
+
+        return quota == null || quota.trim()
+            .isEmpty() ? null : Quota.parse(quota);
+    }
+
+    /**
+     * Takes a token from the buckets and builds the response if there is
+     * none.
+     *
+     * @param keyedBuckets
+     *            buckets
+     * @param key
+     *            bucket key
+     * @return <code>null</code> if the request is allowed, otherwise the
+     *         response to send.
+     */
+    private Response admit(final TokenBuckets keyedBuckets,
+        final String key) {
+
+        if (key == null || keyedBuckets == null) {
+            return null;
+        }
+        final long waitNanos = keyedBuckets.take(key, System.nanoTime());
+        if (waitNanos == 0) {
+            return null;
+        }
+        rejectedCount.incrementAndGet();
+        final long retryAfter = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        return Response.status(TOO_MANY_REQUESTS)
+            .entity(new ErrorResponse(ErrorCode.temporarily_unavailable, "rate limit exceeded"))
+            .cacheControl(CacheConstants.NO_CACHE)
+            .header(HttpHeaders.RETRY_AFTER, retryAfter)
+            .build();
+    }
+
+    /**
+     * Takes a token for the client. This must only be called once the request
+     * is known to come from the client.
+     *
+     * @param clientId
+     *            client ID, may be <code>null</code> if it is not known yet
+     * @return <code>null</code> if the request is allowed, otherwise the
+     *         response to send.
+     */
+    public Response admit(final String clientId) {
+
+        return admit(buckets, clientId);
+    }
+
+    /**
+     * Takes a token for the remote address of a request that is not
+     * attributed to a client.
+     *
+     * @param remoteAddress
+     *            remote address of the request
+     * @return <code>null</code> if the request is allowed, otherwise the
+     *         response to send.
+     */
+    public Response admitSource(final String remoteAddress) {
+
+        return admit(sourceBuckets, remoteAddress);
+    }
+
+    /**
+     * Removes the buckets of clients that have not made a request recently.
+     */
+    @Schedule(minute = "*",
+        hour = "*",
+        persistent = false)
+    public void evict() {
+
+        final long now = System.nanoTime();
+        if (buckets != null) {
+            buckets.evict(now);
+        }
+        if (sourceBuckets != null) {
+            sourceBuckets.evict(now);
+        }
+    }
+
+    /**
+     * Number of requests rejected since start up.
+     *
+     * @return rejected request count
+     */
+    public long getRejectedCount() {
+
+        return rejectedCount.get();
+    }
+
+    /**
+     * Parses the quotas.
+     */
+    @PostConstruct
+    public void init() {
+
+        final Map<String, Quota> clientQuotas = new HashMap<>();
+        if (quotas != null) {
+            for (final String entry : quotas.split(",")) {
+                if (entry.trim()
+                    .isEmpty()) {
+                    continue;
+                }
+                final int equals = entry.indexOf('=');
+                if (equals == -1) {
+                    throw new IllegalArgumentException("invalid rate limit quota " + entry);
+                }
+                clientQuotas.put(entry.substring(0, equals)
+                    .trim(), Quota.parse(entry.substring(equals + 1)));
+            }
+        }
+        final Quota parsedDefaultQuota = parseQuota(defaultQuota);
+        if (parsedDefaultQuota != null || !clientQuotas.isEmpty()) {
+            buckets = new TokenBuckets(parsedDefaultQuota, clientQuotas, maxClients, STRIPES, System.nanoTime());
+        }
+        final Quota parsedSourceQuota = sourceQuota == null ? parsedDefaultQuota : parseQuota(sourceQuota);
+        if (parsedSourceQuota != null) {
+            sourceBuckets = new TokenBuckets(parsedSourceQuota, Collections.<String, Quota> emptyMap(), maxClients, STRIPES, System.nanoTime());
+        }
+    }
+}
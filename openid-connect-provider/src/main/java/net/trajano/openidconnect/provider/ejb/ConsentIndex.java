@@ -0,0 +1,176 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+
+import net.trajano.openidconnect.core.Scope;
+import net.trajano.openidconnect.provider.spi.Consent;
+
+/**
+ * <p>
+ * Keeps track of the scopes that a subject has consented to for a client.
+ * There is one entry per subject and client pair which holds the granted
+ * scopes as a bit mask over {@link Scope}. A request is consented if the
+ * granted scopes are a superset of the requested scopes, so a consent for
+ * <code>openid profile email</code> also covers a later request for
+ * <code>openid profile</code>.
+ * </p>
+ * <p>
+ * Consent expires after the number of seconds set by the
+ * <code>consentSeconds</code> environment entry. Granting consent again merges
+ * the scopes and restarts the expiration.
+ * </p>
+ * <p>
+ * This is a cache that is kept in memory on each node and is not backed by the
+ * {@link net.trajano.openidconnect.provider.spi.TokenStorage}. Consent that was
+ * granted on one node is not known to the other nodes of a cluster, nor after
+ * a restart, so the user may be asked for consent again. That only repeats the
+ * consent page, a request with <code>prompt=none</code> gets
+ * <code>consent_required</code> in that case.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Lock(LockType.READ)
+public class ConsentIndex {
+
+    /**
+     * Immutable set of granted scopes with the expiration in milliseconds
+     * since the epoch.
+     */
+    private static final class Grant {
+
+        private final long expiresAt;
+
+        private final long scopeMask;
+
+        public Grant(final long scopeMask, final long expiresAt) {
+
+            this.scopeMask = scopeMask;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Default number of seconds consent is remembered.
+     */
+    private static final int DEFAULT_CONSENT_SECONDS = 86400;
+
+    private static String key(final String subject,
+        final String clientId) {
+
+        return subject + ' ' + clientId;
+    }
+
+    /**
+     * Builds the bit mask for a set of scopes.
+     *
+     * @param scopes
+     *            scopes, may be <code>null</code>
+     * @return bit mask
+     */
+    private static long toMask(final Set<Scope> scopes) {
+
+        long mask = 0;
+        if (scopes != null) {
+            for (final Scope scope : scopes) {
+                mask |= 1L << scope.ordinal();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Number of seconds consent is remembered.
+     */
+    @Resource(name = "consentSeconds")
+    private int consentSeconds = DEFAULT_CONSENT_SECONDS;
+
+    private final ConcurrentMap<String, Grant> grants = new ConcurrentHashMap<>();
+
+    /**
+     * Removes the expired grants.
+     */
+    @Schedule(minute = "*/5",
+        hour = "*",
+        persistent = false)
+    public void evict() {
+
+        final long now = System.currentTimeMillis();
+        final Iterator<Grant> i = grants.values()
+            .iterator();
+        while (i.hasNext()) {
+            if (now >= i.next().expiresAt) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Records the consent. The scopes are added to the ones that were already
+     * granted.
+     *
+     * @param consent
+     *            consent
+     */
+    public void grant(final Consent consent) {
+
+        final String key = key(consent.getSubject(), consent.getClientId());
+        final long mask = toMask(consent.getScopes());
+        while (true) {
+            final long now = System.currentTimeMillis();
+            final Grant current = grants.get(key);
+            if (current == null) {
+                if (grants.putIfAbsent(key, new Grant(mask, now + consentSeconds * 1000L)) == null) {
+                    return;
+                }
+            } else {
+                final long merged = now < current.expiresAt ? current.scopeMask | mask : mask;
+                if (grants.replace(key, current, new Grant(merged, now + consentSeconds * 1000L))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the subject had consented to at least the requested scopes
+     * for the client.
+     *
+     * @param consent
+     *            requested consent
+     * @return <code>true</code> if consented.
+     */
+    public boolean isConsented(final Consent consent) {
+
+        final Grant grant = grants.get(key(consent.getSubject(), consent.getClientId()));
+        if (grant == null || System.currentTimeMillis() >= grant.expiresAt) {
+            return false;
+        }
+        final long requested = toMask(consent.getScopes());
+        return (grant.scopeMask & requested) == requested;
+    }
+
+    /**
+     * Revokes all consent the subject has given to the client.
+     *
+     * @param subject
+     *            subject
+     * @param clientId
+     *            client ID
+     */
+    public void revoke(final String subject,
+        final String clientId) {
+
+        grants.remove(key(subject, clientId));
+    }
+}
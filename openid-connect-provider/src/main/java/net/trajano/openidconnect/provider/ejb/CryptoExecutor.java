@@ -0,0 +1,239 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import net.trajano.openidconnect.core.ErrorCode;
+import net.trajano.openidconnect.core.ErrorResponse;
+import net.trajano.openidconnect.provider.internal.CacheConstants;
+
+/**
+ * <p>
+ * Bounded executor that performs the storage and cryptographic work of the
+ * endpoints so that the container request threads do not pile up behind RSA
+ * operations.
+ * </p>
+ * <p>
+ * The queue depth is used for admission control. When the queue is at or past
+ * its limit the request is answered immediately with a
+ * <code>503 Service Unavailable</code> and a <code>Retry-After</code> header
+ * that is estimated from the observed task duration.
+ * </p>
+ * <p>
+ * The limits can be configured using the <code>cryptoExecutorThreads</code>
+ * and <code>cryptoExecutorQueueCapacity</code> environment entries.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class CryptoExecutor {
+
+    /**
+     * Default number of tasks that may be waiting for a thread.
+     */
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /**
+     * Minimum value for <code>Retry-After</code> in seconds.
+     */
+    private static final long MIN_RETRY_AFTER = 1;
+
+    /**
+     * Maximum value for <code>Retry-After</code> in seconds.
+     */
+    private static final long MAX_RETRY_AFTER = 30;
+
+    /**
+     * Number of tasks that were completed.
+     */
+    private final AtomicLong completedCount = new AtomicLong();
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Number of requests that were turned away.
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Maximum number of tasks that may be queued before requests are rejected.
+     */
+    @Resource(name = "cryptoExecutorQueueCapacity")
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /**
+     * Number of worker threads. If not positive, the number of available
+     * processors is used as the work is CPU bound.
+     */
+    @Resource(name = "cryptoExecutorThreads")
+    private int threads;
+
+    /**
+     * Container managed thread factory. This may not be available outside of
+     * a Java EE container.
+     */
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    /**
+     * Total nanoseconds spent executing tasks.
+     */
+    private final AtomicLong totalExecutionNanos = new AtomicLong();
+
+    /**
+     * Builds the 503 response sent when the executor is saturated.
+     *
+     * @return response
+     */
+    private Response buildUnavailableResponse() {
+
+        rejectedCount.incrementAndGet();
+        return Response.status(Status.SERVICE_UNAVAILABLE)
+            .entity(new ErrorResponse(ErrorCode.temporarily_unavailable))
+            .cacheControl(CacheConstants.NO_CACHE)
+            .header(HttpHeaders.RETRY_AFTER, getRetryAfter())
+            .build();
+    }
+
+    /**
+     * Runs the task in the executor and resumes the {@link AsyncResponse} with
+     * its result. If the task throws an exception, the response is resumed
+     * with the exception so the JAX-RS exception mapping still applies. If the
+     * executor is saturated, the response is resumed immediately with a 503.
+     *
+     * @param asyncResponse
+     *            suspended response
+     * @param task
+     *            task that builds the response
+     */
+    public void execute(final AsyncResponse asyncResponse,
+        final Callable<Response> task) {
+
+        if (executor.getQueue()
+            .size() >= queueCapacity) {
+            asyncResponse.resume(buildUnavailableResponse());
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    final long start = System.nanoTime();
+                    try {
+                        asyncResponse.resume(task.call());
+                    } catch (final Exception e) {
+                        asyncResponse.resume(e);
+                    } finally {
+                        totalExecutionNanos.addAndGet(System.nanoTime() - start);
+                        completedCount.incrementAndGet();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            asyncResponse.resume(buildUnavailableResponse());
+        }
+    }
+
+    /**
+     * Number of threads currently running tasks.
+     *
+     * @return active thread count
+     */
+    public int getActiveCount() {
+
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Number of tasks completed since start up.
+     *
+     * @return completed task count
+     */
+    public long getCompletedCount() {
+
+        return completedCount.get();
+    }
+
+    /**
+     * Number of tasks waiting for a thread.
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+
+        return executor.getQueue()
+            .size();
+    }
+
+    /**
+     * Number of requests rejected due to saturation since start up.
+     *
+     * @return rejected request count
+     */
+    public long getRejectedCount() {
+
+        return rejectedCount.get();
+    }
+
+    /**
+     * Estimates how long it would take to drain the current queue based on
+     * the average execution time of the tasks.
+     *
+     * @return seconds to wait before retrying
+     */
+    long getRetryAfter() {
+
+        final long completed = completedCount.get();
+        if (completed == 0) {
+            return MIN_RETRY_AFTER;
+        }
+        final long averageNanos = totalExecutionNanos.get() / completed;
+        final long drainNanos = averageNanos * getQueueDepth() / executor.getMaximumPoolSize();
+        return Math.min(MAX_RETRY_AFTER, Math.max(MIN_RETRY_AFTER, TimeUnit.NANOSECONDS.toSeconds(drainNanos)));
+    }
+
+    /**
+     * Creates the executor.
+     */
+    @PostConstruct
+    public void init() {
+
+        final int poolSize = threads > 0 ? threads : Runtime.getRuntime()
+            .availableProcessors();
+        final ThreadFactory factory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), factory);
+    }
+
+    /**
+     * Stops the executor. Tasks that are already queued are allowed to finish.
+     */
+    @PreDestroy
+    public void shutdown() {
+
+        executor.shutdown();
+    }
+}
@@ -1,13 +1,13 @@
 package net.trajano.openidconnect.provider.ejb;
 
-import static java.net.URI.create;
-
 import java.io.IOException;
 import java.net.URI;
 import java.security.GeneralSecurityException;
 
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.EJB;
-import javax.ejb.Stateless;
+import javax.ejb.Singleton;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,13 +34,20 @@ import net.trajano.openidconnect.token.IdTokenResponse;
 import net.trajano.openidconnect.token.TokenResponse;
 
 /**
+ * <p>
  * Upon successful authentication, implementers are expected to invoke any of
  * the methods below. This class is meant to be injected into a servlet or REST
  * service.
+ * </p>
+ * <p>
+ * It holds no state of its own so a single instance serves all requests
+ * without pooling or container locks.
+ * </p>
  *
  * @author Archimedes Trajano
  */
-@Stateless
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class DefaultAuthenticationResponseProvider implements
     AuthenticationResponseProvider {
 
@@ -52,6 +59,12 @@ public class DefaultAuthenticationResponseProvider implements
 
     private KeyProvider keyProvider;
 
+    @EJB
+    private ProviderConfigurationCache providerConfigurationCache;
+
+    @EJB
+    private AuthenticationRequestStore requestStore;
+
     @Context
     javax.ws.rs.ext.Providers providers;
 
@@ -79,14 +92,7 @@ public class DefaultAuthenticationResponseProvider implements
 
         final AuthenticationResponse response = new AuthenticationResponse();
 
-        final UriBuilder issuerUri = UriBuilder.fromUri(create(req.getRequestURL()
-            .toString()))
-            .scheme("https")
-            .replacePath(req.getContextPath())
-            .replaceQuery(null)
-            .fragment(null);
-
-        final String code = tokenProvider.createNewToken(subject, issuerUri.build(), request);
+        final String code = tokenProvider.createNewToken(subject, providerConfigurationCache.getIssuer(req), request);
 
         if (request.getState() != null) {
             response.setState(request.getState());
@@ -141,8 +147,8 @@ public class DefaultAuthenticationResponseProvider implements
                 .build();
         } else if (response.getResponseMode() == ResponseMode.form_post) {
 
-            return Response.ok(converter.toFormPost())
-                .type(MediaType.TEXT_HTML_TYPE)
+            return Response.ok(converter.toFormPostOutput())
+                .type(MediaType.TEXT_HTML_TYPE.withCharset("UTF-8"))
                 .cacheControl(CacheConstants.NO_CACHE)
                 .build();
         } else {
@@ -160,8 +166,10 @@ public class DefaultAuthenticationResponseProvider implements
         final String subject) {
 
         try {
-            final AuthenticationRequest req = new AuthenticationRequest(requestJwt, keyProvider.getPrivateJwks());
-            return buildResponse(req, request, subject);
+            final AuthenticationRequest req = requestStore.resolve(requestJwt);
+            final Response response = buildResponse(req, request, subject);
+            requestStore.remove(requestJwt);
+            return response;
         } catch (IOException
             | GeneralSecurityException e) {
             throw new WebApplicationException(e);
@@ -210,7 +218,7 @@ public class DefaultAuthenticationResponseProvider implements
 
         final String requestJwt = req.getParameter(OpenIdConnectKey.REQUEST);
         try {
-            final AuthenticationRequest authReq = new AuthenticationRequest(requestJwt, keyProvider.getPrivateJwks());
+            final AuthenticationRequest authReq = requestStore.resolve(requestJwt);
 
             if (!consent) {
                 final URI consentRequestURI = getConsentRequestUri(requestJwt, authReq, req, subject);
@@ -220,16 +228,16 @@ public class DefaultAuthenticationResponseProvider implements
                 }
             }
             final AuthenticationResponse authResponse = buildAuthenticationResponse(authReq, req, subject);
+            requestStore.remove(requestJwt);
             final AuthenticationResponseConverter authenticationResponse = new AuthenticationResponseConverter(authResponse.getRedirectUri(), authResponse);
             if (authResponse.getResponseMode() == ResponseMode.query) {
                 response.sendRedirect(authenticationResponse.toQueryUri()
                     .toASCIIString());
 
             } else if (authResponse.getResponseMode() == ResponseMode.form_post) {
-                final String formPost = authenticationResponse.toFormPost();
-                response.setContentLength(formPost.length());
-                response.getWriter()
-                    .print(formPost);
+                response.setContentType(MediaType.TEXT_HTML);
+                response.setCharacterEncoding("UTF-8");
+                authenticationResponse.writeFormPost(response.getWriter());
             } else {
                 response.sendRedirect(authenticationResponse.toFragmentUri()
                     .toASCIIString());
@@ -259,7 +267,7 @@ public class DefaultAuthenticationResponseProvider implements
 
         final Consent consentRequested = new Consent(authenticator.getSubject(req), authReq.getClientId(), authReq.getScopes());
 
-        if (tokenProvider.getByConsent(consentRequested) == null) {
+        if (!tokenProvider.isConsented(consentRequested)) {
             final UriBuilder contextUriBuilder = UriBuilder.fromUri(req.getRequestURL()
                 .toString())
                 .replacePath(req.getContextPath());
@@ -1,94 +1,300 @@
 package net.trajano.openidconnect.provider.ejb;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPrivateCrtKey;
-import java.security.interfaces.RSAPublicKey;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.ejb.Lock;
-import javax.ejb.LockType;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
 
+import net.trajano.openidconnect.crypto.EcWebKey;
 import net.trajano.openidconnect.crypto.Encoding;
 import net.trajano.openidconnect.crypto.JsonWebAlgorithm;
 import net.trajano.openidconnect.crypto.JsonWebKey;
 import net.trajano.openidconnect.crypto.JsonWebKeySet;
+import net.trajano.openidconnect.crypto.NamedEllipticCurve;
 import net.trajano.openidconnect.crypto.OctWebKey;
 import net.trajano.openidconnect.crypto.RsaWebKey;
+import net.trajano.openidconnect.provider.internal.KeyRing;
+import net.trajano.openidconnect.provider.spi.EncodedJsonWebKeySet;
 import net.trajano.openidconnect.provider.spi.KeyProvider;
+import net.trajano.openidconnect.provider.spi.TokenStorage;
 
 /**
- * Used to generate the keys used by the application. These are in memory only
- * and only encrypt data that is in transit. There are multiple RSA signing keys
- * that are generated like Google and the key will be chosen based on time.
+ * <p>
+ * Used to generate the keys used by the application. There are multiple
+ * signing keys that are generated like Google and the key will be chosen based
+ * on time.
+ * </p>
+ * <p>
+ * The signing keys are <code>RS256</code> 2048-bit RSA keys by default as that
+ * is the algorithm clients assume when they have not registered one. The
+ * <code>keyAlgorithm</code> environment entry selects another RSA or ECDSA
+ * JWS algorithm such as <code>ES256</code>, <code>keySize</code> sets the RSA
+ * modulus size and <code>signingKeyCount</code> sets the number of signing
+ * keys per generation.
+ * </p>
+ * <p>
+ * By default the keys are in memory only and only encrypt data that is in
+ * transit. When the <code>keyRingFile</code> environment entry is set, the
+ * keys are loaded from that JWKS file instead so that every node that shares
+ * the file can validate the tokens and request objects of the others. The
+ * file is created by the first node that starts and is checked for changes
+ * every minute. Changes are swapped in atomically. Keys that are not active
+ * yet or are no longer active remain published for verification for the
+ * number of seconds specified by <code>keyRetentionSeconds</code>. This
+ * defaults to the token lifetime given by
+ * {@link TokenStorage#getDefaultExpiration()} and start up fails if it is set
+ * lower than that as tokens would outlive the keys that verify them.
+ * </p>
+ * <p>
+ * The keys are rotated every <code>keyRotationSeconds</code> by a timer. The
+ * next generation of keys is created <code>keyPublishAheadSeconds</code>
+ * before it becomes active so that it is published in {@link #getJwks()}
+ * before any token is signed with it and key generation never happens on a
+ * request thread. The switch to the new keys happens at their activation
+ * time. When a shared file is used, the rotation is done while holding the
+ * lock file so only one node generates the keys.
+ * </p>
+ * <p>
+ * The bean manages its own concurrency. The key state is replaced in a single
+ * volatile write so the getters do not take a lock and only the timer
+ * serializes with itself.
+ * </p>
  */
 @Singleton
 @Startup
-@Lock(LockType.READ)
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class DefaultKeyProvider implements KeyProvider {
 
     /**
-     * Number of signing keys to generate.
+     * Immutable view of the key ring at a point in time. This is replaced as a
+     * whole so readers always see a consistent set of keys.
      */
-    private static final int NUMBER_OF_SIGNING_KEYS = 3;
+    private static final class KeyState {
 
-    private JsonWebKeySet jwks;
+        private final EncodedJsonWebKeySet encodedJwks;
 
-    private JsonWebKeySet privateJwks;
+        private final JsonWebKeySet jwks;
+
+        private final JsonWebKeySet privateJwks;
+
+        private final String secretKeyId;
+
+        /**
+         * Time when the active or published keys change and the state needs
+         * to be rebuilt.
+         */
+        private final long validUntil;
+
+        public KeyState(final KeyRing keyRing, final long now, final long retention) {
+
+            jwks = keyRing.buildJwks(now, retention);
+            encodedJwks = new EncodedJsonWebKeySet(jwks);
+            privateJwks = keyRing.buildPrivateJwks(now, retention);
+            secretKeyId = keyRing.getSecretKeyId(now);
+            validUntil = keyRing.getNextChange(now, retention);
+        }
+    }
 
     /**
-     * This random number generator is not required to be cryptographically
-     * secure.
+     * Default number of seconds before activation that the next keys are
+     * generated and published.
      */
-    private Random rng = ThreadLocalRandom.current();
+    private static final int DEFAULT_KEY_PUBLISH_AHEAD = 3600;
 
-    private SecretKey secretKey;
+    /**
+     * Number of seconds keys remain published after they are no longer active
+     * when there is no {@link TokenStorage} to get the token lifetime from.
+     */
+    private static final int DEFAULT_KEY_RETENTION = 3600;
 
-    private String secretKeyId;
+    /**
+     * Default number of seconds that a generation of keys is active.
+     */
+    private static final int DEFAULT_KEY_ROTATION = 86400;
 
-    @PostConstruct
-    public void generateKeys() {
+    /**
+     * Default RSA key size in bits.
+     */
+    private static final int DEFAULT_KEY_SIZE = 2048;
 
-        try {
-            jwks = new JsonWebKeySet();
-            privateJwks = new JsonWebKeySet();
+    /**
+     * Default number of signing keys to generate.
+     */
+    private static final int DEFAULT_SIGNING_KEY_COUNT = 3;
+
+    private static long now() {
+
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * JWS algorithm of the signing keys.
+     */
+    @Resource(name = "keyAlgorithm")
+    private String keyAlgorithm = JsonWebAlgorithm.RS256;
+
+    /**
+     * Number of seconds before activation that the next keys are generated
+     * and published.
+     */
+    @Resource(name = "keyPublishAheadSeconds")
+    private int keyPublishAhead = DEFAULT_KEY_PUBLISH_AHEAD;
+
+    /**
+     * Number of seconds that keys remain published after they are no longer
+     * active. This must be at least the lifetime of the tokens that are
+     * signed. If negative the token lifetime is used.
+     */
+    @Resource(name = "keyRetentionSeconds")
+    private int keyRetention = -1;
 
-            final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
-            keyPairGenerator.initialize(1024);
-            for (int i = 0; i < NUMBER_OF_SIGNING_KEYS; ++i) {
-                final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+    /**
+     * Number of seconds that a generation of keys is active. If not positive
+     * the keys are not rotated.
+     */
+    @Resource(name = "keyRotationSeconds")
+    private int keyRotation = DEFAULT_KEY_ROTATION;
 
-                final String keyId = nextEncodedToken();
-                final RSAPrivateCrtKey privateKey = (RSAPrivateCrtKey) keyPair.getPrivate();
-                final RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+    /**
+     * RSA key size in bits. This is not used for ECDSA keys as the size is
+     * determined by the curve.
+     */
+    @Resource(name = "keySize")
+    private int keySize = DEFAULT_KEY_SIZE;
 
-                final JsonWebKey jwk = new RsaWebKey(keyId, publicKey);
-                jwk.setAlg(JsonWebAlgorithm.RS256);
+    private volatile KeyRing keyRing;
 
-                jwks.add(jwk);
+    /**
+     * Path to the shared JWKS file. If not set the keys are kept in memory.
+     */
+    private String keyRingFile;
 
-                final JsonWebKey privateJwk = new RsaWebKey(keyId, privateKey);
-                privateJwk.setAlg(JsonWebAlgorithm.RS256);
-                privateJwks.add(privateJwk);
+    /**
+     * Last modified time of the shared JWKS file when it was loaded.
+     */
+    private volatile FileTime keyRingFileModified;
+
+    private volatile KeyState keyState;
 
+    /**
+     * Number of signing keys in each generation.
+     */
+    @Resource(name = "signingKeyCount")
+    private int signingKeyCount = DEFAULT_SIGNING_KEY_COUNT;
+
+    @EJB
+    private TokenStorage tokenStorage;
+
+    /**
+     * Gets the current key state. If the activation or retirement time of a
+     * key has passed, the state is rebuilt from the key ring. This does not
+     * generate any keys.
+     *
+     * @return key state
+     */
+    private KeyState currentKeyState() {
+
+        final KeyState state = keyState;
+        final long now = now();
+        if (now < state.validUntil) {
+            return state;
+        }
+        final KeyState newState = new KeyState(keyRing, now, keyRetention);
+        keyState = newState;
+        return newState;
+    }
+
+    /**
+     * Generates a new set of keys that are active from the given time.
+     *
+     * @param notBefore
+     *            seconds since the epoch
+     * @return key ring entries
+     * @throws GeneralSecurityException
+     */
+    private List<KeyRing.Entry> generateEntries(final long notBefore) throws GeneralSecurityException {
+
+        final List<KeyRing.Entry> entries = new ArrayList<>();
+
+        final NamedEllipticCurve curve = JsonWebAlgorithm.getCurve(keyAlgorithm);
+        final KeyPairGenerator keyPairGenerator;
+        if (curve != null) {
+            keyPairGenerator = KeyPairGenerator.getInstance("EC");
+            keyPairGenerator.initialize(curve.toECParameterSpec());
+        } else if (keyAlgorithm.startsWith("RS")) {
+            keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(keySize);
+        } else {
+            throw new NoSuchAlgorithmException("key algorithm " + keyAlgorithm + " is not supported");
+        }
+        for (int i = 0; i < signingKeyCount; ++i) {
+            final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+            final String keyId = nextEncodedToken();
+            final JsonWebKey privateJwk;
+            if (curve != null) {
+                privateJwk = new EcWebKey(keyId, curve, (ECPrivateKey) keyPair.getPrivate(), (ECPublicKey) keyPair.getPublic());
+            } else {
+                privateJwk = new RsaWebKey(keyId, (RSAPrivateCrtKey) keyPair.getPrivate());
             }
+            privateJwk.setAlg(keyAlgorithm);
+            entries.add(new KeyRing.Entry(privateJwk, notBefore, 0));
+        }
+
+        final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        final SecretKey secretKey = keyGenerator.generateKey();
+        final OctWebKey secretJwk = new OctWebKey(secretKey, JsonWebAlgorithm.A256CBC);
+        secretJwk.setKid(nextEncodedToken());
+        entries.add(new KeyRing.Entry(secretJwk, notBefore, 0));
 
-            final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
-            keyGenerator.init(128);
-            secretKey = keyGenerator.generateKey();
-            final OctWebKey secretJwk = new OctWebKey(secretKey, JsonWebAlgorithm.A256CBC);
-            secretKeyId = nextEncodedToken();
-            secretJwk.setKid(secretKeyId);
-            privateJwks.add(secretJwk);
+        return entries;
+    }
 
-        } catch (final GeneralSecurityException e) {
+    @PostConstruct
+    public void generateKeys() {
+
+        // the storage is not injected when used outside of a container
+        final int tokenLifetime = tokenStorage != null ? tokenStorage.getDefaultExpiration() : DEFAULT_KEY_RETENTION;
+        if (keyRetention < 0) {
+            keyRetention = tokenLifetime;
+        } else if (keyRetention < tokenLifetime) {
+            throw new IllegalArgumentException("keyRetentionSeconds must be at least the token lifetime of " + tokenLifetime + " seconds");
+        }
+        try {
+            if (keyRingFile == null) {
+                keyRing = new KeyRing(generateEntries(now()));
+            } else {
+                loadOrCreateKeyRingFile(Paths.get(keyRingFile));
+            }
+            keyState = new KeyState(keyRing, now(), keyRetention);
+        } catch (final GeneralSecurityException
+            | IOException e) {
             throw new IllegalStateException(e);
         }
     }
@@ -97,42 +303,191 @@ public class DefaultKeyProvider implements KeyProvider {
      * {@inheritDoc}
      */
     @Override
-    @Lock(LockType.READ)
+    public EncodedJsonWebKeySet getEncodedJwks() {
+
+        return currentKeyState().encodedJwks;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
     public JsonWebKeySet getJwks() {
 
-        return jwks;
+        return currentKeyState().jwks;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    @Lock(LockType.READ)
     public JsonWebKeySet getPrivateJwks() {
 
-        return privateJwks;
+        return currentKeyState().privateJwks;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    @Lock(LockType.READ)
     public String getSecretKeyId() {
 
-        return secretKeyId;
+        return currentKeyState().secretKeyId;
+    }
+
+    /**
+     * Loads the key ring from the shared file. If the file does not exist yet
+     * it is created while holding an exclusive lock on a sibling lock file so
+     * that only one node generates the keys.
+     *
+     * @param file
+     *            shared JWKS file
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    private void loadOrCreateKeyRingFile(final Path file) throws IOException,
+        GeneralSecurityException {
+
+        if (!Files.exists(file)) {
+            try (final FileChannel channel = openLockFile(file);
+                final FileLock lock = channel.lock()) {
+                if (!Files.exists(file)) {
+                    new KeyRing(generateEntries(now())).write(file);
+                }
+            }
+        }
+        keyRingFileModified = Files.getLastModifiedTime(file);
+        keyRing = KeyRing.read(file);
+    }
+
+    /**
+     * Opens the lock file that guards changes to the shared file.
+     *
+     * @param file
+     *            shared JWKS file
+     * @return channel for the lock file
+     * @throws IOException
+     */
+    private FileChannel openLockFile(final Path file) throws IOException {
+
+        return FileChannel.open(file.resolveSibling(file.getFileName() + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    @Lock(LockType.WRITE)
     public String nextEncodedToken() {
 
         final byte[] randomTokenBytes = new byte[16];
-        rng.nextBytes(randomTokenBytes);
+        ThreadLocalRandom.current()
+            .nextBytes(randomTokenBytes);
         return Encoding.base64urlEncode(randomTokenBytes);
     }
 
+    /**
+     * Reloads the shared file if it has changed and generates the next
+     * generation of keys if it is due. The new state replaces the old one in a
+     * single write. The state is left alone if the key ring did not change so
+     * the encoded JWKS stays the same instance until the state expires.
+     */
+    @Schedule(minute = "*",
+        hour = "*",
+        persistent = false)
+    public synchronized void refreshKeys() {
+
+        final KeyRing previousKeyRing = keyRing;
+        try {
+            if (keyRingFile != null) {
+                final Path file = Paths.get(keyRingFile);
+                if (!Files.getLastModifiedTime(file)
+                    .equals(keyRingFileModified)) {
+                    loadOrCreateKeyRingFile(file);
+                }
+                if (isRotationDue(keyRing, now())) {
+                    rotateKeyRingFile(file);
+                }
+            } else if (isRotationDue(keyRing, now())) {
+                keyRing = rotate(keyRing, now());
+            }
+            if (keyRing != previousKeyRing) {
+                keyState = new KeyState(keyRing, now(), keyRetention);
+            }
+        } catch (final GeneralSecurityException
+            | IOException e) {
+            // the current keys remain in use, the failure is logged by the
+            // container.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Checks if the next generation of keys needs to be created.
+     *
+     * @param ring
+     *            key ring
+     * @param now
+     *            seconds since the epoch
+     * @return <code>true</code> if the keys should be rotated.
+     */
+    private boolean isRotationDue(final KeyRing ring,
+        final long now) {
+
+        return keyRotation > 0 && ring.getLatestNotBefore() + keyRotation - keyPublishAhead <= now;
+    }
+
+    /**
+     * Generates the next generation of keys and adds them to the key ring.
+     * They become active at the end of the rotation period of the newest
+     * generation but no sooner than the publish ahead time from now.
+     *
+     * @param ring
+     *            key ring
+     * @param now
+     *            seconds since the epoch
+     * @return rotated key ring
+     * @throws GeneralSecurityException
+     */
+    private KeyRing rotate(final KeyRing ring,
+        final long now) throws GeneralSecurityException {
+
+        final long switchAt = Math.max(ring.getLatestNotBefore() + keyRotation, now + keyPublishAhead);
+        return ring.rotate(generateEntries(switchAt), switchAt, now, keyRetention);
+    }
+
+    /**
+     * Rotates the keys in the shared file. The file is read again while
+     * holding the lock in case another node has already rotated it.
+     *
+     * @param file
+     *            shared JWKS file
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    private void rotateKeyRingFile(final Path file) throws IOException,
+        GeneralSecurityException {
+
+        try (final FileChannel channel = openLockFile(file);
+            final FileLock lock = channel.lock()) {
+            final KeyRing current = KeyRing.read(file);
+            if (isRotationDue(current, now())) {
+                rotate(current, now()).write(file);
+            }
+            keyRingFileModified = Files.getLastModifiedTime(file);
+            keyRing = KeyRing.read(file);
+        }
+    }
+
+    /**
+     * Sets the path to the shared JWKS file.
+     *
+     * @param keyRingFile
+     *            path to the JWKS file
+     */
+    @Resource(name = "keyRingFile")
+    public void setKeyRingFile(final String keyRingFile) {
+
+        this.keyRingFile = keyRingFile;
+    }
+
 }
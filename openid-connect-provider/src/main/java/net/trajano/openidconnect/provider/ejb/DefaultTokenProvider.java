@@ -4,12 +4,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.security.GeneralSecurityException;
-import java.security.MessageDigest;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.EJB;
-import javax.ejb.Stateless;
+import javax.ejb.Singleton;
 import javax.json.JsonObject;
 import javax.json.JsonValue;
 import javax.ws.rs.WebApplicationException;
@@ -17,48 +20,88 @@ import javax.ws.rs.core.MediaType;
 
 import net.trajano.openidconnect.auth.AuthenticationRequest;
 import net.trajano.openidconnect.core.Scope;
-import net.trajano.openidconnect.crypto.Encoding;
-import net.trajano.openidconnect.crypto.JsonWebAlgorithm;
 import net.trajano.openidconnect.crypto.JsonWebTokenBuilder;
-import net.trajano.openidconnect.internal.CharSets;
+import net.trajano.openidconnect.provider.ejb.AuthorizationCodeSealer.SealedCode;
+import net.trajano.openidconnect.provider.internal.TokenHash;
 import net.trajano.openidconnect.provider.spi.Consent;
 import net.trajano.openidconnect.provider.spi.KeyProvider;
 import net.trajano.openidconnect.provider.spi.TokenProvider;
 import net.trajano.openidconnect.provider.spi.TokenStorage;
-import net.trajano.openidconnect.provider.spi.UserinfoProvider;
 import net.trajano.openidconnect.rs.IdTokenProvider;
 import net.trajano.openidconnect.token.IdToken;
 import net.trajano.openidconnect.token.IdTokenResponse;
 import net.trajano.openidconnect.token.TokenResponse;
 import net.trajano.openidconnect.userinfo.Userinfo;
 
-@Stateless
+/**
+ * Default {@link TokenProvider}. It holds no state of its own, everything is
+ * kept in the {@link TokenStorage} and the other beans, so a single instance
+ * serves all requests without pooling or container locks.
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 public class DefaultTokenProvider implements
     TokenProvider {
 
+    /**
+     * Endpoint that the tokens are created for, used for the metrics.
+     */
+    private static final String AUTHORIZATION_ENDPOINT = "auth";
+
+    /**
+     * Endpoint that the tokens are refreshed for, used for the metrics.
+     */
+    private static final String TOKEN_ENDPOINT = "token";
+
     @EJB
+    private ClientCredentialsTokenCache clientCredentialsTokenCache;
+
+    private AuthorizationCodeSealer codeSealer;
+
+    @EJB
+    private ConsentIndex consentIndex;
+
     private KeyProvider keyProvider;
 
+    private ProviderMetrics metrics;
+
+    private RefreshTokenSingleFlight refreshTokenSingleFlight;
+
     @EJB
+    private SubjectIdentifiers subjectIdentifiers;
+
     private TokenStorage tokenStorage;
 
     @EJB
-    private UserinfoProvider userinfoProvider;
+    private UserinfoCache userinfoCache;
 
     /**
-     * Calculates the hash for the token. Primarily for at_hash value.
+     * Copies the claims of the ID token that are written when it is signed.
+     * The decoded ID token of a stored response is shared with concurrent
+     * readers so it is copied before it is changed.
      *
-     * @param token
-     * @return
-     * @throws GeneralSecurityException
+     * @param idToken
+     *            ID token
+     * @return copy
      */
-    private String computeHash(final String token) throws GeneralSecurityException {
-
-        // TODO this should be based on something.
-        final MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        final byte[] digestedBytes = digest.digest(token.getBytes(CharSets.US_ASCII));
-
-        return Encoding.base64urlEncode(digestedBytes, 0, 128 / 8);
+    private static IdToken copyIdToken(final IdToken idToken) {
+
+        final IdToken copy = new IdToken();
+        copy.setAcr(idToken.getAcr());
+        copy.setAmr(idToken.getAmr());
+        copy.setAtHash(idToken.getAtHash());
+        copy.setAud(idToken.getAud());
+        copy.setAuthTime(idToken.getAuthTime());
+        copy.setAzp(idToken.getAzp());
+        copy.setCHash(idToken.getCHash());
+        copy.setExp(idToken.getExp());
+        copy.setIat(idToken.getIat());
+        copy.setIss(idToken.getIss());
+        copy.setNonce(idToken.getNonce());
+        copy.setSub(idToken.getSub());
+        return copy;
     }
 
     /**
@@ -71,7 +114,7 @@ public class DefaultTokenProvider implements
             GeneralSecurityException {
 
         final IdToken idToken = new IdToken();
-        idToken.setSub(subject);
+        idToken.setSub(subjectIdentifiers.getSubject(req.getClientId(), subject));
         idToken.setNonce(req.getNonce());
         idToken.setAuthTime(System.currentTimeMillis() / 1000);
         idToken.setAud(req.getClientId());
@@ -79,19 +122,35 @@ public class DefaultTokenProvider implements
         idToken.setIss(issuer.toASCIIString());
         idToken.setAcr("0");
 
+        // the directory lookup proceeds while the tokens are generated
+        final Future<Userinfo> pendingUserinfo;
         if (req.getClaims()
             .containsKey("id_token")) {
-            final Userinfo userinfo = userinfoProvider.getUserinfo(idToken);
-            for (final Entry<String, JsonValue> e : req.getClaims()
-                .getJsonObject("id_token")
-                .entrySet()) {
-                if ("name".equals(e.getKey())) {
-                    idToken.setName(userinfo.getName());
-                }
-            }
+            pendingUserinfo = userinfoCache.getUserinfoAsync(subjectIdentifiers.toLocal(idToken, subject));
+        } else {
+            pendingUserinfo = null;
         }
 
-        return store(idToken, req);
+        consentIndex.grant(new Consent(subject, req.getClientId(), req.getScopes()));
+        return store(subject, idToken, req, pendingUserinfo);
+    }
+
+    /**
+     * Gets the decoded ID token that was attached to the stored response. If
+     * the storage did not retain the decoded copy, the encoded ID token is
+     * decoded and its signature is verified.
+     *
+     * @param idTokenResponse
+     *            stored token response
+     * @return ID token
+     */
+    private IdToken getIdToken(final IdTokenResponse idTokenResponse) {
+
+        final IdToken idToken = idTokenResponse.getIdToken();
+        if (idToken != null) {
+            return idToken;
+        }
+        return idTokenResponse.getIdToken(keyProvider.getJwks());
     }
 
     @Override
@@ -104,23 +163,71 @@ public class DefaultTokenProvider implements
     public IdTokenResponse getByCode(final String code,
         final boolean deleteAfterRetrieval) {
 
-        final IdTokenResponse tokenResponse = tokenStorage.getByCode(code);
+        if (AuthorizationCodeSealer.isSealed(code)) {
+            return getBySealedCode(code, deleteAfterRetrieval);
+        }
 
         if (tokenStorage.isCodeUsed(code)) {
-            // Revoke access tokens since code was used twice.
-            tokenStorage.removeMappingForAccessToken(tokenResponse.getAccessToken());
-            tokenStorage.removeMappingForRefreshToken(tokenResponse.getRefreshToken());
-            tokenStorage.removeMappingForCode(code);
+            metrics.increment(ProviderMetrics.CODE_REPLAYS);
+            // a use that cannot be confirmed may be a false positive of the
+            // first exchange so the code is only rejected
+            final String family = tokenStorage.getUsedCodeFamily(code);
+            if (family != null) {
+                // Revoke the tokens since code was used twice.
+                tokenStorage.revokeRefreshTokenFamily(family);
+            }
             return null;
         }
+
+        final IdTokenResponse tokenResponse = tokenStorage.getByCode(code);
         if (deleteAfterRetrieval) {
+            // the family is kept with the used code as the mapping is gone
+            // by the time the code is replayed.
+            final String family = tokenResponse == null ? null : tokenStorage.getRefreshTokenFamily(tokenResponse.getRefreshToken());
             tokenStorage.removeMappingForCode(code);
-            tokenStorage.markCodeAsUsed(code);
+            tokenStorage.markCodeAsUsed(code, family);
+        }
+        return tokenResponse;
+    }
+
+    /**
+     * Gets the token response for a sealed code. The only storage operation is
+     * the lookup of the access token the code grants unless the code is
+     * replayed in which case the tokens are revoked.
+     *
+     * @param code
+     *            sealed code
+     * @param deleteAfterRetrieval
+     *            marks the code as exchanged
+     * @return token response or <code>null</code> if the code is not valid.
+     */
+    private IdTokenResponse getBySealedCode(final String code,
+        final boolean deleteAfterRetrieval) {
+
+        final SealedCode sealedCode = codeSealer.open(code);
+        if (sealedCode == null) {
+            return null;
+        }
+        final IdTokenResponse tokenResponse = tokenStorage.getByAccessToken(sealedCode.getAccessToken());
+        if (tokenResponse == null) {
+            return null;
+        }
+        if (deleteAfterRetrieval ? !codeSealer.consume(sealedCode) : codeSealer.isConsumed(sealedCode)) {
+            // Revoke access tokens since code was used twice.
+            metrics.increment(ProviderMetrics.CODE_REPLAYS);
+            final String family = tokenStorage.getRefreshTokenFamily(tokenResponse.getRefreshToken());
+            if (family != null) {
+                tokenStorage.revokeRefreshTokenFamily(family);
+            }
+            tokenStorage.removeMappingForAccessToken(tokenResponse.getAccessToken());
+            tokenStorage.removeMappingForRefreshToken(tokenResponse.getRefreshToken());
+            return null;
         }
         return tokenResponse;
     }
 
     @Override
+    @Deprecated
     public IdTokenResponse getByConsent(final Consent consent) {
 
         return tokenStorage.getByConsent(consent);
@@ -132,6 +239,44 @@ public class DefaultTokenProvider implements
         return tokenStorage.getClaimsByAccessToken(accessToken);
     }
 
+    /**
+     * {@inheritDoc} The tokens are served from the
+     * {@link ClientCredentialsTokenCache}.
+     */
+    @Override
+    public TokenResponse getCachedClientCredentialsToken(final String clientId,
+        final URI issuerUri,
+        final Set<Scope> scopes) {
+
+        return clientCredentialsTokenCache.getCachedToken(clientId, issuerUri, scopes);
+    }
+
+    /**
+     * {@inheritDoc} The tokens are served from the
+     * {@link ClientCredentialsTokenCache} so nothing is written to the
+     * {@link TokenStorage}.
+     */
+    @Override
+    public TokenResponse getClientCredentialsToken(final String clientId,
+        final URI issuerUri,
+        final Set<Scope> scopes) {
+
+        return clientCredentialsTokenCache.getToken(clientId, issuerUri, scopes);
+    }
+
+    @Override
+    public boolean isConsented(final Consent consent) {
+
+        return consentIndex.isConsented(consent);
+    }
+
+    /**
+     * {@inheritDoc} Concurrent requests for the same refresh token share a
+     * single rotation. Presenting a refresh token that was rotated out of its
+     * family within the grace period of the {@link TokenStorage}, possibly by
+     * another node, returns the result of that rotation. Presenting it later
+     * is treated as reuse and revokes the whole family.
+     */
     @Override
     public IdTokenResponse refreshToken(final String clientId,
         final String refreshTokenIn,
@@ -139,66 +284,198 @@ public class DefaultTokenProvider implements
         final Integer expiresIn) throws IOException,
             GeneralSecurityException {
 
-        final IdTokenResponse idTokenResponse = tokenStorage.removeMappingForRefreshToken(refreshTokenIn);
-        if (idTokenResponse == null) {
+        final IdTokenResponse idTokenResponse = refreshTokenSingleFlight.execute(refreshTokenIn, new Callable<IdTokenResponse>() {
+
+            @Override
+            public IdTokenResponse call() throws IOException,
+                GeneralSecurityException {
+
+                return rotate(clientId, refreshTokenIn, scopes, expiresIn);
+            }
+        });
+        if (idTokenResponse != null && !clientId.equals(getIdToken(idTokenResponse).getAud())) {
+            throw new WebApplicationException();
+        }
+        return idTokenResponse;
+    }
+
+    /**
+     * Rotates the refresh token. A new access token, refresh token and ID
+     * token are issued and swapped in using
+     * {@link TokenStorage#rotateRefreshToken(String, String, IdToken, IdTokenResponse, JsonObject)}
+     * .
+     *
+     * @param clientId
+     *            client ID
+     * @param refreshTokenIn
+     *            refresh token that was presented
+     * @param scopes
+     *            reduced scopes, may be null
+     * @param expiresIn
+     *            desired expiration, may be null
+     * @return new token response or <code>null</code> if the refresh token is
+     *         not valid.
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    private IdTokenResponse rotate(final String clientId,
+        final String refreshTokenIn,
+        final Set<Scope> scopes,
+        final Integer expiresIn) throws IOException,
+            GeneralSecurityException {
+
+        final long start = System.nanoTime();
+        final String family = tokenStorage.getRefreshTokenFamily(refreshTokenIn);
+        if (family == null) {
             return null;
         }
-        if (!clientId.equals(idTokenResponse.getIdToken(keyProvider.getPrivateJwks())
-            .getAud())) {
-            throw new WebApplicationException();
+        final IdTokenResponse currentResponse = tokenStorage.getByRefreshToken(refreshTokenIn);
+        if (currentResponse == null) {
+            // refresh token was already rotated out of the family.
+            return getRotatedResponse(family, refreshTokenIn, scopes);
         }
-        if (scopes != null && !scopes.containsAll(scopes)) {
+        final IdToken currentIdToken = getIdToken(currentResponse);
+        if (!clientId.equals(currentIdToken.getAud())) {
             throw new WebApplicationException();
         }
-        if (scopes != null && scopes.containsAll(scopes)) {
-            idTokenResponse.setScopes(scopes);
+        if (scopes != null && !currentResponse.getScopes()
+            .containsAll(scopes)) {
+            throw new WebApplicationException();
         }
 
-        final JsonObject claims = tokenStorage.getClaimsByAccessToken(idTokenResponse.getAccessToken());
-        // remove from map we are getting a new one
-        tokenStorage.removeMappingForAccessToken(idTokenResponse.getAccessToken());
+        final JsonObject claims = tokenStorage.getClaimsByAccessToken(currentResponse.getAccessToken());
+        long storageNanos = System.nanoTime() - start;
         final String newAccessToken = keyProvider.nextEncodedToken();
-        final String newRefreshToken = keyProvider.nextEncodedToken();
 
+        final IdTokenResponse idTokenResponse = new IdTokenResponse();
         idTokenResponse.setAccessToken(newAccessToken);
-        idTokenResponse.setRefreshToken(newRefreshToken);
-        final IdToken idToken = idTokenResponse.getIdToken(keyProvider.getJwks());
+        idTokenResponse.setRefreshToken(keyProvider.nextEncodedToken());
+        idTokenResponse.setScope(currentResponse.getScope());
+        if (scopes != null) {
+            idTokenResponse.setScopes(scopes);
+        }
+        idTokenResponse.setTokenType(currentResponse.getTokenType());
 
+        // the key is chosen first as the hashes depend on its algorithm.
+        final JsonWebTokenBuilder jwtBuilder = new JsonWebTokenBuilder().jwk(keyProvider.getPrivateJwks());
+
+        // the stored ID token is left as is in case the rotation is lost.
+        final IdToken idToken = copyIdToken(currentIdToken);
+        // the refreshed token is not associated with an authorization code.
+        idToken.setCHash(null);
         if (expiresIn != null) {
             idToken.resetIssueAndExpiration(tokenStorage.getExpiration(expiresIn));
         } else {
             idToken.resetIssueAndExpiration(tokenStorage.getDefaultExpiration());
         }
+        idTokenResponse.setExpiresIn((int) (idToken.getExp() - idToken.getIat()));
 
-        idToken.setAtHash(computeHash(newAccessToken));
+        idToken.setAtHash(TokenHash.compute(jwtBuilder.getAlg(), newAccessToken));
 
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         new IdTokenProvider().writeTo(idToken, IdToken.class, IdToken.class, null, MediaType.APPLICATION_JSON_TYPE, null, baos);
         baos.close();
 
-        final JsonWebTokenBuilder jwtBuilder = new JsonWebTokenBuilder().jwk(keyProvider.getPrivateJwks())
-            .payload(baos.toByteArray());
+        final long signStart = System.nanoTime();
+        jwtBuilder.payload(baos.toByteArray());
         idTokenResponse.setEncodedIdToken(jwtBuilder.toString());
+        idTokenResponse.setIdToken(idToken);
+        final long storageStart = metrics.record(TOKEN_ENDPOINT, ProviderMetrics.PHASE_SIGN, signStart);
+
+        final boolean rotated = tokenStorage.rotateRefreshToken(family, refreshTokenIn, idToken, idTokenResponse, claims);
+        storageNanos += System.nanoTime() - storageStart;
+        metrics.recordNanos(TOKEN_ENDPOINT, ProviderMetrics.PHASE_STORAGE, storageNanos);
+        if (!rotated) {
+            // another rotation, possibly on another node, won the race.
+            return getRotatedResponse(family, refreshTokenIn, scopes);
+        }
+        return idTokenResponse;
+    }
 
-        tokenStorage.store(idToken, idTokenResponse, claims);
+    /**
+     * Handles a refresh token that is no longer current for its family. If it
+     * was rotated within the grace period of the {@link TokenStorage} the
+     * response of that rotation is returned, otherwise it is treated as reuse
+     * and the family is revoked.
+     *
+     * @param family
+     *            family ID
+     * @param refreshTokenIn
+     *            refresh token that was presented
+     * @param scopes
+     *            reduced scopes, may be null
+     * @return response of the rotation or <code>null</code> if the family was
+     *         revoked.
+     */
+    private IdTokenResponse getRotatedResponse(final String family,
+        final String refreshTokenIn,
+        final Set<Scope> scopes) {
 
-        return idTokenResponse;
+        final IdTokenResponse rotatedResponse = tokenStorage.getRotatedResponse(refreshTokenIn);
+        if (rotatedResponse == null) {
+            tokenStorage.revokeRefreshTokenFamily(family);
+            return null;
+        }
+        if (scopes != null && !rotatedResponse.getScopes()
+            .containsAll(scopes)) {
+            throw new WebApplicationException();
+        }
+        return rotatedResponse;
+    }
+
+    @EJB
+    public void setCodeSealer(final AuthorizationCodeSealer codeSealer) {
+
+        this.codeSealer = codeSealer;
+    }
+
+    @EJB
+    public void setKeyProvider(final KeyProvider keyProvider) {
+
+        this.keyProvider = keyProvider;
+    }
+
+    @EJB
+    public void setMetrics(final ProviderMetrics metrics) {
+
+        this.metrics = metrics;
+    }
+
+    @EJB
+    public void setRefreshTokenSingleFlight(final RefreshTokenSingleFlight refreshTokenSingleFlight) {
+
+        this.refreshTokenSingleFlight = refreshTokenSingleFlight;
+    }
+
+    @EJB
+    public void setTokenStorage(final TokenStorage tokenStorage) {
+
+        this.tokenStorage = tokenStorage;
     }
 
     /**
      * Stores the ID token and associated scope in some storage and creates the
-     * access_token, authorization code and refresh token linkages.
+     * access_token, authorization code and refresh token linkages. The grant
+     * is added to the subject index used for back-channel logout.
      *
+     * @param subject
+     *            local subject
      * @param idToken
      *            idToken
      * @param req
      *            Authentication request
+     * @param pendingUserinfo
+     *            user info for the claims requested for the ID token, may be
+     *            <code>null</code>. It is only waited for right before the ID
+     *            token is signed.
      * @return authorization code to retrieve the token data.
      * @throws IOException
      * @throws GeneralSecurityException
      */
-    private String store(final IdToken idToken,
-        final AuthenticationRequest req) throws IOException,
+    private String store(final String subject,
+        final IdToken idToken,
+        final AuthenticationRequest req,
+        final Future<Userinfo> pendingUserinfo) throws IOException,
             GeneralSecurityException {
 
         final IdTokenResponse response = new IdTokenResponse();
@@ -209,22 +486,47 @@ public class DefaultTokenProvider implements
         response.setScopes(req.getScopes());
         response.setTokenType(TokenResponse.BEARER);
 
-        idToken.setAtHash(computeHash(newAccessToken));
+        // the key is chosen first as the hashes depend on its algorithm.
+        final JsonWebTokenBuilder jwtBuilder = new JsonWebTokenBuilder().jwk(keyProvider.getPrivateJwks());
+        idToken.setAtHash(TokenHash.compute(jwtBuilder.getAlg(), newAccessToken));
 
-        final String code = keyProvider.nextEncodedToken();
-        idToken.setCHash(computeHash(code));
+        final String code;
+        if (codeSealer.isEnabled()) {
+            code = codeSealer.seal(newAccessToken);
+        } else {
+            code = keyProvider.nextEncodedToken();
+        }
+        idToken.setCHash(TokenHash.compute(jwtBuilder.getAlg(), code));
+
+        if (pendingUserinfo != null) {
+            final Userinfo userinfo = UserinfoCache.await(pendingUserinfo);
+            for (final Entry<String, JsonValue> e : req.getClaims()
+                .getJsonObject("id_token")
+                .entrySet()) {
+                if ("name".equals(e.getKey())) {
+                    idToken.setName(userinfo.getName());
+                }
+            }
+        }
 
         idToken.resetIssueAndExpiration(tokenStorage.getDefaultExpiration());
 
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         new IdTokenProvider().writeTo(idToken, IdToken.class, IdToken.class, null, MediaType.APPLICATION_JSON_TYPE, null, baos);
         baos.close();
-        final JsonWebTokenBuilder jwtBuilder = new JsonWebTokenBuilder().jwk(keyProvider.getPrivateJwks())
-            .alg(JsonWebAlgorithm.RS256)
-            .payload(baos.toByteArray());
+        final long signStart = System.nanoTime();
+        jwtBuilder.payload(baos.toByteArray());
         response.setEncodedIdToken(jwtBuilder.toString());
+        response.setIdToken(idToken);
+        final long storageStart = metrics.record(AUTHORIZATION_ENDPOINT, ProviderMetrics.PHASE_SIGN, signStart);
 
-        tokenStorage.store(idToken, response, code, req.getClaims());
+        if (codeSealer.isEnabled()) {
+            tokenStorage.store(idToken, response, req.getClaims());
+        } else {
+            tokenStorage.store(idToken, response, code, req.getClaims());
+        }
+        tokenStorage.addSubjectGrant(subject, response.getRefreshToken());
+        metrics.record(AUTHORIZATION_ENDPOINT, ProviderMetrics.PHASE_STORAGE, storageStart);
 
         return code;
     }
@@ -0,0 +1,161 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.text.MessageFormat;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.Schedule;
+
+import net.trajano.openidconnect.internal.Log;
+import net.trajano.openidconnect.provider.internal.ClientRegistry;
+import net.trajano.openidconnect.provider.spi.ClientManager;
+
+/**
+ * <p>
+ * {@link ClientManager} backed by the registry file specified by the
+ * <code>clientRegistryFile</code> environment entry. The format of the file is
+ * described in {@link ClientRegistry}. The file is read once into an
+ * immutable registry so client validation is a hash lookup rather than a scan
+ * or a database query. The file is checked for changes every minute and a new
+ * registry is swapped in atomically; if the new file is not valid the current
+ * registry remains in use and the failure is logged once until the file
+ * changes again.
+ * </p>
+ * <p>
+ * This is not a bean by itself so that it does not conflict with another
+ * {@link ClientManager} in the application. To use it, create a subclass:
+ * </p>
+ *
+ * <pre>
+ * &#064;Singleton
+ * &#064;Startup
+ * &#064;Lock(LockType.READ)
+ * public class RegisteredClients extends FileClientManager {
+ * }
+ * </pre>
+ *
+ * @author Archimedes Trajano
+ */
+public class FileClientManager implements
+    ClientManager {
+
+    /**
+     * Modified time remembered when the registry file cannot be read at all.
+     */
+    private static final FileTime MISSING = FileTime.fromMillis(Long.MIN_VALUE);
+
+    /**
+     * Path to the registry file.
+     */
+    private String clientRegistryFile;
+
+    /**
+     * Last modified time of the registry file when it was loaded or when it
+     * was found to be invalid.
+     */
+    private FileTime clientRegistryFileModified;
+
+    private volatile ClientRegistry registry;
+
+    @Override
+    public String authenticateClient(final String clientId,
+        final String clientSecret) {
+
+        return registry.authenticateClient(clientId, clientSecret);
+    }
+
+    @Override
+    public URI getBackChannelLogoutUri(final String clientId) {
+
+        return registry.getBackChannelLogoutUri(clientId);
+    }
+
+    @Override
+    public boolean isImplicitConsent(final String clientId) {
+
+        return registry.isImplicitConsent(clientId);
+    }
+
+    @Override
+    public boolean isPostLogoutRedirectUriValidForClient(final String azp,
+        final URI postLogoutRedirectUri) {
+
+        return registry.isPostLogoutRedirectUriValid(azp, postLogoutRedirectUri);
+    }
+
+    @Override
+    public boolean isRedirectUriValidForClient(final String clientId,
+        final URI redirectUri) {
+
+        return registry.isRedirectUriValid(clientId, redirectUri);
+    }
+
+    /**
+     * Loads the registry.
+     */
+    @PostConstruct
+    public void load() {
+
+        if (clientRegistryFile == null) {
+            throw new IllegalStateException("clientRegistryFile is not set");
+        }
+        try {
+            loadFile(Paths.get(clientRegistryFile));
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void loadFile(final Path file) throws IOException {
+
+        final FileTime modified = Files.getLastModifiedTime(file);
+        registry = ClientRegistry.read(file);
+        clientRegistryFileModified = modified;
+    }
+
+    /**
+     * Reloads the registry if the file has changed.
+     */
+    @Schedule(minute = "*",
+        hour = "*",
+        persistent = false)
+    public void refresh() {
+
+        final Path file = Paths.get(clientRegistryFile);
+        FileTime modified = MISSING;
+        try {
+            modified = Files.getLastModifiedTime(file);
+            if (!modified.equals(clientRegistryFileModified)) {
+                loadFile(file);
+            }
+        } catch (final IOException
+            | RuntimeException e) {
+            // the current registry remains in use, the time is remembered so
+            // the same file is not read and reported again every minute.
+            if (!modified.equals(clientRegistryFileModified)) {
+                clientRegistryFileModified = modified;
+                Log.getInstance()
+                    .log(Level.WARNING, MessageFormat.format(Log.r("clientRegistryFileInvalid"), file), e);
+            }
+        }
+    }
+
+    /**
+     * Sets the path to the registry file.
+     *
+     * @param clientRegistryFile
+     *            path to the registry file
+     */
+    @Resource(name = "clientRegistryFile")
+    public void setClientRegistryFile(final String clientRegistryFile) {
+
+        this.clientRegistryFile = clientRegistryFile;
+    }
+}
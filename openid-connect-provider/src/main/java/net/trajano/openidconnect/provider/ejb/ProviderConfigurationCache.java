@@ -0,0 +1,299 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import static java.net.URI.create;
+
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.UriBuilder;
+
+import net.trajano.openidconnect.crypto.Encoding;
+import net.trajano.openidconnect.provider.spi.EncodedJsonWebKeySet;
+import net.trajano.openidconnect.provider.spi.KeyProvider;
+
+/**
+ * <p>
+ * Caches the issuer URI and the serialized discovery document for each
+ * scheme, host and context path combination the provider is reached through.
+ * This avoids rebuilding the URIs and serializing the
+ * {@link net.trajano.openidconnect.core.OpenIdProviderConfiguration} on every
+ * request.
+ * </p>
+ * <p>
+ * Documents are dropped when the published keys change. Providers whose
+ * capabilities change at runtime should call {@link #invalidate()}.
+ * </p>
+ * <p>
+ * If the <code>providerConfigurationIssuer</code> environment entry is set,
+ * it is used as the issuer for every request and a single document is cached
+ * regardless of the host the request was sent to. Otherwise the host comes
+ * from the request, so the number of cached hosts is limited by the
+ * <code>providerConfigurationMaxHosts</code> environment entry and the least
+ * recently used host is dropped to make room for a new one.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Lock(LockType.READ)
+public class ProviderConfigurationCache {
+
+    /**
+     * Serialized discovery document.
+     */
+    public static final class Document {
+
+        private final byte[] bytes;
+
+        private final EntityTag entityTag;
+
+        private final URI issuer;
+
+        /**
+         * Key set that was published when the document was built.
+         */
+        private final EncodedJsonWebKeySet keys;
+
+        private Document(final URI issuer, final byte[] bytes, final EncodedJsonWebKeySet keys) {
+
+            this.issuer = issuer;
+            this.bytes = bytes;
+            this.keys = keys;
+            try {
+                entityTag = new EntityTag(Encoding.base64urlEncode(MessageDigest.getInstance("SHA-256")
+                    .digest(bytes)));
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Serialized document. The array is shared and must not be modified.
+         *
+         * @return UTF-8 encoded JSON
+         */
+        public byte[] getBytes() {
+
+            return bytes;
+        }
+
+        /**
+         * Strong entity tag derived from the serialized document.
+         *
+         * @return entity tag
+         */
+        public EntityTag getEntityTag() {
+
+            return entityTag;
+        }
+
+        public URI getIssuer() {
+
+            return issuer;
+        }
+    }
+
+    /**
+     * Map that drops the least recently used entry once it holds more than
+     * the maximum number of hosts.
+     *
+     * @param <V>
+     *            value type
+     */
+    private static final class HostMap<V> extends LinkedHashMap<String, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxHosts;
+
+        public HostMap(final int maxHosts) {
+
+            super(16, 0.75f, true);
+            this.maxHosts = maxHosts;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+
+            return size() > maxHosts;
+        }
+    }
+
+    /**
+     * Default maximum number of hosts that are cached.
+     */
+    private static final int DEFAULT_MAX_HOSTS = 64;
+
+    /**
+     * Configured issuer, <code>null</code> if the issuer is derived from the
+     * request.
+     */
+    @Resource(name = "providerConfigurationIssuer")
+    private String configuredIssuer;
+
+    private Map<String, Document> documents;
+
+    /**
+     * Parsed {@link #configuredIssuer}.
+     */
+    private URI issuer;
+
+    private Map<String, URI> issuers;
+
+    private KeyProvider keyProvider;
+
+    /**
+     * Maximum number of hosts that are cached.
+     */
+    @Resource(name = "providerConfigurationMaxHosts")
+    private int maxHosts = DEFAULT_MAX_HOSTS;
+
+    /**
+     * Number of cached documents.
+     *
+     * @return number of documents
+     */
+    public int getDocumentCount() {
+
+        return documents.size();
+    }
+
+    /**
+     * Gets the discovery document for the request if it is cached and still
+     * current.
+     *
+     * @param req
+     *            servlet request
+     * @return document or <code>null</code> if it needs to be built.
+     */
+    public Document getDocument(final HttpServletRequest req) {
+
+        final Document document = documents.get(key(req));
+        if (document == null || document.keys != keyProvider.getEncodedJwks()) {
+            return null;
+        }
+        return document;
+    }
+
+    /**
+     * Gets the issuer URI for the request. The issuer is always an
+     * <code>https</code> URI for the context path of the application.
+     *
+     * @param req
+     *            servlet request
+     * @return issuer URI
+     */
+    public URI getIssuer(final HttpServletRequest req) {
+
+        if (issuer != null) {
+            return issuer;
+        }
+        final String key = key(req);
+        URI requestIssuer = issuers.get(key);
+        if (requestIssuer == null) {
+            requestIssuer = UriBuilder.fromUri(create(req.getRequestURL()
+                .toString()))
+                .scheme("https")
+                .replacePath(req.getContextPath())
+                .replaceQuery(null)
+                .fragment(null)
+                .build();
+            issuers.put(key, requestIssuer);
+        }
+        return requestIssuer;
+    }
+
+    @PostConstruct
+    public void init() {
+
+        if (configuredIssuer != null && !configuredIssuer.isEmpty()) {
+            issuer = create(configuredIssuer);
+        }
+        documents = Collections.synchronizedMap(new HostMap<Document>(maxHosts));
+        issuers = Collections.synchronizedMap(new HostMap<URI>(maxHosts));
+    }
+
+    /**
+     * Drops all the cached documents. This is called when the capabilities of
+     * the provider change.
+     */
+    public void invalidate() {
+
+        documents.clear();
+    }
+
+    /**
+     * Builds the cache key for the request. All requests share a key when the
+     * issuer is configured.
+     *
+     * @param req
+     *            servlet request
+     * @return cache key
+     */
+    private String key(final HttpServletRequest req) {
+
+        if (issuer != null) {
+            return issuer.toString();
+        }
+        return req.getScheme() + "://" + req.getServerName() + ":" + req.getServerPort() + req.getContextPath();
+    }
+
+    /**
+     * Caches the serialized discovery document for the request.
+     *
+     * @param req
+     *            servlet request
+     * @param bytes
+     *            serialized document
+     * @return document
+     */
+    public Document putDocument(final HttpServletRequest req,
+        final byte[] bytes) {
+
+        final Document document = new Document(getIssuer(req), bytes, keyProvider.getEncodedJwks());
+        documents.put(key(req), document);
+        return document;
+    }
+
+    /**
+     * Sets the issuer used for every request. This must be called before
+     * {@link #init()}.
+     *
+     * @param configuredIssuer
+     *            issuer or <code>null</code> to derive it from the request
+     */
+    public void setConfiguredIssuer(final String configuredIssuer) {
+
+        this.configuredIssuer = configuredIssuer;
+    }
+
+    @EJB
+    public void setKeyProvider(final KeyProvider keyProvider) {
+
+        this.keyProvider = keyProvider;
+    }
+
+    /**
+     * Sets the maximum number of hosts that are cached. This must be called
+     * before {@link #init()}.
+     *
+     * @param maxHosts
+     *            maximum number of hosts
+     */
+    public void setMaxHosts(final int maxHosts) {
+
+        this.maxHosts = maxHosts;
+    }
+}
@@ -0,0 +1,250 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import net.trajano.openidconnect.provider.internal.LatencyHistogram;
+
+/**
+ * <p>
+ * Latency histograms and counters of the provider. The latencies are recorded
+ * per endpoint and per phase of the request so the phase that dominates the
+ * tail latency can be found without a profiler. The endpoints are named by
+ * their path.
+ * </p>
+ * <p>
+ * The phases recorded by the provider are {@link #PHASE_PARSE},
+ * {@link #PHASE_QUEUE}, {@link #PHASE_STORAGE}, {@link #PHASE_SIGN},
+ * {@link #PHASE_HANDLE} and {@link #PHASE_SERIALIZE}. The histogram quantiles
+ * cover the last one to two minutes.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class ProviderMetrics {
+
+    /**
+     * Authorization codes that were presented more than once.
+     */
+    public static final String CODE_REPLAYS = "code_replays";
+
+    /**
+     * Tokens issued for the <code>authorization_code</code> and
+     * <code>client_credentials</code> grants.
+     */
+    public static final String GRANTS_ISSUED = "grants_issued";
+
+    /**
+     * Time from the request being matched until the response is ready to be
+     * written.
+     */
+    public static final String PHASE_HANDLE = "handle";
+
+    /**
+     * Time spent extracting and validating the request parameters.
+     */
+    public static final String PHASE_PARSE = "parse";
+
+    /**
+     * Time spent waiting for a {@link CryptoExecutor} thread.
+     */
+    public static final String PHASE_QUEUE = "queue";
+
+    /**
+     * Time spent writing the response entity.
+     */
+    public static final String PHASE_SERIALIZE = "serialize";
+
+    /**
+     * Time spent signing tokens.
+     */
+    public static final String PHASE_SIGN = "sign";
+
+    /**
+     * Time spent in the {@link net.trajano.openidconnect.provider.spi.TokenStorage}
+     * and the {@link net.trajano.openidconnect.provider.spi.TokenProvider}
+     * outside of signing.
+     */
+    public static final String PHASE_STORAGE = "storage";
+
+    /**
+     * Tokens issued for the <code>refresh_token</code> grant.
+     */
+    public static final String REFRESHES = "refreshes";
+
+    private static final String PREFIX = "openidconnect_";
+
+    private static final double[] QUANTILES = {
+        0.5,
+        0.9,
+        0.99,
+        0.999
+    };
+
+    private static void writeHistogram(final Writer w,
+        final String labels,
+        final LatencyHistogram histogram) throws IOException {
+
+        final String name = PREFIX + "request_duration_seconds";
+        for (final double quantile : QUANTILES) {
+            w.write(name + "{" + labels + ",quantile=\"" + quantile + "\"} " + histogram.getQuantileNanos(quantile) / TimeUnit.SECONDS.toNanos(1) + "\n");
+        }
+        w.write(name + "_sum{" + labels + "} " + (double) histogram.getSumNanos() / TimeUnit.SECONDS.toNanos(1) + "\n");
+        w.write(name + "_count{" + labels + "} " + histogram.getCount() + "\n");
+    }
+
+    @EJB
+    private BackChannelLogout backChannelLogout;
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    @EJB
+    private CryptoExecutor cryptoExecutor;
+
+    /**
+     * Histograms keyed by endpoint and phase separated by a space.
+     */
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    @EJB
+    private ClientRateLimiter rateLimiter;
+
+    /**
+     * Increments a counter.
+     *
+     * @param counter
+     *            counter name such as {@link #GRANTS_ISSUED}
+     */
+    public void increment(final String counter) {
+
+        AtomicLong value = counters.get(counter);
+        if (value == null) {
+            final AtomicLong created = new AtomicLong();
+            value = counters.putIfAbsent(counter, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        value.incrementAndGet();
+    }
+
+    /**
+     * Records the time since the start of a phase.
+     *
+     * @param endpoint
+     *            endpoint path
+     * @param phase
+     *            phase such as {@link #PHASE_SIGN}
+     * @param startNanos
+     *            {@link System#nanoTime()} when the phase started
+     * @return {@link System#nanoTime()} when the phase ended so it can be
+     *         used as the start of the next phase.
+     */
+    public long record(final String endpoint,
+        final String phase,
+        final long startNanos) {
+
+        final long now = System.nanoTime();
+        recordNanos(endpoint, phase, now - startNanos);
+        return now;
+    }
+
+    /**
+     * Records the duration of a phase.
+     *
+     * @param endpoint
+     *            endpoint path
+     * @param phase
+     *            phase such as {@link #PHASE_STORAGE}
+     * @param nanos
+     *            duration in nanoseconds
+     */
+    public void recordNanos(final String endpoint,
+        final String phase,
+        final long nanos) {
+
+        final String key = endpoint + ' ' + phase;
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            final LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Moves the histograms to the next window.
+     */
+    @Schedule(minute = "*",
+        hour = "*",
+        persistent = false)
+    public void rotate() {
+
+        for (final LatencyHistogram histogram : histograms.values()) {
+            histogram.rotate();
+        }
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     *
+     * @param w
+     *            writer
+     * @throws IOException
+     */
+    public void writePrometheus(final Writer w) throws IOException {
+
+        w.write("# HELP " + PREFIX + "request_duration_seconds Endpoint latency by phase.\n");
+        w.write("# TYPE " + PREFIX + "request_duration_seconds summary\n");
+        final SortedMap<String, LatencyHistogram> sortedHistograms = new TreeMap<>(histograms);
+        for (final Map.Entry<String, LatencyHistogram> e : sortedHistograms.entrySet()) {
+            final int space = e.getKey()
+                .indexOf(' ');
+            writeHistogram(w, "endpoint=\"" + e.getKey()
+                .substring(0, space) + "\",phase=\"" + e.getKey()
+                    .substring(space + 1) + "\"", e.getValue());
+        }
+
+        for (final String counter : new String[] {
+            GRANTS_ISSUED,
+            REFRESHES,
+            CODE_REPLAYS }) {
+            final AtomicLong value = counters.get(counter);
+            w.write("# TYPE " + PREFIX + counter + "_total counter\n");
+            w.write(PREFIX + counter + "_total " + (value == null ? 0 : value.get()) + "\n");
+        }
+
+        w.write("# TYPE " + PREFIX + "crypto_executor_queue_depth gauge\n");
+        w.write(PREFIX + "crypto_executor_queue_depth " + cryptoExecutor.getQueueDepth() + "\n");
+        w.write("# TYPE " + PREFIX + "crypto_executor_rejected_total counter\n");
+        w.write(PREFIX + "crypto_executor_rejected_total " + cryptoExecutor.getRejectedCount() + "\n");
+        w.write("# TYPE " + PREFIX + "backchannel_logout_delivered_total counter\n");
+        w.write(PREFIX + "backchannel_logout_delivered_total " + backChannelLogout.getDeliveredCount() + "\n");
+        w.write("# TYPE " + PREFIX + "backchannel_logout_failed_total counter\n");
+        w.write(PREFIX + "backchannel_logout_failed_total " + backChannelLogout.getFailedCount() + "\n");
+        w.write("# TYPE " + PREFIX + "backchannel_logout_pending gauge\n");
+        w.write(PREFIX + "backchannel_logout_pending " + backChannelLogout.getPendingCount() + "\n");
+        w.write("# TYPE " + PREFIX + "rate_limited_total counter\n");
+        w.write(PREFIX + "rate_limited_total " + rateLimiter.getRejectedCount() + "\n");
+    }
+}
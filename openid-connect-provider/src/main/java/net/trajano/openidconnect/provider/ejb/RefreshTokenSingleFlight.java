@@ -0,0 +1,148 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+
+import net.trajano.openidconnect.token.IdTokenResponse;
+
+/**
+ * <p>
+ * Ensures that only one rotation is performed for a refresh token. Concurrent
+ * requests that present the same refresh token wait for the rotation that is
+ * already in progress and receive the same result rather than each signing a
+ * new ID token.
+ * </p>
+ * <p>
+ * The result is kept for a short grace period configured by the
+ * <code>refreshTokenReuseGraceSeconds</code> environment entry so that bursts
+ * of parallel refreshes from a client are not treated as refresh token reuse.
+ * This only covers the requests handled by this node. Parallel refreshes
+ * that reach other nodes are given the result of the winning rotation by
+ * {@link net.trajano.openidconnect.provider.spi.TokenStorage#getRotatedResponse(String)}
+ * which is also what detects reuse once its grace period passes.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class RefreshTokenSingleFlight {
+
+    /**
+     * A rotation that is in progress or has recently completed.
+     */
+    private static final class Flight {
+
+        private volatile long completedAt;
+
+        private final FutureTask<IdTokenResponse> task;
+
+        public Flight(final Callable<IdTokenResponse> rotation) {
+
+            task = new FutureTask<>(rotation);
+        }
+    }
+
+    /**
+     * Default number of seconds a completed rotation is shared.
+     */
+    private static final int DEFAULT_GRACE_SECONDS = 10;
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Number of seconds a completed rotation is shared with requests that
+     * present the same refresh token.
+     */
+    @Resource(name = "refreshTokenReuseGraceSeconds")
+    private int graceSeconds = DEFAULT_GRACE_SECONDS;
+
+    /**
+     * Removes the completed rotations that are past the grace period.
+     */
+    @Schedule(second = "*/15",
+        minute = "*",
+        hour = "*",
+        persistent = false)
+    public void evict() {
+
+        final long cutoff = System.nanoTime() - TimeUnit.SECONDS.toNanos(graceSeconds);
+        final Iterator<Flight> i = flights.values()
+            .iterator();
+        while (i.hasNext()) {
+            final Flight flight = i.next();
+            if (flight.task.isDone() && flight.completedAt - cutoff < 0) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Performs the rotation for the refresh token unless one is already in
+     * progress or completed within the grace period in which case its result
+     * is returned.
+     *
+     * @param refreshToken
+     *            refresh token that was presented
+     * @param rotation
+     *            performs the rotation
+     * @return the rotated token response, <code>null</code> if the rotation
+     *         was not performed.
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public IdTokenResponse execute(final String refreshToken,
+        final Callable<IdTokenResponse> rotation) throws IOException,
+            GeneralSecurityException {
+
+        final Flight newFlight = new Flight(rotation);
+        Flight flight = flights.putIfAbsent(refreshToken, newFlight);
+        if (flight == null) {
+            flight = newFlight;
+            flight.task.run();
+            flight.completedAt = System.nanoTime();
+        }
+
+        try {
+            final IdTokenResponse response = flight.task.get();
+            if (response == null) {
+                flights.remove(refreshToken, flight);
+            }
+            return response;
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+            throw new WebApplicationException(e, Status.SERVICE_UNAVAILABLE);
+        } catch (final ExecutionException e) {
+            flights.remove(refreshToken, flight);
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new WebApplicationException(cause);
+        }
+    }
+}
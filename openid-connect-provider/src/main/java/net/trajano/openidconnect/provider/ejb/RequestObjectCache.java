@@ -0,0 +1,161 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.json.JsonObject;
+
+import net.trajano.openidconnect.crypto.Encoding;
+import net.trajano.openidconnect.crypto.JsonWebTokenProcessor;
+import net.trajano.openidconnect.internal.CharSets;
+import net.trajano.openidconnect.provider.spi.KeyProvider;
+
+/**
+ * <p>
+ * Caches the decrypted and verified payload of request objects. The same
+ * request JWT is processed by the authorization endpoint, the login and
+ * consent pages and the response provider. Decrypting an encrypted request
+ * object requires a private key operation so the result is kept for a short
+ * time to make each request object pay for it once.
+ * </p>
+ * <p>
+ * Entries are keyed by the SHA-256 digest of the request JWT so the JWT
+ * itself is not retained. The time entries are kept is set by the
+ * <code>requestObjectCacheSeconds</code> environment entry and the number of
+ * entries is limited by <code>requestObjectCacheMaxEntries</code>. When the
+ * cache is full new request objects are decrypted without being cached.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Lock(LockType.READ)
+public class RequestObjectCache {
+
+    /**
+     * Request object payload along with its expiration in milliseconds since
+     * the epoch.
+     */
+    private static final class CachedRequestObject {
+
+        private final long expiresAt;
+
+        private final JsonObject requestObject;
+
+        public CachedRequestObject(final JsonObject requestObject, final long expiresAt) {
+
+            this.requestObject = requestObject;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Default maximum number of cached request objects.
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * Default number of seconds a request object is cached. This is long
+     * enough for a user to go through the login and consent pages.
+     */
+    private static final int DEFAULT_TTL = 300;
+
+    private final ConcurrentMap<String, CachedRequestObject> entries = new ConcurrentHashMap<>();
+
+    private KeyProvider keyProvider;
+
+    /**
+     * Maximum number of cached request objects.
+     */
+    @Resource(name = "requestObjectCacheMaxEntries")
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * Number of seconds a request object is cached.
+     */
+    @Resource(name = "requestObjectCacheSeconds")
+    private int ttlSeconds = DEFAULT_TTL;
+
+    /**
+     * Removes the expired request objects.
+     */
+    @Schedule(minute = "*",
+        hour = "*",
+        persistent = false)
+    public void evict() {
+
+        final long now = System.currentTimeMillis();
+        final Iterator<CachedRequestObject> i = entries.values()
+            .iterator();
+        while (i.hasNext()) {
+            if (now >= i.next().expiresAt) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets the payload of the request object. The request object is decrypted
+     * and verified using the private keys of the provider if it is not
+     * already cached.
+     *
+     * @param requestJwt
+     *            request JWT, may be <code>null</code>
+     * @return request object or <code>null</code> if the request JWT is
+     *         <code>null</code>.
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public JsonObject getRequestObject(final String requestJwt) throws IOException,
+        GeneralSecurityException {
+
+        if (requestJwt == null) {
+            return null;
+        }
+
+        final String key = Encoding.base64urlEncode(MessageDigest.getInstance("SHA-256")
+            .digest(requestJwt.getBytes(CharSets.US_ASCII)));
+        final long now = System.currentTimeMillis();
+        final CachedRequestObject cached = entries.get(key);
+        if (cached != null && now < cached.expiresAt) {
+            return cached.requestObject;
+        }
+
+        final JsonWebTokenProcessor p = new JsonWebTokenProcessor(requestJwt).jwks(keyProvider.getPrivateJwks());
+        if (!p.isJwkAvailable()) {
+            throw new GeneralSecurityException("jwk not available for kid");
+        }
+        final JsonObject requestObject = p.getJsonPayload();
+        if (entries.size() < maxEntries) {
+            entries.put(key, new CachedRequestObject(requestObject, now + ttlSeconds * 1000L));
+        }
+        return requestObject;
+    }
+
+    @EJB
+    public void setKeyProvider(final KeyProvider keyProvider) {
+
+        this.keyProvider = keyProvider;
+    }
+
+    /**
+     * Sets the maximum number of cached request objects.
+     *
+     * @param maxEntries
+     *            maximum number of cached request objects
+     */
+    public void setMaxEntries(final int maxEntries) {
+
+        this.maxEntries = maxEntries;
+    }
+}
@@ -0,0 +1,303 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+
+import net.trajano.openidconnect.core.SubjectIdentifierType;
+import net.trajano.openidconnect.crypto.Encoding;
+import net.trajano.openidconnect.provider.internal.PairwiseSubjectIndex;
+import net.trajano.openidconnect.provider.spi.TokenStorage;
+import net.trajano.openidconnect.token.IdToken;
+import net.trajano.openidconnect.token.IdTokenResponse;
+
+/**
+ * <p>
+ * Maps the local subject that the {@link net.trajano.openidconnect.provider.spi.Authenticator}
+ * and {@link net.trajano.openidconnect.provider.spi.UserinfoProvider} work
+ * with to the <code>sub</code> that is given to a client and back.
+ * </p>
+ * <p>
+ * Subjects are public by default. Pairwise subjects are enabled by setting
+ * the <code>pairwiseSubjectSecret</code> environment entry to a base64url
+ * encoded secret of at least 32 bytes. The secret must be the same on every
+ * node and must never change as the subjects are derived from it. The sector
+ * identifier of a client is its client ID unless it is listed in
+ * <code>pairwiseSectorIdentifiers</code> as a comma separated list of
+ * <code>client_id=sector_identifier</code>. Clients that are in the same
+ * sector receive the same subjects.
+ * </p>
+ * <p>
+ * The local subject of a grant is kept by the {@link TokenStorage} so a
+ * pairwise subject is resolved on any node and after a restart. The derived
+ * subjects are cached in both directions up to
+ * <code>pairwiseCacheMaxEntries</code> in front of the storage and a cached
+ * subject that is not used for <code>pairwiseCacheSeconds</code> is dropped.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Lock(LockType.READ)
+public class SubjectIdentifiers {
+
+    /**
+     * Default maximum number of cached derived subjects.
+     */
+    private static final int DEFAULT_CACHE_MAX_ENTRIES = 100000;
+
+    /**
+     * Default number of seconds an unused subject is kept in the cache, one
+     * hour.
+     */
+    private static final int DEFAULT_CACHE_SECONDS = 3600;
+
+    /**
+     * Minimum secret size in bytes.
+     */
+    private static final int MIN_SECRET_BYTES = 32;
+
+    /**
+     * Maximum number of cached derived subjects.
+     */
+    @Resource(name = "pairwiseCacheMaxEntries")
+    private int cacheMaxEntries = DEFAULT_CACHE_MAX_ENTRIES;
+
+    /**
+     * Number of seconds an unused subject is kept in the cache.
+     */
+    @Resource(name = "pairwiseCacheSeconds")
+    private int cacheSeconds = DEFAULT_CACHE_SECONDS;
+
+    /**
+     * Cache of the pairwise subjects, <code>null</code> if the subjects are
+     * public.
+     */
+    private PairwiseSubjectIndex index;
+
+    /**
+     * Base64url encoded HMAC secret.
+     */
+    @Resource(name = "pairwiseSubjectSecret")
+    private String secret;
+
+    private final Map<String, String> sectorIdentifierMap = new HashMap<>();
+
+    /**
+     * Sector identifiers of specific clients.
+     */
+    @Resource(name = "pairwiseSectorIdentifiers")
+    private String sectorIdentifiers;
+
+    @EJB
+    private TokenStorage tokenStorage;
+
+    /**
+     * Copies the ID token with a different subject.
+     *
+     * @param idToken
+     *            ID token
+     * @param subject
+     *            subject of the copy
+     * @return copy of the ID token
+     */
+    private static IdToken withSubject(final IdToken idToken,
+        final String subject) {
+
+        final IdToken copy = new IdToken();
+        copy.setSub(subject);
+        copy.setAud(idToken.getAud());
+        copy.setAzp(idToken.getAzp());
+        copy.setIss(idToken.getIss());
+        copy.setAuthTime(idToken.getAuthTime());
+        copy.setAcr(idToken.getAcr());
+        copy.setAmr(idToken.getAmr());
+        copy.setNonce(idToken.getNonce());
+        copy.setIat(idToken.getIat());
+        copy.setExp(idToken.getExp());
+        return copy;
+    }
+
+    /**
+     * Removes the subjects that have not been used recently from the cache.
+     */
+    @Schedule(minute = "*",
+        hour = "*",
+        persistent = false)
+    public void evict() {
+
+        if (index != null) {
+            index.evict(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(cacheSeconds));
+        }
+    }
+
+    /**
+     * Gets the sector identifier of the client.
+     *
+     * @param clientId
+     *            client ID
+     * @return sector identifier
+     */
+    private String getSectorIdentifier(final String clientId) {
+
+        final String sectorIdentifier = sectorIdentifierMap.get(clientId);
+        return sectorIdentifier != null ? sectorIdentifier : clientId;
+    }
+
+    /**
+     * Gets the <code>sub</code> that is given to the client for the local
+     * subject.
+     *
+     * @param clientId
+     *            client ID
+     * @param localSubject
+     *            local subject
+     * @return subject for the client
+     */
+    public String getSubject(final String clientId,
+        final String localSubject) {
+
+        if (index == null) {
+            return localSubject;
+        }
+        return index.derive(getSectorIdentifier(clientId), localSubject, System.currentTimeMillis());
+    }
+
+    /**
+     * Subject identifier type that is in effect.
+     *
+     * @return subject identifier type
+     */
+    public SubjectIdentifierType getSubjectIdentifierType() {
+
+        return index == null ? SubjectIdentifierType.PUBLIC : SubjectIdentifierType.PAIRWISE;
+    }
+
+    /**
+     * Parses the sector identifiers and creates the index if a secret is set.
+     *
+     * @throws GeneralSecurityException
+     *             HMAC-SHA256 is not available
+     */
+    @PostConstruct
+    public void init() throws GeneralSecurityException {
+
+        if (sectorIdentifiers != null) {
+            for (final String entry : sectorIdentifiers.split(",")) {
+                if (entry.trim()
+                    .isEmpty()) {
+                    continue;
+                }
+                final int equals = entry.indexOf('=');
+                if (equals == -1) {
+                    throw new IllegalArgumentException("invalid sector identifier " + entry);
+                }
+                sectorIdentifierMap.put(entry.substring(0, equals)
+                    .trim(), entry.substring(equals + 1)
+                    .trim());
+            }
+        }
+        if (secret == null || secret.trim()
+            .isEmpty()) {
+            return;
+        }
+        final byte[] secretBytes = Encoding.base64urlDecode(secret.trim());
+        if (secretBytes.length < MIN_SECRET_BYTES) {
+            throw new IllegalArgumentException("pairwiseSubjectSecret must be at least " + MIN_SECRET_BYTES + " bytes");
+        }
+        index = new PairwiseSubjectIndex(secretBytes, cacheMaxEntries);
+    }
+
+    /**
+     * Checks if the <code>sub</code> that was given to the client is that of
+     * the local subject. This derives the subject rather than using the cache
+     * so it also works for ID tokens whose subject is no longer cached.
+     *
+     * @param clientId
+     *            client ID
+     * @param subject
+     *            subject given to the client
+     * @param localSubject
+     *            local subject
+     * @return <code>true</code> if the subject belongs to the local subject.
+     */
+    public boolean isSubjectOf(final String clientId,
+        final String subject,
+        final String localSubject) {
+
+        return getSubject(clientId, localSubject).equals(subject);
+    }
+
+    /**
+     * Gets an ID token with the local subject to pass to the
+     * {@link net.trajano.openidconnect.provider.spi.UserinfoProvider} for a
+     * token that was issued for the response. The local subject is looked up
+     * in the cache and then in the {@link TokenStorage} by the refresh token
+     * family of the response. When the subjects are public the ID token is
+     * returned as is.
+     *
+     * @param idToken
+     *            ID token given to the client
+     * @param response
+     *            response that carries the ID token
+     * @return ID token with the local subject or <code>null</code> if the
+     *         subject is not known.
+     */
+    public IdToken toLocal(final IdToken idToken,
+        final IdTokenResponse response) {
+
+        if (index == null) {
+            return idToken;
+        }
+        final String sectorIdentifier = getSectorIdentifier(idToken.getAud());
+        final long now = System.currentTimeMillis();
+        final String cached = index.getLocalSubject(sectorIdentifier, idToken.getSub(), now);
+        if (cached != null) {
+            return withSubject(idToken, cached);
+        }
+        if (response.getRefreshToken() == null) {
+            return null;
+        }
+        final String family = tokenStorage.getRefreshTokenFamily(response.getRefreshToken());
+        if (family == null) {
+            return null;
+        }
+        final String localSubject = tokenStorage.getLocalSubject(family);
+        // deriving it again puts it back in the cache
+        if (localSubject == null || !index.derive(sectorIdentifier, localSubject, now)
+            .equals(idToken.getSub())) {
+            return null;
+        }
+        return withSubject(idToken, localSubject);
+    }
+
+    /**
+     * Gets an ID token with the local subject to pass to the
+     * {@link net.trajano.openidconnect.provider.spi.UserinfoProvider} when
+     * the local subject is already known such as when the token is being
+     * issued. When the subjects are public the ID token is returned as is.
+     *
+     * @param idToken
+     *            ID token given to the client
+     * @param localSubject
+     *            local subject
+     * @return ID token with the local subject
+     */
+    public IdToken toLocal(final IdToken idToken,
+        final String localSubject) {
+
+        if (index == null) {
+            return idToken;
+        }
+        return withSubject(idToken, localSubject);
+    }
+}
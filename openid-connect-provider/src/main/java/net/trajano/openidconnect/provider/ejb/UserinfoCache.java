@@ -0,0 +1,262 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.AsyncResult;
+import javax.ejb.EJB;
+import javax.ejb.EJBException;
+import javax.ejb.Local;
+import javax.ejb.LocalBean;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+
+import net.trajano.openidconnect.provider.internal.UserinfoBatcher;
+import net.trajano.openidconnect.provider.internal.UserinfoEntries;
+import net.trajano.openidconnect.provider.spi.BatchUserinfoProvider;
+import net.trajano.openidconnect.provider.spi.UserinfoInvalidator;
+import net.trajano.openidconnect.provider.spi.UserinfoProvider;
+import net.trajano.openidconnect.token.IdToken;
+import net.trajano.openidconnect.userinfo.Userinfo;
+
+/**
+ * <p>
+ * Front end to the {@link UserinfoProvider}. Lookups are performed in the
+ * background by a {@link UserinfoBatcher} so callers can start a lookup with
+ * {@link #getUserinfoAsync(IdToken)} and do other work while the backend
+ * responds. Concurrent lookups for the same subject are coalesced and lookups
+ * that arrive within <code>userinfoBatchMillis</code> are passed together to a
+ * {@link BatchUserinfoProvider}, at most <code>userinfoBatchMaxSize</code> at
+ * a time. The lookups run on <code>userinfoThreads</code> threads.
+ * </p>
+ * <p>
+ * There is also an optional per subject cache. The cache is disabled unless
+ * the <code>userinfoCacheSeconds</code> environment entry is set to the number
+ * of seconds an entry is kept. The number of entries is limited by
+ * <code>userinfoCacheMaxEntries</code>; when the cache is full the provider is
+ * called without caching the result.
+ * </p>
+ * <p>
+ * The cached {@link Userinfo} instances are shared between requests and must
+ * not be modified. The provider invalidates entries through the
+ * {@link UserinfoInvalidator} interface which is exposed as a local view next
+ * to the no-interface view.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@LocalBean
+@Local(UserinfoInvalidator.class)
+@Lock(LockType.READ)
+public class UserinfoCache implements
+    UserinfoInvalidator {
+
+    /**
+     * Default maximum number of subjects passed to the provider at once.
+     */
+    private static final int DEFAULT_BATCH_MAX_SIZE = 50;
+
+    /**
+     * Default number of milliseconds to wait for more lookups.
+     */
+    private static final int DEFAULT_BATCH_MILLIS = 2;
+
+    /**
+     * Default maximum number of cached subjects.
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * Default number of threads performing lookups.
+     */
+    private static final int DEFAULT_THREADS = 8;
+
+    /**
+     * Waits for a result of {@link #getUserinfoAsync(IdToken)}. A runtime
+     * exception thrown by the provider is rethrown as is.
+     *
+     * @param userinfo
+     *            pending user info
+     * @return user info
+     */
+    public static Userinfo await(final Future<Userinfo> userinfo) {
+
+        try {
+            return userinfo.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+            throw new EJBException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new EJBException(e);
+        }
+    }
+
+    private UserinfoBatcher batcher;
+
+    /**
+     * Maximum number of subjects passed to the provider at once.
+     */
+    @Resource(name = "userinfoBatchMaxSize")
+    private int batchMaxSize = DEFAULT_BATCH_MAX_SIZE;
+
+    /**
+     * Number of milliseconds to wait for more lookups before calling the
+     * provider.
+     */
+    @Resource(name = "userinfoBatchMillis")
+    private int batchMillis = DEFAULT_BATCH_MILLIS;
+
+    /**
+     * Cached entries, <code>null</code> if the cache is disabled.
+     */
+    private UserinfoEntries entries;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Maximum number of cached subjects.
+     */
+    @Resource(name = "userinfoCacheMaxEntries")
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * Container managed thread factory. This may not be available outside of
+     * a Java EE container.
+     */
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    /**
+     * Number of threads performing lookups.
+     */
+    @Resource(name = "userinfoThreads")
+    private int threads = DEFAULT_THREADS;
+
+    /**
+     * Number of seconds an entry is cached. The cache is disabled if this is
+     * not positive.
+     */
+    @Resource(name = "userinfoCacheSeconds")
+    private int ttlSeconds;
+
+    private UserinfoProvider userinfoProvider;
+
+    /**
+     * Removes the expired entries.
+     */
+    @Schedule(minute = "*",
+        hour = "*",
+        persistent = false)
+    public void evict() {
+
+        if (entries != null) {
+            entries.evict(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Gets the user info for the subject of the ID token from the cache or
+     * the {@link UserinfoProvider}. This waits for the lookup.
+     *
+     * @param idToken
+     *            ID token
+     * @return user info
+     */
+    public Userinfo getUserinfo(final IdToken idToken) {
+
+        return await(getUserinfoAsync(idToken));
+    }
+
+    /**
+     * Starts getting the user info for the subject of the ID token. A cached
+     * entry is returned as a completed result.
+     *
+     * @param idToken
+     *            ID token
+     * @return user info
+     */
+    public Future<Userinfo> getUserinfoAsync(final IdToken idToken) {
+
+        if (entries != null) {
+            final Userinfo cached = entries.get(idToken.getSub(), System.currentTimeMillis());
+            if (cached != null) {
+                return new AsyncResult<>(cached);
+            }
+        }
+        return batcher.getUserinfo(idToken);
+    }
+
+    /**
+     * Creates the batcher. Results are cached as each batch completes.
+     */
+    @PostConstruct
+    public void init() {
+
+        if (ttlSeconds > 0) {
+            entries = new UserinfoEntries(ttlSeconds * 1000L, maxEntries);
+        }
+        final ThreadFactory factory = threadFactory != null ? threadFactory : Executors.defaultThreadFactory();
+        executor = new ScheduledThreadPoolExecutor(threads, factory);
+        batcher = new UserinfoBatcher(userinfoProvider, executor, batchMillis, batchMaxSize) {
+
+            @Override
+            protected Map<String, Userinfo> load(final List<IdToken> idTokens) {
+
+                if (entries == null) {
+                    return super.load(idTokens);
+                }
+                final long loadedGeneration = entries.getGeneration();
+                final Map<String, Userinfo> result = super.load(idTokens);
+                entries.put(result, loadedGeneration, System.currentTimeMillis());
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public void invalidate(final String subject) {
+
+        if (entries != null) {
+            entries.invalidate(subject);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+
+        if (entries != null) {
+            entries.invalidateAll();
+        }
+    }
+
+    @EJB
+    public void setUserinfoProvider(final UserinfoProvider userinfoProvider) {
+
+        this.userinfoProvider = userinfoProvider;
+    }
+
+    /**
+     * Stops the lookup threads.
+     */
+    @PreDestroy
+    public void shutdown() {
+
+        executor.shutdown();
+    }
+}
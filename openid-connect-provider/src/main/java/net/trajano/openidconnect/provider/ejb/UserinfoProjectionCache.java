@@ -0,0 +1,68 @@
+package net.trajano.openidconnect.provider.ejb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.json.JsonObject;
+
+import net.trajano.openidconnect.provider.internal.UserinfoProjection;
+
+/**
+ * <p>
+ * Caches the compiled {@link UserinfoProjection} for each distinct
+ * <code>userinfo</code> claims request. Clients tend to send the same claims
+ * request for every user so there are only a few distinct ones.
+ * </p>
+ * <p>
+ * The number of entries is limited by the
+ * <code>userinfoProjectionCacheMaxEntries</code> environment entry. When the
+ * cache is full new claims requests are compiled without being cached.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Lock(LockType.READ)
+public class UserinfoProjectionCache {
+
+    /**
+     * Default maximum number of cached projections.
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * Maximum number of cached projections.
+     */
+    @Resource(name = "userinfoProjectionCacheMaxEntries")
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private final ConcurrentMap<JsonObject, UserinfoProjection> projections = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the projection for the claims associated with an access token.
+     *
+     * @param claims
+     *            claims request, may be <code>null</code>
+     * @return projection
+     */
+    public UserinfoProjection getProjection(final JsonObject claims) {
+
+        if (claims == null || !claims.containsKey("userinfo")) {
+            return UserinfoProjection.ALL;
+        }
+        final JsonObject userinfoClaims = claims.getJsonObject("userinfo");
+        final UserinfoProjection cached = projections.get(userinfoClaims);
+        if (cached != null) {
+            return cached;
+        }
+        final UserinfoProjection projection = UserinfoProjection.compile(userinfoClaims);
+        if (projections.size() < maxEntries) {
+            projections.putIfAbsent(userinfoClaims, projection);
+        }
+        return projection;
+    }
+}
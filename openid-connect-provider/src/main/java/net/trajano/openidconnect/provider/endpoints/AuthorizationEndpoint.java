@@ -7,14 +7,17 @@ import static net.trajano.openidconnect.core.ErrorCode.login_required;
 import java.io.IOException;
 import java.net.URI;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.Callable;
 
 import javax.ejb.EJB;
-import javax.enterprise.context.RequestScoped;
+import javax.enterprise.context.ApplicationScoped;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -27,6 +30,11 @@ import net.trajano.openidconnect.core.OpenIdConnectException;
 import net.trajano.openidconnect.core.OpenIdConnectKey;
 import net.trajano.openidconnect.core.RedirectedOpenIdProviderException;
 import net.trajano.openidconnect.crypto.JsonWebTokenBuilder;
+import net.trajano.openidconnect.provider.ejb.AuthenticationRequestStore;
+import net.trajano.openidconnect.provider.ejb.ClientRateLimiter;
+import net.trajano.openidconnect.provider.ejb.CryptoExecutor;
+import net.trajano.openidconnect.provider.ejb.ProviderMetrics;
+import net.trajano.openidconnect.provider.ejb.RequestObjectCache;
 import net.trajano.openidconnect.provider.spi.AuthenticationResponseProvider;
 import net.trajano.openidconnect.provider.spi.Authenticator;
 import net.trajano.openidconnect.provider.spi.ClientManager;
@@ -50,9 +58,11 @@ import net.trajano.openidconnect.provider.spi.TokenProvider;
  * @author Archimedes Trajano
  */
 @Path("auth")
-@RequestScoped
+@ApplicationScoped
 public class AuthorizationEndpoint {
 
+    private static final String ENDPOINT = "auth";
+
     @EJB
     private AuthenticationResponseProvider arp;
 
@@ -60,8 +70,23 @@ public class AuthorizationEndpoint {
 
     private ClientManager clientManager;
 
+    @EJB
+    private CryptoExecutor executor;
+
     private KeyProvider keyProvider;
 
+    @EJB
+    private ClientRateLimiter limiter;
+
+    @EJB
+    private ProviderMetrics metrics;
+
+    @EJB
+    private RequestObjectCache requestObjectCache;
+
+    @EJB
+    private AuthenticationRequestStore requestStore;
+
     @EJB
     private TokenProvider tp;
 
@@ -72,15 +97,14 @@ public class AuthorizationEndpoint {
      *
      * @param req
      *            servlet request
-     * @return JAX-RS Response
-     * @throws GeneralSecurityException
-     * @throws IOException
+     * @param asyncResponse
+     *            suspended response
      */
     @GET
-    public Response getOp(@Context final HttpServletRequest req) throws IOException,
-        GeneralSecurityException {
+    public void getOp(@Context final HttpServletRequest req,
+        @Suspended final AsyncResponse asyncResponse) {
 
-        return op(req);
+        op(req, asyncResponse);
     }
 
     /**
@@ -97,17 +121,70 @@ public class AuthorizationEndpoint {
      * per Section 13.1. If using the HTTP POST method, the request parameters
      * are serialized using Form Serialization, per Section 13.2.
      * </p>
+     * <p>
+     * The client is checked against its rate limit on the request thread. As
+     * there is no client authentication here the request is only charged to
+     * the client when its redirect URI is registered for it, otherwise it is
+     * charged to its remote address. The request object decryption and
+     * response signing is performed by the {@link CryptoExecutor}.
+     * </p>
      *
-     * @return JAX-RS Response
-     * @throws GeneralSecurityException
-     * @throws IOException
+     * @param req
+     *            servlet request
+     * @param asyncResponse
+     *            suspended response
      */
     @POST
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
-    public Response op(@Context final HttpServletRequest req) throws IOException,
+    public void op(@Context final HttpServletRequest req,
+        @Suspended final AsyncResponse asyncResponse) {
+
+        final Response rateLimited = admit(req);
+        if (rateLimited != null) {
+            asyncResponse.resume(rateLimited);
+            return;
+        }
+        final long queued = System.nanoTime();
+        executor.execute(asyncResponse, new Callable<Response>() {
+
+            @Override
+            public Response call() throws IOException,
+                GeneralSecurityException {
+
+                metrics.record(ENDPOINT, ProviderMetrics.PHASE_QUEUE, queued);
+                return processAuthorizationRequest(req);
+            }
+        });
+    }
+
+    /**
+     * Checks the request against the rate limit of the client if its redirect
+     * URI is registered for the client, otherwise against that of its remote
+     * address.
+     *
+     * @param req
+     *            servlet request
+     * @return <code>null</code> if the request is allowed, otherwise the
+     *         response to send.
+     */
+    private Response admit(final HttpServletRequest req) {
+
+        final String clientId = req.getParameter(OpenIdConnectKey.CLIENT_ID);
+        final String redirectUri = req.getParameter(OpenIdConnectKey.REDIRECT_URI);
+        try {
+            if (clientId != null && redirectUri != null && clientManager.isRedirectUriValidForClient(clientId, URI.create(redirectUri))) {
+                return limiter.admit(clientId);
+            }
+        } catch (final IllegalArgumentException e) {
+            // not a valid URI, rejected when the request is processed
+        }
+        return limiter.admitSource(req.getRemoteAddr());
+    }
+
+    private Response processAuthorizationRequest(final HttpServletRequest req) throws IOException,
         GeneralSecurityException {
 
-        final AuthenticationRequest authenticationRequest = new AuthenticationRequest(req, keyProvider.getPrivateJwks());
+        final AuthenticationRequest authenticationRequest = new AuthenticationRequest(req, requestObjectCache.getRequestObject(req.getParameter(OpenIdConnectKey.REQUEST)));
 
         if (!clientManager.isRedirectUriValidForClient(authenticationRequest.getClientId(), authenticationRequest.getRedirectUri())) {
             throw new OpenIdConnectException(invalid_grant, "redirect URI is not supported for the client");
@@ -122,13 +199,16 @@ public class AuthorizationEndpoint {
 
         final Consent consent = new Consent(authenticator.getSubject(req), authenticationRequest.getClientId(), authenticationRequest.getScopes());
 
-        final boolean consented = clientManager.isImplicitConsent(authenticationRequest.getClientId()) || tp.getByConsent(consent) != null;
+        final boolean consented = clientManager.isImplicitConsent(authenticationRequest.getClientId()) || tp.isConsented(consent);
         if (!consented && authenticationRequest.getPrompts()
             .contains(Prompt.none)) {
             throw new RedirectedOpenIdProviderException(authenticationRequest, new ErrorResponse(consent_required));
         }
 
-        String reqJwt = req.getParameter(OpenIdConnectKey.REQUEST);
+        String reqJwt = requestStore.put(authenticationRequest);
+        if (reqJwt == null) {
+            reqJwt = req.getParameter(OpenIdConnectKey.REQUEST);
+        }
         if (reqJwt == null) {
             final JsonWebTokenBuilder b = new JsonWebTokenBuilder().payload(authenticationRequest.toJsonObject())
                 .compress(true);
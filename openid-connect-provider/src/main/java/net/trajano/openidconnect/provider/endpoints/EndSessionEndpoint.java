@@ -7,7 +7,7 @@ import java.net.URI;
 import java.security.GeneralSecurityException;
 
 import javax.ejb.EJB;
-import javax.enterprise.context.RequestScoped;
+import javax.enterprise.context.ApplicationScoped;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import javax.validation.constraints.NotNull;
@@ -29,6 +29,9 @@ import net.trajano.openidconnect.core.ErrorCode;
 import net.trajano.openidconnect.core.OpenIdConnectException;
 import net.trajano.openidconnect.core.OpenIdConnectKey;
 import net.trajano.openidconnect.crypto.JsonWebTokenProcessor;
+import net.trajano.openidconnect.provider.ejb.BackChannelLogout;
+import net.trajano.openidconnect.provider.ejb.ProviderConfigurationCache;
+import net.trajano.openidconnect.provider.ejb.SubjectIdentifiers;
 import net.trajano.openidconnect.provider.spi.Authenticator;
 import net.trajano.openidconnect.provider.spi.ClientManager;
 import net.trajano.openidconnect.provider.spi.KeyProvider;
@@ -46,26 +49,39 @@ import net.trajano.openidconnect.token.IdToken;
  * @author Archimedes
  */
 @Path("end")
-@RequestScoped
+@ApplicationScoped
 @Produces(MediaType.APPLICATION_JSON)
 public class EndSessionEndpoint {
 
     @EJB
     private Authenticator authenticator;
 
+    @EJB
+    private BackChannelLogout backChannelLogout;
+
     @EJB
     private ClientManager clientManager;
 
     @EJB
     private KeyProvider keyProvider;
 
+    @EJB
+    private ProviderConfigurationCache providerConfigurationCache;
+
     @Context
     private Providers providers;
 
+    @EJB
+    private SubjectIdentifiers subjectIdentifiers;
+
     @EJB
     private TokenProvider tokenProvider;
 
     /**
+     * Ends the session if the user confirmed the logout. The clients that hold
+     * tokens for the subject are notified through {@link BackChannelLogout}
+     * without waiting for them to respond.
+     *
      * @param nonce
      *            nonce
      * @param logout
@@ -92,8 +108,12 @@ public class EndSessionEndpoint {
         final URI postLogoutRedirectUri = (URI) session.getAttribute("post_logout_redirect_uri");
         final String state = (String) session.getAttribute("state");
         if (logout) {
+            final String subject = authenticator.isAuthenticated(req) ? authenticator.getSubject(req) : null;
             authenticator.endSession(req);
             session.invalidate();
+            if (subject != null) {
+                backChannelLogout.logout(subject, providerConfigurationCache.getIssuer(req));
+            }
         }
         return Response.temporaryRedirect(UriBuilder.fromUri(postLogoutRedirectUri)
             .queryParam(OpenIdConnectKey.STATE, state)
@@ -187,8 +207,7 @@ public class EndSessionEndpoint {
 
         final HttpSession session = req.getSession(false);
         if (session != null && authenticator.isAuthenticated(req)) {
-            if (!authenticator.getSubject(req)
-                .equals(idToken.getSub())) {
+            if (!subjectIdentifiers.isSubjectOf(idToken.getAzp(), idToken.getSub(), authenticator.getSubject(req))) {
                 throw new OpenIdConnectException(ErrorCode.access_denied);
             }
             final UriBuilder uriBuilder = UriBuilder.fromUri(req.getRequestURL()
@@ -1,14 +1,18 @@
 package net.trajano.openidconnect.provider.endpoints;
 
 import javax.ejb.EJB;
-import javax.enterprise.context.RequestScoped;
+import javax.enterprise.context.ApplicationScoped;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
+import net.trajano.openidconnect.provider.spi.EncodedJsonWebKeySet;
 import net.trajano.openidconnect.provider.spi.KeyProvider;
 
 /**
@@ -27,9 +31,16 @@ import net.trajano.openidconnect.provider.spi.KeyProvider;
  * @author Archimedes Trajano
  */
 @Path("jwks")
-@RequestScoped
+@ApplicationScoped
 public class Jwks {
 
+    private static final CacheControl CACHE_CONTROL;
+    static {
+        CACHE_CONTROL = new CacheControl();
+        CACHE_CONTROL.setPrivate(false);
+        CACHE_CONTROL.setMaxAge(300);
+    }
+
     private KeyProvider keyProvider;
 
     /**
@@ -49,18 +60,32 @@ public class Jwks {
      * <p>
      * Only 3 keys are provided at a time
      * </p>
+     * <p>
+     * The JWKS is serialized by the key provider once per version of the key
+     * set. The entity tag is derived from the serialized content so
+     * conditional requests from clients that already have the current keys
+     * are answered with <code>304 Not Modified</code>.
+     * </p>
+     *
+     * @param req
+     *            request used to evaluate the preconditions
+     * @return response
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Response op() {
+    public Response op(@Context final Request req) {
 
-        final CacheControl cacheControl = new CacheControl();
-        cacheControl.setPrivate(false);
-        cacheControl.setMaxAge(300);
+        final EncodedJsonWebKeySet encodedJwks = keyProvider.getEncodedJwks();
+        final ResponseBuilder notModified = req.evaluatePreconditions(encodedJwks.getEntityTag());
+        if (notModified != null) {
+            return notModified.cacheControl(CACHE_CONTROL)
+                .build();
+        }
 
-        return Response.ok(keyProvider.getJwks())
-            .cacheControl(cacheControl)
-            .tag(keyProvider.getSecretKeyId())
+        return Response.ok(encodedJwks.getBytes())
+            .type(MediaType.APPLICATION_JSON_TYPE)
+            .cacheControl(CACHE_CONTROL)
+            .tag(encodedJwks.getEntityTag())
             .build();
     }
 
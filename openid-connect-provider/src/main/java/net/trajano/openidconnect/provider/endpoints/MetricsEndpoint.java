@@ -0,0 +1,65 @@
+package net.trajano.openidconnect.provider.endpoints;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.ejb.EJB;
+import javax.enterprise.context.ApplicationScoped;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import net.trajano.openidconnect.internal.CharSets;
+import net.trajano.openidconnect.provider.ejb.ProviderMetrics;
+import net.trajano.openidconnect.provider.internal.CacheConstants;
+
+/**
+ * <p>
+ * Exports the {@link ProviderMetrics} in the Prometheus text exposition
+ * format.
+ * </p>
+ * <p>
+ * This is not part of the OpenID Connect specification and exposes
+ * operational data so it is not registered by default. It is only available
+ * when the deployment maps the
+ * {@link net.trajano.openidconnect.provider.internal.MetricsApplication},
+ * which should be restricted by a security constraint.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Path("metrics")
+@ApplicationScoped
+public class MetricsEndpoint {
+
+    /**
+     * Media type of the Prometheus text exposition format.
+     */
+    private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    @EJB
+    private ProviderMetrics metrics;
+
+    @GET
+    @Produces(PROMETHEUS_TEXT)
+    public Response op() {
+
+        final StreamingOutput output = new StreamingOutput() {
+
+            @Override
+            public void write(final OutputStream os) throws IOException {
+
+                final Writer w = new OutputStreamWriter(os, CharSets.UTF8);
+                metrics.writePrometheus(w);
+                w.flush();
+            }
+        };
+        return Response.ok(output)
+            .cacheControl(CacheConstants.NO_CACHE)
+            .build();
+    }
+}
@@ -3,9 +3,11 @@ package net.trajano.openidconnect.provider.endpoints;
 import java.io.IOException;
 import java.net.URI;
 import java.security.GeneralSecurityException;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.ejb.EJB;
-import javax.enterprise.context.RequestScoped;
+import javax.enterprise.context.ApplicationScoped;
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.Consumes;
@@ -16,6 +18,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -24,67 +28,221 @@ import javax.ws.rs.core.Response.Status;
 import net.trajano.openidconnect.core.ErrorCode;
 import net.trajano.openidconnect.core.ErrorResponse;
 import net.trajano.openidconnect.core.OpenIdConnectException;
+import net.trajano.openidconnect.core.Scope;
+import net.trajano.openidconnect.internal.Util;
+import net.trajano.openidconnect.provider.ejb.ClientRateLimiter;
+import net.trajano.openidconnect.provider.ejb.CryptoExecutor;
+import net.trajano.openidconnect.provider.ejb.ProviderConfigurationCache;
+import net.trajano.openidconnect.provider.ejb.ProviderMetrics;
 import net.trajano.openidconnect.provider.internal.AuthorizationUtil;
+import net.trajano.openidconnect.provider.internal.CacheConstants;
 import net.trajano.openidconnect.provider.internal.ClientCredentials;
 import net.trajano.openidconnect.provider.spi.ClientManager;
 import net.trajano.openidconnect.provider.spi.KeyProvider;
 import net.trajano.openidconnect.provider.spi.TokenProvider;
 import net.trajano.openidconnect.token.GrantType;
+import net.trajano.openidconnect.token.IdToken;
 import net.trajano.openidconnect.token.IdTokenResponse;
+import net.trajano.openidconnect.token.InvalidClientException;
 import net.trajano.openidconnect.token.TokenResponse;
 
 @Path("token")
-@RequestScoped
+@ApplicationScoped
 @Produces(MediaType.APPLICATION_JSON)
 public class TokenEndpoint {
 
+    private static final String ENDPOINT = "token";
+
     @EJB
     private ClientManager cm;
 
+    @EJB
+    private CryptoExecutor executor;
+
     @EJB
     private KeyProvider kp;
 
+    @EJB
+    private ClientRateLimiter limiter;
+
+    @EJB
+    private ProviderMetrics metrics;
+
+    @EJB
+    private ProviderConfigurationCache providerConfigurationCache;
+
     @EJB
     private TokenProvider tp;
 
     @GET
-    public Response getOp(@QueryParam("grant_type") @NotNull final GrantType grantType,
+    public void getOp(@QueryParam("grant_type") @NotNull final GrantType grantType,
         @QueryParam("code") final String code,
         @QueryParam("refresh_token") final String refreshToken,
         @QueryParam("redirect_uri") final URI redirectUri,
-        @Context final HttpServletRequest req) throws IOException,
-            GeneralSecurityException {
+        @QueryParam("scope") final String scope,
+        @Context final HttpServletRequest req,
+        @Suspended final AsyncResponse asyncResponse) {
 
-        return op(grantType, code, refreshToken, redirectUri, req);
+        op(grantType, code, refreshToken, redirectUri, scope, req, asyncResponse);
     }
 
+    /**
+     * Processes the token request. The client is authenticated and checked
+     * against its rate limit on the request thread, the storage and
+     * cryptographic work is performed by the {@link CryptoExecutor}. A request
+     * that fails client authentication is charged to its remote address
+     * rather than to the client it claims to be.
+     *
+     * @param grantType
+     *            grant type
+     * @param code
+     *            authorization code
+     * @param refreshToken
+     *            refresh token
+     * @param redirectUri
+     *            redirect URI
+     * @param scope
+     *            requested scope for the <code>client_credentials</code> grant
+     * @param req
+     *            servlet request
+     * @param asyncResponse
+     *            suspended response
+     */
     @POST
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
-    public Response op(@FormParam("grant_type") @NotNull final GrantType grantType,
+    public void op(@FormParam("grant_type") @NotNull final GrantType grantType,
         @FormParam("code") final String code,
         @FormParam("refresh_token") final String refreshToken,
         @FormParam("redirect_uri") final URI redirectUri,
-        @Context final HttpServletRequest req) throws IOException,
-            GeneralSecurityException {
+        @FormParam("scope") final String scope,
+        @Context final HttpServletRequest req,
+        @Suspended final AsyncResponse asyncResponse) {
 
+        final long start = System.nanoTime();
         final ClientCredentials cred = AuthorizationUtil.processBasicOrQuery(req);
+        final String authenticatedClientId = cm.authenticateClient(cred.getClientId(), cred.getClientSecret());
+        final Response rateLimited = authenticatedClientId != null ? limiter.admit(authenticatedClientId) : limiter.admitSource(req.getRemoteAddr());
+        if (rateLimited != null) {
+            asyncResponse.resume(rateLimited);
+            return;
+        }
+        final long parsed = metrics.record(ENDPOINT, ProviderMetrics.PHASE_PARSE, start);
+
+        if (grantType == GrantType.client_credentials) {
+            processClientCredentialsRequest(authenticatedClientId, scope, req, asyncResponse, parsed);
+            return;
+        }
+
+        executor.execute(asyncResponse, new Callable<Response>() {
+
+            @Override
+            public Response call() throws IOException,
+                GeneralSecurityException {
+
+                metrics.record(ENDPOINT, ProviderMetrics.PHASE_QUEUE, parsed);
+                return processTokenRequest(grantType, code, refreshToken, cred);
+            }
+        });
+    }
+
+    /**
+     * Builds the response for a <code>client_credentials</code> grant.
+     *
+     * @param token
+     *            token response
+     * @return response
+     */
+    private Response clientCredentialsResponse(final TokenResponse token) {
+
+        metrics.increment(ProviderMetrics.GRANTS_ISSUED);
+        return Response.ok(token)
+            .cacheControl(CacheConstants.NO_CACHE)
+            .build();
+    }
+
+    /**
+     * Processes the <code>client_credentials</code> grant. A token that is
+     * still cached is served on the request thread, otherwise the token is
+     * signed by the {@link CryptoExecutor}.
+     *
+     * @param clientId
+     *            authenticated client ID, <code>null</code> if the client
+     *            failed authentication
+     * @param scope
+     *            requested scope
+     * @param req
+     *            servlet request
+     * @param asyncResponse
+     *            suspended response
+     * @param parsed
+     *            nanosecond time the request was parsed
+     */
+    private void processClientCredentialsRequest(final String clientId,
+        final String scope,
+        final HttpServletRequest req,
+        final AsyncResponse asyncResponse,
+        final long parsed) {
+
+        if (clientId == null) {
+            throw new InvalidClientException("Basic");
+        }
+
+        final Set<Scope> scopes;
+        try {
+            scopes = Util.splitToSet(Scope.class, scope);
+        } catch (final IllegalArgumentException e) {
+            throw new OpenIdConnectException(ErrorCode.invalid_scope);
+        }
+        scopes.remove(null);
+
+        final URI issuer = providerConfigurationCache.getIssuer(req);
+        final TokenResponse cached = tp.getCachedClientCredentialsToken(clientId, issuer, scopes);
+        if (cached != null) {
+            asyncResponse.resume(clientCredentialsResponse(cached));
+            return;
+        }
+        executor.execute(asyncResponse, new Callable<Response>() {
+
+            @Override
+            public Response call() {
+
+                metrics.record(ENDPOINT, ProviderMetrics.PHASE_QUEUE, parsed);
+                return clientCredentialsResponse(tp.getClientCredentialsToken(clientId, issuer, scopes));
+            }
+        });
+    }
+
+    private Response processTokenRequest(final GrantType grantType,
+        final String code,
+        final String refreshToken,
+        final ClientCredentials cred) throws IOException,
+            GeneralSecurityException {
 
         if (grantType == GrantType.authorization_code) {
+            final long start = System.nanoTime();
             final IdTokenResponse responseToken = tp.getByCode(code, true);
+            metrics.record(ENDPOINT, ProviderMetrics.PHASE_STORAGE, start);
             if (responseToken == null) {
                 return Response.ok(new ErrorResponse(ErrorCode.access_denied, "unable to obtain response token"))
                     .status(Status.BAD_REQUEST)
                     .build();
             }
-            if (!responseToken.getIdToken(kp.getJwks())
-                .getAud()
+            IdToken idToken = responseToken.getIdToken();
+            if (idToken == null) {
+                idToken = responseToken.getIdToken(kp.getJwks());
+            }
+            if (!idToken.getAud()
                 .equals(cred.getClientId())) {
                 throw new WebApplicationException();
             }
+            metrics.increment(ProviderMetrics.GRANTS_ISSUED);
             return Response.ok(responseToken)
                 .build();
         } else if (grantType == GrantType.refresh_token) {
             final TokenResponse responseToken = tp.refreshToken(cred.getClientId(), refreshToken, null, null);
+            if (responseToken != null) {
+                metrics.increment(ProviderMetrics.REFRESHES);
+            }
             return Response.ok(responseToken)
                 .build();
         } else {
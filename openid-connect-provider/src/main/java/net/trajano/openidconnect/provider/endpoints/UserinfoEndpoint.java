@@ -1,23 +1,43 @@
 package net.trajano.openidconnect.provider.endpoints;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 import javax.ejb.EJB;
-import javax.enterprise.context.RequestScoped;
-import javax.json.JsonObject;
+import javax.enterprise.context.ApplicationScoped;
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 
 import net.trajano.openidconnect.core.ErrorCode;
 import net.trajano.openidconnect.core.ErrorResponse;
+import net.trajano.openidconnect.internal.CharSets;
+import net.trajano.openidconnect.provider.ejb.CryptoExecutor;
+import net.trajano.openidconnect.provider.ejb.ProviderMetrics;
+import net.trajano.openidconnect.provider.ejb.SubjectIdentifiers;
+import net.trajano.openidconnect.provider.ejb.UserinfoCache;
+import net.trajano.openidconnect.provider.ejb.UserinfoProjectionCache;
 import net.trajano.openidconnect.provider.internal.AuthorizationUtil;
+import net.trajano.openidconnect.provider.internal.UserinfoProjection;
 import net.trajano.openidconnect.provider.spi.KeyProvider;
 import net.trajano.openidconnect.provider.spi.TokenProvider;
-import net.trajano.openidconnect.provider.spi.UserinfoProvider;
 import net.trajano.openidconnect.token.IdToken;
 import net.trajano.openidconnect.token.IdTokenResponse;
 import net.trajano.openidconnect.userinfo.Userinfo;
@@ -50,79 +70,46 @@ import net.trajano.openidconnect.userinfo.Userinfo;
  * </p>
  */
 @Path("profile")
-@RequestScoped
+@ApplicationScoped
 @Produces(MediaType.APPLICATION_JSON)
 public class UserinfoEndpoint {
 
+    /**
+     * The response is specific to the access token and has to be revalidated
+     * by the client using the entity tag.
+     */
+    private static final CacheControl CACHE_CONTROL;
+
+    private static final String ENDPOINT = "profile";
+
+    private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+
+    static {
+        CACHE_CONTROL = new CacheControl();
+        CACHE_CONTROL.setPrivate(true);
+        CACHE_CONTROL.setNoCache(true);
+    }
+
+    @EJB
+    private CryptoExecutor executor;
+
     @EJB
     private KeyProvider keyProvider;
 
     @EJB
-    private TokenProvider tokenProvider;
+    private ProviderMetrics metrics;
 
-    private UserinfoProvider userinfoProvider;
+    @EJB
+    private UserinfoProjectionCache projectionCache;
 
-    private void filterUserInfo(final Userinfo userinfo,
-        final JsonObject userinfoClaims) {
+    @EJB
+    private SubjectIdentifiers subjectIdentifiers;
 
-        if (!userinfoClaims.containsKey("updated_at")) {
-            userinfo.setUpdatedAt(null);
-        }
-        if (!userinfoClaims.containsKey("email")) {
-            userinfo.setEmail(null);
-        }
-        if (!userinfoClaims.containsKey("email_verified")) {
-            userinfo.setEmailVerified(null);
-        }
-        if (!userinfoClaims.containsKey("name")) {
-            userinfo.setName(null);
-        }
-        if (!userinfoClaims.containsKey("given_name")) {
-            userinfo.setGivenName(null);
-        }
-        if (!userinfoClaims.containsKey("family_name")) {
-            userinfo.setFamilyName(null);
-        }
-        if (!userinfoClaims.containsKey("middle_name")) {
-            userinfo.setMiddleName(null);
-        }
-        if (!userinfoClaims.containsKey("nickname")) {
-            userinfo.setNickname(null);
-        }
-        if (!userinfoClaims.containsKey("website")) {
-            userinfo.setWebsite(null);
-        }
-        if (!userinfoClaims.containsKey("picture")) {
-            userinfo.setPicture(null);
-        }
-        if (!userinfoClaims.containsKey("gender")) {
-            userinfo.setGender(null);
-        }
-        if (!userinfoClaims.containsKey("address")) {
-            userinfo.setAddress(null);
-        }
-        if (!userinfoClaims.containsKey("profile")) {
-            userinfo.setProfile(null);
-        }
-        if (!userinfoClaims.containsKey("birthdate")) {
-            userinfo.setBirthdate(null);
-        }
-        if (!userinfoClaims.containsKey("zoneinfo")) {
-            userinfo.setZoneinfo(null);
-        }
-        if (!userinfoClaims.containsKey("locale")) {
-            userinfo.setLocale(null);
-        }
-        if (!userinfoClaims.containsKey("preferred_username")) {
-            userinfo.setPreferredUsername(null);
-        }
-        if (!userinfoClaims.containsKey("phone_number")) {
-            userinfo.setPhoneNumber(null);
-        }
-        if (!userinfoClaims.containsKey("phone_number_verified")) {
-            userinfo.setPhoneNumberVerified(null);
-        }
-    }
+    @EJB
+    private TokenProvider tokenProvider;
+
+    @EJB
+    private UserinfoCache userinfoCache;
 
     /**
      * <p>
@@ -136,47 +123,104 @@ public class UserinfoEndpoint {
      * Token be sent using the Authorization header field.
      * </p>
      *
+     * <p>
+     * When the user info has an <code>updated_at</code> claim the response
+     * carries an entity tag so the client can send <code>If-None-Match</code>
+     * and receive <code>304 Not Modified</code>.
+     * </p>
+     *
      * @param req
-     * @return
+     *            servlet request
+     * @param request
+     *            JAX-RS request used to evaluate the preconditions
+     * @param asyncResponse
+     *            suspended response
      */
     @GET
-    public Response getOp(@Context final HttpServletRequest req) {
+    public void getOp(@Context final HttpServletRequest req,
+        @Context final Request request,
+        @Suspended final AsyncResponse asyncResponse) {
 
-        return op(req);
+        op(req, request, asyncResponse);
     }
 
     @POST
-    public Response op(@Context final HttpServletRequest req) {
+    public void op(@Context final HttpServletRequest req,
+        @Context final Request request,
+        @Suspended final AsyncResponse asyncResponse) {
 
+        final long start = System.nanoTime();
         final String accessToken = AuthorizationUtil.processBearer(req);
         if (accessToken == null) {
-            return Response.status(400)
+            asyncResponse.resume(Response.status(400)
                 .entity(new ErrorResponse(ErrorCode.access_denied, "unable to retrieve id token"))
-                .build();
+                .build());
+            return;
         }
+        final long parsed = metrics.record(ENDPOINT, ProviderMetrics.PHASE_PARSE, start);
+        executor.execute(asyncResponse, new Callable<Response>() {
+
+            @Override
+            public Response call() {
+
+                metrics.record(ENDPOINT, ProviderMetrics.PHASE_QUEUE, parsed);
+                return processUserinfoRequest(accessToken, request);
+            }
+        });
+    }
+
+    private Response processUserinfoRequest(final String accessToken,
+        final Request request) {
+
+        final long start = System.nanoTime();
         final IdTokenResponse byAccessToken = tokenProvider.getByAccessToken(accessToken);
         if (byAccessToken == null) {
             return Response.status(400)
                 .entity(new ErrorResponse(ErrorCode.access_denied, "unable to retrieve id token"))
                 .build();
         }
-        final IdToken idToken = byAccessToken.getIdToken(keyProvider.getPrivateJwks());
-        final JsonObject claims = tokenProvider.getClaimsByAccessToken(accessToken);
-
-        final Userinfo userinfo = userinfoProvider.getUserinfo(idToken);
-
-        if (claims != null && claims.containsKey("userinfo")) {
-            filterUserInfo(userinfo, claims.getJsonObject("userinfo"));
+        IdToken idToken = byAccessToken.getIdToken();
+        if (idToken == null) {
+            idToken = byAccessToken.getIdToken(keyProvider.getPrivateJwks());
         }
-
-        return Response.ok(userinfo)
+        final IdToken localIdToken = subjectIdentifiers.toLocal(idToken, byAccessToken);
+        if (localIdToken == null) {
+            return Response.status(400)
+                .entity(new ErrorResponse(ErrorCode.access_denied, "unable to resolve subject"))
+                .build();
+        }
+        final String subject = idToken.getSub();
+        // the directory lookup proceeds while the claims are retrieved
+        final Future<Userinfo> pendingUserinfo = userinfoCache.getUserinfoAsync(localIdToken);
+        final UserinfoProjection projection = projectionCache.getProjection(tokenProvider.getClaimsByAccessToken(accessToken));
+
+        final Userinfo userinfo = UserinfoCache.await(pendingUserinfo);
+        metrics.record(ENDPOINT, ProviderMetrics.PHASE_STORAGE, start);
+
+        EntityTag entityTag = null;
+        final String entityTagValue = projection.getEntityTag(userinfo, subject);
+        if (entityTagValue != null) {
+            entityTag = new EntityTag(entityTagValue);
+            final ResponseBuilder notModified = request.evaluatePreconditions(entityTag);
+            if (notModified != null) {
+                return notModified.cacheControl(CACHE_CONTROL)
+                    .build();
+            }
+        }
+
+        return Response.ok(new StreamingOutput() {
+
+            @Override
+            public void write(final OutputStream os) throws IOException {
+
+                final JsonGenerator generator = GENERATOR_FACTORY.createGenerator(os, CharSets.UTF8);
+                projection.write(userinfo, subject, generator);
+                generator.flush();
+            }
+        })
+            .tag(entityTag)
+            .cacheControl(CACHE_CONTROL)
             .build();
     }
 
-    @EJB
-    public void setUserinfoProvider(final UserinfoProvider userinfoProvider) {
-
-        this.userinfoProvider = userinfoProvider;
-    }
-
 }
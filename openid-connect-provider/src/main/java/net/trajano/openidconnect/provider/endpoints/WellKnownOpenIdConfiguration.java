@@ -1,10 +1,13 @@
 package net.trajano.openidconnect.provider.endpoints;
 
-import static java.net.URI.create;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.net.URI;
 
 import javax.annotation.PostConstruct;
 import javax.ejb.EJB;
-import javax.enterprise.context.RequestScoped;
+import javax.enterprise.context.ApplicationScoped;
 import javax.servlet.ServletRegistration;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.GET;
@@ -13,23 +16,35 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
 
 import net.trajano.openidconnect.auth.ResponseMode;
 import net.trajano.openidconnect.core.OpenIdProviderConfiguration;
 import net.trajano.openidconnect.core.Scope;
-import net.trajano.openidconnect.core.SubjectIdentifierType;
 import net.trajano.openidconnect.core.TokenEndPointAuthMethod;
 import net.trajano.openidconnect.crypto.JsonWebAlgorithm;
-import net.trajano.openidconnect.provider.spi.KeyProvider;
+import net.trajano.openidconnect.provider.ejb.ProviderConfigurationCache;
+import net.trajano.openidconnect.provider.ejb.ProviderConfigurationCache.Document;
+import net.trajano.openidconnect.provider.ejb.SubjectIdentifiers;
 import net.trajano.openidconnect.provider.spi.UserinfoProvider;
 import net.trajano.openidconnect.token.GrantType;
 
 @Path("openid-configuration")
-@RequestScoped
+@ApplicationScoped
 public class WellKnownOpenIdConfiguration {
 
+    private static final CacheControl CACHE_CONTROL;
+    static {
+        CACHE_CONTROL = new CacheControl();
+        CACHE_CONTROL.setPrivate(false);
+        CACHE_CONTROL.setMaxAge(86400);
+    }
+
     public static final String CODE = "code";
 
     public static final String CODE_ID_TOKEN = "code id_token";
@@ -47,6 +62,8 @@ public class WellKnownOpenIdConfiguration {
      */
     private String authorizationMapping;
 
+    private ProviderConfigurationCache cache;
+
     private String endSessionMapping;
 
     /**
@@ -54,13 +71,16 @@ public class WellKnownOpenIdConfiguration {
      */
     private String jwksMapping;
 
-    private KeyProvider keyProvider;
+    @Context
+    private Providers providers;
 
     /**
      * End session endpoint mapping that is built during {@link #init()}
      */
     private String revocationMapping;
 
+    private SubjectIdentifiers subjectIdentifiers;
+
     /**
      * Token endpoint mapping that is built during {@link #init()}
      */
@@ -94,19 +114,21 @@ public class WellKnownOpenIdConfiguration {
 
     }
 
-    @GET
-    @Produces(MediaType.APPLICATION_JSON)
-    public Response op(@Context final HttpServletRequest request) {
+    /**
+     * Builds and serializes the discovery document for the request.
+     *
+     * @param request
+     *            servlet request
+     * @return serialized document
+     * @throws IOException
+     */
+    private byte[] buildDocument(final HttpServletRequest request) throws IOException {
 
         final OpenIdProviderConfiguration openIdConfiguration = new OpenIdProviderConfiguration();
 
-        final UriBuilder baseUri = UriBuilder.fromUri(create(request.getRequestURL()
-            .toString()))
-            .scheme("https")
-            .replaceQuery(null)
-            .fragment(null);
-        openIdConfiguration.setIssuer(baseUri.replacePath(request.getContextPath())
-            .build());
+        final URI issuer = cache.getIssuer(request);
+        final UriBuilder baseUri = UriBuilder.fromUri(issuer);
+        openIdConfiguration.setIssuer(issuer);
         openIdConfiguration.setJwksUri(baseUri.replacePath(request.getContextPath() + jwksMapping)
             .build());
         openIdConfiguration.setAuthorizationEndpoint(baseUri.replacePath(request.getContextPath() + authorizationMapping)
@@ -136,30 +158,70 @@ public class WellKnownOpenIdConfiguration {
 
         openIdConfiguration.setResponseTypesSupported(CODE, ID_TOKEN, ID_TOKEN_TOKEN, CODE_ID_TOKEN, CODE_TOKEN, CODE_ID_TOKEN_TOKEN);
         openIdConfiguration.setRequestParameterSupported(true);
-        openIdConfiguration.setGrantTypesSupported(GrantType.authorization_code, GrantType.implicit);
+        openIdConfiguration.setBackchannelLogoutSupported(true);
+        openIdConfiguration.setGrantTypesSupported(GrantType.authorization_code, GrantType.client_credentials, GrantType.implicit);
         openIdConfiguration.setRequestUriParameterSupported(false);
-        openIdConfiguration.setSubjectTypesSupported(SubjectIdentifierType.PUBLIC);
+        openIdConfiguration.setSubjectTypesSupported(subjectIdentifiers.getSubjectIdentifierType());
         openIdConfiguration.setTokenEndpointAuthMethodsSupported(TokenEndPointAuthMethod.client_secret_basic, TokenEndPointAuthMethod.client_secret_post);
         openIdConfiguration.setIdTokenSigningAlgValuesSupported(JsonWebAlgorithm.getSigAlgorithms());
         openIdConfiguration.setRequestObjectEncryptionAlgValuesSupported(JsonWebAlgorithm.getKexAlgorithms());
         openIdConfiguration.setRequestObjectEncryptionEncValuesSupported(JsonWebAlgorithm.getEncAlgorithms());
         openIdConfiguration.setResponseModesSupported(ResponseMode.fragment, ResponseMode.query, ResponseMode.form_post);
 
-        final CacheControl cacheControl = new CacheControl();
-        cacheControl.setPrivate(false);
-        cacheControl.setMaxAge(86400);
+        final MessageBodyWriter<OpenIdProviderConfiguration> writer = providers.getMessageBodyWriter(OpenIdProviderConfiguration.class, OpenIdProviderConfiguration.class, new Annotation[0], MediaType.APPLICATION_JSON_TYPE);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writer.writeTo(openIdConfiguration, OpenIdProviderConfiguration.class, OpenIdProviderConfiguration.class, new Annotation[0], MediaType.APPLICATION_JSON_TYPE, null, baos);
+        baos.close();
+        return baos.toByteArray();
+    }
 
-        return Response.ok(openIdConfiguration)
-            .cacheControl(cacheControl)
-            .tag(keyProvider.getSecretKeyId())
+    /**
+     * Serves the discovery document. The document is built once per scheme,
+     * host and context path and kept in the {@link ProviderConfigurationCache}
+     * . Conditional requests with a matching entity tag are answered with
+     * <code>304 Not Modified</code>.
+     *
+     * @param request
+     *            servlet request
+     * @param req
+     *            request used to evaluate the preconditions
+     * @return response
+     * @throws IOException
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response op(@Context final HttpServletRequest request,
+        @Context final Request req) throws IOException {
+
+        Document document = cache.getDocument(request);
+        if (document == null) {
+            document = cache.putDocument(request, buildDocument(request));
+        }
+
+        final ResponseBuilder notModified = req.evaluatePreconditions(document.getEntityTag());
+        if (notModified != null) {
+            return notModified.cacheControl(CACHE_CONTROL)
+                .build();
+        }
+
+        return Response.ok(document.getBytes())
+            .type(MediaType.APPLICATION_JSON_TYPE)
+            .cacheControl(CACHE_CONTROL)
+            .tag(document.getEntityTag())
             .build();
 
     }
 
     @EJB
-    public void setKeyProvider(final KeyProvider keyProvider) {
+    public void setCache(final ProviderConfigurationCache cache) {
+
+        this.cache = cache;
+    }
+
+    @EJB
+    public void setSubjectIdentifiers(final SubjectIdentifiers subjectIdentifiers) {
 
-        this.keyProvider = keyProvider;
+        this.subjectIdentifiers = subjectIdentifiers;
     }
 
     @EJB
@@ -1,10 +1,16 @@
 package net.trajano.openidconnect.provider.internal;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
 
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 
 import net.trajano.openidconnect.auth.AuthenticationResponse;
+import net.trajano.openidconnect.internal.CharSets;
 
 /**
  * Performs conversions of {@link AuthenticationResponse} to other forms.
@@ -33,7 +39,7 @@ public class AuthenticationResponseConverter {
 
     private final AuthenticationResponse response;
 
-    public String toFormPost() {
+    private FormPostBuilder newFormPostBuilder() {
 
         final FormPostBuilder b = new FormPostBuilder(redirectUri);
         if (response.getState() != null) {
@@ -49,7 +55,33 @@ public class AuthenticationResponseConverter {
         if (response.getEncodedIdToken() != null) {
             b.put(ID_TOKEN_KEY, response.getEncodedIdToken());
         }
-        return b.buildFormPost();
+        return b;
+    }
+
+    public String toFormPost() {
+
+        return newFormPostBuilder().buildFormPost();
+    }
+
+    /**
+     * Builds a {@link StreamingOutput} that writes the form post page as UTF-8
+     * when the response is sent.
+     *
+     * @return form post output
+     */
+    public StreamingOutput toFormPostOutput() {
+
+        final FormPostBuilder b = newFormPostBuilder();
+        return new StreamingOutput() {
+
+            @Override
+            public void write(final OutputStream os) throws IOException {
+
+                final Writer w = new OutputStreamWriter(os, CharSets.UTF8);
+                b.write(w);
+                w.flush();
+            }
+        };
     }
 
     public URI toFragmentUri() {
@@ -77,4 +109,16 @@ public class AuthenticationResponseConverter {
         }
         return b.build();
     }
+
+    /**
+     * Writes the form post page to the writer.
+     *
+     * @param w
+     *            writer
+     * @throws IOException
+     */
+    public void writeFormPost(final Writer w) throws IOException {
+
+        newFormPostBuilder().write(w);
+    }
 }
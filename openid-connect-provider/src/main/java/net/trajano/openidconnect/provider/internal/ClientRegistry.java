@@ -0,0 +1,284 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import net.trajano.openidconnect.crypto.Encoding;
+import net.trajano.openidconnect.internal.CharSets;
+
+/**
+ * <p>
+ * Immutable registry of clients that is read from a JSON file of the form:
+ * </p>
+ *
+ * <pre>
+ * {
+ *   "clients": [
+ *     {
+ *       "client_id": "app",
+ *       "client_secret_sha256": "base64url SHA-256 of the secret",
+ *       "redirect_uris": [ "https://app.example.com/cb", "https://*.example.com/cb" ],
+ *       "post_logout_redirect_uris": [ "https://app.example.com/" ],
+ *       "backchannel_logout_uri": "https://app.example.com/logout",
+ *       "implicit_consent": false
+ *     }
+ *   ]
+ * }
+ * </pre>
+ * <p>
+ * <code>client_secret</code> may be used instead of
+ * <code>client_secret_sha256</code>; it is hashed when the file is read. A
+ * client without either cannot authenticate with a secret. Lookups are by
+ * hash and the redirect URIs are precompiled into {@link RedirectUriSet}s.
+ * </p>
+ * <p>
+ * Secrets are compared by their SHA-256 hash using
+ * {@link MessageDigest#isEqual(byte[], byte[])}. An unknown client is compared
+ * against a dummy hash so the time taken does not reveal whether the client
+ * exists.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class ClientRegistry {
+
+    /**
+     * Registered client.
+     */
+    private static final class Client {
+
+        /**
+         * Back-channel logout URI, <code>null</code> if the client does not
+         * support back-channel logout.
+         */
+        private final URI backChannelLogoutUri;
+
+        private final boolean implicitConsent;
+
+        private final RedirectUriSet postLogoutRedirectUris;
+
+        private final RedirectUriSet redirectUris;
+
+        /**
+         * SHA-256 hash of the secret, <code>null</code> if the client has no
+         * secret.
+         */
+        private final byte[] secretHash;
+
+        public Client(final JsonObject clientObject) {
+
+            if (clientObject.containsKey(CLIENT_SECRET_SHA256)) {
+                secretHash = Encoding.base64urlDecode(clientObject.getString(CLIENT_SECRET_SHA256));
+            } else if (clientObject.containsKey(CLIENT_SECRET)) {
+                secretHash = sha256(clientObject.getString(CLIENT_SECRET));
+            } else {
+                secretHash = null;
+            }
+            redirectUris = new RedirectUriSet(strings(clientObject, REDIRECT_URIS));
+            postLogoutRedirectUris = new RedirectUriSet(strings(clientObject, POST_LOGOUT_REDIRECT_URIS));
+            implicitConsent = clientObject.getBoolean(IMPLICIT_CONSENT, false);
+            backChannelLogoutUri = clientObject.containsKey(BACKCHANNEL_LOGOUT_URI) ? httpUri(clientObject.getString(BACKCHANNEL_LOGOUT_URI)) : null;
+        }
+    }
+
+    private static final String BACKCHANNEL_LOGOUT_URI = "backchannel_logout_uri";
+
+    private static final String CLIENT_ID = "client_id";
+
+    private static final String CLIENT_SECRET = "client_secret";
+
+    private static final String CLIENT_SECRET_SHA256 = "client_secret_sha256";
+
+    private static final String CLIENTS = "clients";
+
+    /**
+     * Compared against when the client is not known.
+     */
+    private static final byte[] DUMMY_HASH = new byte[32];
+
+    private static final String IMPLICIT_CONSENT = "implicit_consent";
+
+    private static final String POST_LOGOUT_REDIRECT_URIS = "post_logout_redirect_uris";
+
+    private static final String REDIRECT_URIS = "redirect_uris";
+
+    /**
+     * Parses an absolute <code>http</code> or <code>https</code> URI.
+     *
+     * @param uri
+     *            URI
+     * @return parsed URI
+     * @throws IllegalArgumentException
+     *             if the URI is not an absolute HTTP URI.
+     */
+    private static URI httpUri(final String uri) {
+
+        final URI parsed = URI.create(uri);
+        if (!"http".equalsIgnoreCase(parsed.getScheme()) && !"https".equalsIgnoreCase(parsed.getScheme()) || parsed.getHost() == null) {
+            throw new IllegalArgumentException("not an absolute http or https URI " + uri);
+        }
+        return parsed;
+    }
+
+    /**
+     * Reads the registry from a file.
+     *
+     * @param file
+     *            registry file
+     * @return registry
+     * @throws IOException
+     * @throws IllegalArgumentException
+     *             if a client is not valid.
+     */
+    public static ClientRegistry read(final Path file) throws IOException {
+
+        final JsonObject registryObject;
+        try (final InputStream is = Files.newInputStream(file)) {
+            registryObject = Json.createReader(is)
+                .readObject();
+        }
+        return new ClientRegistry(registryObject);
+    }
+
+    private static byte[] sha256(final String secret) {
+
+        try {
+            return MessageDigest.getInstance("SHA-256")
+                .digest(secret.getBytes(CharSets.UTF8));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> strings(final JsonObject clientObject,
+        final String name) {
+
+        final JsonArray array = clientObject.getJsonArray(name);
+        if (array == null) {
+            return Collections.emptyList();
+        }
+        final List<String> strings = new ArrayList<>(array.size());
+        for (final JsonValue value : array) {
+            strings.add(((JsonString) value).getString());
+        }
+        return strings;
+    }
+
+    private final Map<String, Client> clients = new HashMap<>();
+
+    /**
+     * Builds the registry from its JSON representation.
+     *
+     * @param registryObject
+     *            registry
+     * @throws IllegalArgumentException
+     *             if a client is not valid.
+     */
+    public ClientRegistry(final JsonObject registryObject) {
+
+        for (final JsonValue value : registryObject.getJsonArray(CLIENTS)) {
+            final JsonObject clientObject = (JsonObject) value;
+            final String clientId = clientObject.getString(CLIENT_ID);
+            if (clients.put(clientId, new Client(clientObject)) != null) {
+                throw new IllegalArgumentException("duplicate client_id " + clientId);
+            }
+        }
+    }
+
+    /**
+     * Checks the client secret.
+     *
+     * @param clientId
+     *            client ID
+     * @param clientSecret
+     *            client secret
+     * @return the client ID if the secret matches, otherwise <code>null</code>
+     */
+    public String authenticateClient(final String clientId,
+        final String clientSecret) {
+
+        if (clientId == null || clientSecret == null) {
+            return null;
+        }
+        final Client client = clients.get(clientId);
+        final byte[] expected = client == null || client.secretHash == null ? DUMMY_HASH : client.secretHash;
+        final boolean matches = MessageDigest.isEqual(expected, sha256(clientSecret));
+        return matches && expected != DUMMY_HASH ? clientId : null;
+    }
+
+    /**
+     * Gets the back-channel logout URI of the client.
+     *
+     * @param clientId
+     *            client ID
+     * @return back-channel logout URI or <code>null</code> if the client is
+     *         not registered with one.
+     */
+    public URI getBackChannelLogoutUri(final String clientId) {
+
+        final Client client = clientId == null ? null : clients.get(clientId);
+        return client == null ? null : client.backChannelLogoutUri;
+    }
+
+    /**
+     * Checks if the client has implicit consent.
+     *
+     * @param clientId
+     *            client ID
+     * @return <code>true</code> if the client is registered with implicit
+     *         consent.
+     */
+    public boolean isImplicitConsent(final String clientId) {
+
+        final Client client = clientId == null ? null : clients.get(clientId);
+        return client != null && client.implicitConsent;
+    }
+
+    /**
+     * Checks if the post logout redirect URI is registered for the client.
+     *
+     * @param clientId
+     *            client ID
+     * @param uri
+     *            post logout redirect URI
+     * @return <code>true</code> if registered.
+     */
+    public boolean isPostLogoutRedirectUriValid(final String clientId,
+        final URI uri) {
+
+        final Client client = clientId == null ? null : clients.get(clientId);
+        return client != null && client.postLogoutRedirectUris.contains(uri);
+    }
+
+    /**
+     * Checks if the redirect URI is registered for the client.
+     *
+     * @param clientId
+     *            client ID
+     * @param uri
+     *            redirect URI
+     * @return <code>true</code> if registered.
+     */
+    public boolean isRedirectUriValid(final String clientId,
+        final URI uri) {
+
+        final Client client = clientId == null ? null : clients.get(clientId);
+        return client != null && client.redirectUris.contains(uri);
+    }
+}
@@ -2,52 +2,159 @@ package net.trajano.openidconnect.provider.internal;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Scanner;
 
+/**
+ * <p>
+ * Builds the HTML page for the <code>form_post</code> response mode.
+ * </p>
+ * <p>
+ * <code>META-INF/form_post.html</code> is split into its literal segments
+ * around the <code>%1s</code> (action) and <code>%2s</code> (inputs) markers
+ * once when the class is loaded. {@link #write(Writer)} writes the segments
+ * and the HTML escaped values straight to the writer so no intermediate
+ * strings are built for a response.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
 public class FormPostBuilder {
 
-    private static final String TEMPLATE;
+    private static final String ACTION_MARKER = "%1s";
+
+    private static final String INPUT_HIDDEN_NAME = "<input type='hidden' name='";
+
+    private static final String INPUT_HIDDEN_END = "' />";
+
+    private static final String INPUT_HIDDEN_VALUE = "' value='";
+
+    private static final String INPUTS_MARKER = "%2s";
+
+    /**
+     * Template segments, before the action, between the action and the inputs
+     * and after the inputs.
+     */
+    private static final String[] SEGMENTS;
 
-    private static final String INPUT_HIDDEN_FORMAT = "<input type='hidden' name='%1s' value='%2s' />";
     static {
-        try {
-            InputStream templateStream = Thread.currentThread()
-                    .getContextClassLoader()
-                    .getResourceAsStream("META-INF/form_post.html");
-            Scanner scanner = new Scanner(templateStream);
-            TEMPLATE = scanner.useDelimiter("\\A")
-                    .next();
-            scanner.close();
-            templateStream.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        try (final InputStream templateStream = Thread.currentThread()
+            .getContextClassLoader()
+            .getResourceAsStream("META-INF/form_post.html"); final Scanner scanner = new Scanner(templateStream, "UTF-8")) {
+            final String template = scanner.useDelimiter("\\A")
+                .next();
+            final int action = template.indexOf(ACTION_MARKER);
+            final int inputs = template.indexOf(INPUTS_MARKER, action + ACTION_MARKER.length());
+            if (action == -1 || inputs == -1) {
+                throw new IllegalStateException("form_post.html is missing the action or inputs marker");
+            }
+            SEGMENTS = new String[] {
+                template.substring(0, action),
+                template.substring(action + ACTION_MARKER.length(), inputs),
+                template.substring(inputs + INPUTS_MARKER.length()) };
+        } catch (final IOException e) {
+            throw new ExceptionInInitializerError(e);
         }
     }
 
-    public FormPostBuilder(URI redirectUri) {
+    /**
+     * Writes the value escaped for use in a quoted HTML attribute.
+     *
+     * @param w
+     *            writer
+     * @param value
+     *            value to escape
+     * @throws IOException
+     */
+    private static void writeEscaped(final Writer w,
+        final String value) throws IOException {
 
-        this.redirectUri = redirectUri;
+        final int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; ++i) {
+            final String entity;
+            switch (value.charAt(i)) {
+            case '&':
+                entity = "&amp;";
+                break;
+            case '<':
+                entity = "&lt;";
+                break;
+            case '>':
+                entity = "&gt;";
+                break;
+            case '"':
+                entity = "&quot;";
+                break;
+            case '\'':
+                entity = "&#39;";
+                break;
+            default:
+                continue;
+            }
+            w.write(value, start, i - start);
+            w.write(entity);
+            start = i + 1;
+        }
+        w.write(value, start, length - start);
     }
 
+    private final Map<String, String> inputMap = new LinkedHashMap<>();
+
     private final URI redirectUri;
 
-    private final Map<String, String> inputMap = new HashMap<>();
+    public FormPostBuilder(final URI redirectUri) {
 
+        this.redirectUri = redirectUri;
+    }
+
+    /**
+     * Builds the form post page as a string. {@link #write(Writer)} should be
+     * used when the page is sent in a response.
+     *
+     * @return form post page
+     */
     public String buildFormPost() {
 
-        StringBuilder inputs = new StringBuilder();
-        for (Map.Entry<String, String> entry : inputMap.entrySet()) {
-            inputs.append(String.format(INPUT_HIDDEN_FORMAT, entry.getKey(), entry.getValue()));
+        final StringWriter w = new StringWriter();
+        try {
+            write(w);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
         }
-        return String.format(TEMPLATE, redirectUri, inputs);
+        return w.toString();
     }
 
-    public void put(String name,
-            String value) {
+    public void put(final String name,
+        final String value) {
 
-            inputMap.put(name, value);
+        inputMap.put(name, value);
+    }
+
+    /**
+     * Writes the form post page to the writer. The writer is not flushed or
+     * closed.
+     *
+     * @param w
+     *            writer
+     * @throws IOException
+     */
+    public void write(final Writer w) throws IOException {
+
+        w.write(SEGMENTS[0]);
+        writeEscaped(w, redirectUri.toASCIIString());
+        w.write(SEGMENTS[1]);
+        for (final Map.Entry<String, String> entry : inputMap.entrySet()) {
+            w.write(INPUT_HIDDEN_NAME);
+            writeEscaped(w, entry.getKey());
+            w.write(INPUT_HIDDEN_VALUE);
+            writeEscaped(w, entry.getValue());
+            w.write(INPUT_HIDDEN_END);
+        }
+        w.write(SEGMENTS[2]);
     }
 }
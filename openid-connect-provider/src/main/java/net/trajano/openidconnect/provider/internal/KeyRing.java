@@ -0,0 +1,385 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+import javax.ws.rs.core.MediaType;
+
+import net.trajano.openidconnect.crypto.EcWebKey;
+import net.trajano.openidconnect.crypto.JsonWebKey;
+import net.trajano.openidconnect.crypto.JsonWebKeySet;
+import net.trajano.openidconnect.crypto.KeyType;
+import net.trajano.openidconnect.crypto.KeyUse;
+import net.trajano.openidconnect.crypto.RsaWebKey;
+import net.trajano.openidconnect.internal.CharSets;
+import net.trajano.openidconnect.rs.JsonWebKeyProvider;
+
+/**
+ * <p>
+ * Immutable set of private keys along with the time each key is used for. A
+ * key is active from its "not before" time until its "not after" time. Keys
+ * are published before they become active and remain published for a
+ * retention period after they stop being active so that tokens that were
+ * signed with them can still be verified.
+ * </p>
+ * <p>
+ * The key ring can be stored as a JWKS file where each key has additional
+ * <code>nbf</code> and <code>exp</code> members expressed in seconds since the
+ * epoch. A missing or zero value means there is no limit.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class KeyRing {
+
+    /**
+     * Private key with its activation window.
+     */
+    public static final class Entry {
+
+        private final JsonWebKey jwk;
+
+        private final long notAfter;
+
+        private final long notBefore;
+
+        public Entry(final JsonWebKey jwk, final long notBefore, final long notAfter) {
+
+            this.jwk = jwk;
+            this.notBefore = notBefore;
+            this.notAfter = notAfter;
+        }
+
+        public JsonWebKey getJwk() {
+
+            return jwk;
+        }
+
+        public long getNotAfter() {
+
+            return notAfter;
+        }
+
+        public long getNotBefore() {
+
+            return notBefore;
+        }
+
+        /**
+         * Checks if the key is used for signing at the given time.
+         *
+         * @param now
+         *            seconds since the epoch
+         * @return <code>true</code> if active.
+         */
+        public boolean isActive(final long now) {
+
+            return notBefore <= now && (notAfter == 0 || now < notAfter);
+        }
+
+        /**
+         * Checks if the key is published at the given time.
+         *
+         * @param now
+         *            seconds since the epoch
+         * @param retention
+         *            seconds that a key is kept after it stops being active
+         * @return <code>true</code> if published.
+         */
+        public boolean isPublished(final long now,
+            final long retention) {
+
+            return notAfter == 0 || now < notAfter + retention;
+        }
+    }
+
+    private static final String EXP = "exp";
+
+    private static final String NBF = "nbf";
+
+    /**
+     * Reads the key ring from a JWKS file.
+     *
+     * @param file
+     *            JWKS file
+     * @return key ring
+     * @throws IOException
+     */
+    public static KeyRing read(final Path file) throws IOException {
+
+        final JsonObject jwksObject;
+        try (final InputStream is = Files.newInputStream(file)) {
+            jwksObject = Json.createReader(is)
+                .readObject();
+        }
+
+        final JsonWebKeyProvider reader = new JsonWebKeyProvider();
+        final List<Entry> entries = new ArrayList<>();
+        for (final JsonValue value : jwksObject.getJsonArray("keys")) {
+            final JsonObject keyObject = (JsonObject) value;
+            final JsonWebKey jwk = reader.readFrom(JsonWebKey.class, null, null, MediaType.APPLICATION_JSON_TYPE, null, new ByteArrayInputStream(keyObject.toString()
+                .getBytes(CharSets.UTF8)));
+            final long notBefore = keyObject.containsKey(NBF) ? keyObject.getJsonNumber(NBF)
+                .longValue() : 0;
+            final long notAfter = keyObject.containsKey(EXP) ? keyObject.getJsonNumber(EXP)
+                .longValue() : 0;
+            entries.add(new Entry(jwk, notBefore, notAfter));
+        }
+        return new KeyRing(entries);
+    }
+
+    /**
+     * Builds the public key for a private signing key.
+     *
+     * @param jwk
+     *            private key
+     * @return public key or <code>null</code> if the key has no public part.
+     */
+    private static JsonWebKey toPublicJwk(final JsonWebKey jwk) {
+
+        if (jwk instanceof RsaWebKey) {
+            final RsaWebKey privateJwk = (RsaWebKey) jwk;
+            final RsaWebKey publicJwk = new RsaWebKey();
+            publicJwk.setKid(privateJwk.getKid());
+            publicJwk.setAlg(privateJwk.getAlg());
+            publicJwk.setUse(KeyUse.sig);
+            publicJwk.setN(privateJwk.getN());
+            publicJwk.setE(privateJwk.getE());
+            return publicJwk;
+        } else if (jwk instanceof EcWebKey) {
+            final EcWebKey privateJwk = (EcWebKey) jwk;
+            final EcWebKey publicJwk = new EcWebKey();
+            publicJwk.setKid(privateJwk.getKid());
+            publicJwk.setAlg(privateJwk.getAlg());
+            publicJwk.setUse(KeyUse.sig);
+            publicJwk.setCrv(privateJwk.getCrv());
+            publicJwk.setX(privateJwk.getX());
+            publicJwk.setY(privateJwk.getY());
+            return publicJwk;
+        } else {
+            return null;
+        }
+    }
+
+    private final List<Entry> entries;
+
+    public KeyRing(final List<Entry> entries) {
+
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Builds the JWKS containing the public keys that are published at the
+     * given time. Only the active keys are signing keys.
+     *
+     * @param now
+     *            seconds since the epoch
+     * @param retention
+     *            seconds that a key is kept after it stops being active
+     * @return public JWKS
+     */
+    public JsonWebKeySet buildJwks(final long now,
+        final long retention) {
+
+        final JsonWebKeySet jwks = new JsonWebKeySet();
+        for (final Entry entry : entries) {
+            final JsonWebKey publicJwk = toPublicJwk(entry.jwk);
+            if (publicJwk == null || !entry.isPublished(now, retention)) {
+                continue;
+            }
+            if (entry.isActive(now)) {
+                jwks.add(publicJwk);
+            } else {
+                jwks.addInactive(publicJwk);
+            }
+        }
+        return jwks;
+    }
+
+    /**
+     * Builds the JWKS containing the private keys that are published at the
+     * given time. Only the active keys are signing keys so
+     * {@link net.trajano.openidconnect.crypto.JsonWebTokenBuilder#jwk(JsonWebKeySet)}
+     * will not choose a key that is not yet or no longer in use.
+     *
+     * @param now
+     *            seconds since the epoch
+     * @param retention
+     *            seconds that a key is kept after it stops being active
+     * @return private JWKS
+     */
+    public JsonWebKeySet buildPrivateJwks(final long now,
+        final long retention) {
+
+        final JsonWebKeySet jwks = new JsonWebKeySet();
+        for (final Entry entry : entries) {
+            if (!entry.isPublished(now, retention)) {
+                continue;
+            }
+            if (entry.isActive(now)) {
+                jwks.add(entry.jwk);
+            } else {
+                jwks.addInactive(entry.jwk);
+            }
+        }
+        return jwks;
+    }
+
+    public List<Entry> getEntries() {
+
+        return entries;
+    }
+
+    /**
+     * Gets the most recent "not before" time of the keys. This is the
+     * activation time of the newest generation of keys which may be in the
+     * future.
+     *
+     * @return seconds since the epoch
+     */
+    public long getLatestNotBefore() {
+
+        long latest = 0;
+        for (final Entry entry : entries) {
+            latest = Math.max(latest, entry.notBefore);
+        }
+        return latest;
+    }
+
+    /**
+     * Gets the next time after the given time where the set of active or
+     * published keys changes.
+     *
+     * @param now
+     *            seconds since the epoch
+     * @param retention
+     *            seconds that a key is kept after it stops being active
+     * @return seconds since the epoch or {@link Long#MAX_VALUE} if the keys do
+     *         not change.
+     */
+    public long getNextChange(final long now,
+        final long retention) {
+
+        long next = Long.MAX_VALUE;
+        for (final Entry entry : entries) {
+            if (entry.notBefore > now) {
+                next = Math.min(next, entry.notBefore);
+            }
+            if (entry.notAfter != 0 && entry.notAfter > now) {
+                next = Math.min(next, entry.notAfter);
+            }
+            if (entry.notAfter != 0 && entry.notAfter + retention > now) {
+                next = Math.min(next, entry.notAfter + retention);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Builds a new key ring where the given keys take over at the switch time.
+     * The keys that are active at that time stop being active when the new
+     * ones start. Keys that are no longer published are removed.
+     *
+     * @param nextEntries
+     *            keys that become active at the switch time
+     * @param switchAt
+     *            seconds since the epoch when the next keys become active
+     * @param now
+     *            seconds since the epoch
+     * @param retention
+     *            seconds that a key is kept after it stops being active
+     * @return new key ring
+     */
+    public KeyRing rotate(final List<Entry> nextEntries,
+        final long switchAt,
+        final long now,
+        final long retention) {
+
+        final List<Entry> rotated = new ArrayList<>();
+        for (final Entry entry : entries) {
+            if (!entry.isPublished(now, retention)) {
+                continue;
+            }
+            if (entry.notBefore < switchAt && (entry.notAfter == 0 || entry.notAfter > switchAt)) {
+                rotated.add(new Entry(entry.jwk, entry.notBefore, switchAt));
+            } else {
+                rotated.add(entry);
+            }
+        }
+        rotated.addAll(nextEntries);
+        return new KeyRing(rotated);
+    }
+
+    /**
+     * Gets the key ID of the most recently activated secret key.
+     *
+     * @param now
+     *            seconds since the epoch
+     * @return key ID or <code>null</code> if there is no active secret key.
+     */
+    public String getSecretKeyId(final long now) {
+
+        Entry latest = null;
+        for (final Entry entry : entries) {
+            if (entry.jwk.getKty() == KeyType.oct && entry.isActive(now) && (latest == null || entry.notBefore >= latest.notBefore)) {
+                latest = entry;
+            }
+        }
+        return latest == null ? null : latest.jwk.getKid();
+    }
+
+    /**
+     * Writes the key ring to a JWKS file. The data is written to a temporary
+     * file first which is then moved over the target so readers never see a
+     * partially written file.
+     *
+     * @param file
+     *            JWKS file
+     * @throws IOException
+     */
+    public void write(final Path file) throws IOException {
+
+        final JsonArrayBuilder keysArray = Json.createArrayBuilder();
+        for (final Entry entry : entries) {
+            final JsonObjectBuilder keyBuilder = Json.createObjectBuilder();
+            entry.jwk.buildJsonObject(keyBuilder);
+            if (entry.notBefore != 0) {
+                keyBuilder.add(NBF, entry.notBefore);
+            }
+            if (entry.notAfter != 0) {
+                keyBuilder.add(EXP, entry.notAfter);
+            }
+            keysArray.add(keyBuilder);
+        }
+
+        final Path tempFile = Files.createTempFile(file.toAbsolutePath()
+            .getParent(), file.getFileName()
+                .toString(), ".tmp");
+        try {
+            try (final OutputStream os = Files.newOutputStream(tempFile)) {
+                final JsonWriter w = Json.createWriter(os);
+                w.write(Json.createObjectBuilder()
+                    .add("keys", keysArray)
+                    .build());
+                w.close();
+            }
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Latency histogram with logarithmic buckets that are each split into
+ * {@value #SUB_BUCKETS} linear sub-buckets in the manner of HdrHistogram. The
+ * values are kept in microseconds so a quantile is accurate to about 6% from
+ * one microsecond up to an hour. Recording is a couple of atomic increments
+ * and does not allocate.
+ * </p>
+ * <p>
+ * The quantiles are taken over two windows so they reflect recent traffic
+ * rather than everything since start up. {@link #rotate()} clears the older
+ * window and makes it current, so when it is called every minute the
+ * quantiles cover the last one to two minutes. The count and sum are
+ * cumulative.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Highest power of two that has its own bucket, larger values are
+     * recorded in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 31;
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * Gets the bucket for a value.
+     *
+     * @param micros
+     *            value in microseconds
+     * @return bucket index
+     */
+    static int indexOf(final long micros) {
+
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        final int subBucket = (int) (micros >>> exponent - SUB_BUCKET_BITS) & SUB_BUCKETS - 1;
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the highest value that is recorded in a bucket.
+     *
+     * @param index
+     *            bucket index
+     * @return value in microseconds
+     */
+    static long upperBoundOf(final int index) {
+
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        final int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    private final AtomicLong count = new AtomicLong();
+
+    private volatile int current;
+
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    private final AtomicLongArray[] windows = {
+        new AtomicLongArray(BUCKET_COUNT),
+        new AtomicLongArray(BUCKET_COUNT)
+    };
+
+    /**
+     * Number of values recorded since start up.
+     *
+     * @return count
+     */
+    public long getCount() {
+
+        return count.get();
+    }
+
+    /**
+     * Gets the value at the quantile of the values in the current and the
+     * previous window.
+     *
+     * @param quantile
+     *            quantile between 0 and 1
+     * @return value in nanoseconds, {@link Double#NaN} if nothing was recorded
+     *         in the windows.
+     */
+    public double getQuantileNanos(final double quantile) {
+
+        final long[] merged = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            merged[i] = windows[0].get(i) + windows[1].get(i);
+            total += merged[i];
+        }
+        if (total == 0) {
+            return Double.NaN;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += merged[i];
+            if (seen >= rank) {
+                return TimeUnit.MICROSECONDS.toNanos(upperBoundOf(i));
+            }
+        }
+        return TimeUnit.MICROSECONDS.toNanos(upperBoundOf(BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Sum of the values recorded since start up.
+     *
+     * @return sum in nanoseconds
+     */
+    public long getSumNanos() {
+
+        return sumNanos.get();
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param nanos
+     *            value in nanoseconds
+     */
+    public void record(final long nanos) {
+
+        windows[current].incrementAndGet(indexOf(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Clears the previous window and makes it the current one.
+     */
+    public void rotate() {
+
+        final int next = 1 - current;
+        final AtomicLongArray window = windows[next];
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            window.set(i, 0);
+        }
+        current = next;
+    }
+}
@@ -0,0 +1,251 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.MediaType;
+
+import net.trajano.openidconnect.internal.CharSets;
+
+/**
+ * <p>
+ * Delivers logout tokens to the back-channel logout URIs of the clients. Each
+ * token is posted as the <code>logout_token</code> form parameter by one of
+ * the threads of the executor so the deliveries to different clients proceed
+ * in parallel and the caller does not wait for any of them.
+ * </p>
+ * <p>
+ * A delivery that fails with an I/O error, a <code>429</code> or a
+ * <code>5xx</code> response is retried with an exponential backoff until the
+ * maximum number of attempts is reached. Any other response is final. The
+ * number of deliveries that are pending, including those waiting to be
+ * retried, is bounded; tokens dispatched past the bound are dropped so that
+ * unreachable clients cannot exhaust the memory of the provider.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public class LogoutTokenDispatcher {
+
+    /**
+     * Delivery of a logout token.
+     */
+    private final class Delivery implements
+        Runnable {
+
+        private int attempt;
+
+        private final String logoutToken;
+
+        private final URI uri;
+
+        public Delivery(final URI uri, final String logoutToken) {
+
+            this.uri = uri;
+            this.logoutToken = logoutToken;
+        }
+
+        @Override
+        public void run() {
+
+            ++attempt;
+            boolean retry;
+            try {
+                final int status = post(uri, logoutToken);
+                if (status / 100 == 2) {
+                    deliveredCount.incrementAndGet();
+                    pending.decrementAndGet();
+                    return;
+                }
+                retry = status == TOO_MANY_REQUESTS || status / 100 == 5;
+            } catch (final IOException e) {
+                retry = true;
+            } catch (final RuntimeException e) {
+                // the URI cannot be posted to, such as one that is not
+                // absolute or not HTTP, so there is no point retrying.
+                retry = false;
+            }
+            if (retry && attempt < maxAttempts) {
+                try {
+                    executor.schedule(this, initialBackoffMillis << (attempt - 1), TimeUnit.MILLISECONDS);
+                    return;
+                } catch (final RejectedExecutionException e) {
+                    // shutting down, counted as failed.
+                }
+            }
+            failedCount.incrementAndGet();
+            pending.decrementAndGet();
+        }
+    }
+
+    private static final String LOGOUT_TOKEN = "logout_token";
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final long initialBackoffMillis;
+
+    private final int maxAttempts;
+
+    private final int maxPending;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final int timeoutMillis;
+
+    /**
+     * Constructs the dispatcher.
+     *
+     * @param executor
+     *            executor that performs the deliveries, the number of its
+     *            threads is the number of parallel deliveries
+     * @param maxPending
+     *            maximum number of pending deliveries
+     * @param maxAttempts
+     *            maximum number of attempts per delivery
+     * @param initialBackoffMillis
+     *            milliseconds to wait before the first retry, doubled on each
+     *            subsequent retry
+     * @param timeoutMillis
+     *            connect and read timeout of each attempt
+     */
+    public LogoutTokenDispatcher(final ScheduledExecutorService executor, final int maxPending, final int maxAttempts, final long initialBackoffMillis, final int timeoutMillis) {
+
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Queues the delivery of a logout token.
+     *
+     * @param uri
+     *            back-channel logout URI
+     * @param logoutToken
+     *            signed logout token
+     * @return <code>false</code> if the token was dropped because too many
+     *         deliveries are pending.
+     */
+    public boolean dispatch(final URI uri,
+        final String logoutToken) {
+
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(new Delivery(uri, logoutToken));
+            return true;
+        } catch (final RejectedExecutionException e) {
+            pending.decrementAndGet();
+            droppedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Number of logout tokens that were accepted by the clients.
+     *
+     * @return delivered count
+     */
+    public long getDeliveredCount() {
+
+        return deliveredCount.get();
+    }
+
+    /**
+     * Number of logout tokens that were dropped because too many deliveries
+     * were pending.
+     *
+     * @return dropped count
+     */
+    public long getDroppedCount() {
+
+        return droppedCount.get();
+    }
+
+    /**
+     * Number of logout tokens that could not be delivered within the maximum
+     * number of attempts.
+     *
+     * @return failed count
+     */
+    public long getFailedCount() {
+
+        return failedCount.get();
+    }
+
+    /**
+     * Number of deliveries that are in progress or waiting to be retried.
+     *
+     * @return pending count
+     */
+    public int getPendingCount() {
+
+        return pending.get();
+    }
+
+    /**
+     * Posts the logout token.
+     *
+     * @param uri
+     *            back-channel logout URI
+     * @param logoutToken
+     *            logout token
+     * @return HTTP status code
+     * @throws IOException
+     */
+    private int post(final URI uri,
+        final String logoutToken) throws IOException {
+
+        final byte[] body = (LOGOUT_TOKEN + "=" + URLEncoder.encode(logoutToken, "US-ASCII")).getBytes(CharSets.US_ASCII);
+        final HttpURLConnection connection = (HttpURLConnection) uri.toURL()
+            .openConnection();
+        try {
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setInstanceFollowRedirects(false);
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", MediaType.APPLICATION_FORM_URLENCODED);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (final OutputStream os = connection.getOutputStream()) {
+                os.write(body);
+            }
+            final int status = connection.getResponseCode();
+            // drain the response so the connection can be reused
+            try (final InputStream is = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (is != null) {
+                    final byte[] buffer = new byte[512];
+                    while (is.read(buffer) != -1) {
+                        // discard
+                    }
+                }
+            }
+            return status;
+        } catch (final IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+}
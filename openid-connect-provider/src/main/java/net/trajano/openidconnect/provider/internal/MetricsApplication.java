@@ -0,0 +1,38 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.util.Collections;
+import java.util.Set;
+
+import javax.ws.rs.core.Application;
+
+import net.trajano.openidconnect.provider.endpoints.MetricsEndpoint;
+
+/**
+ * <p>
+ * Exposes the {@link MetricsEndpoint}. This is not registered with
+ * {@link ProviderV1} and has no {@link javax.ws.rs.ApplicationPath} so the
+ * metrics are only available when the deployment opts in by mapping this
+ * application in its <code>web.xml</code> along with a security constraint
+ * that protects the mapping.
+ * </p>
+ *
+ * <pre>
+ * &lt;servlet&gt;
+ *     &lt;servlet-name&gt;net.trajano.openidconnect.provider.internal.MetricsApplication&lt;/servlet-name&gt;
+ * &lt;/servlet&gt;
+ * &lt;servlet-mapping&gt;
+ *     &lt;servlet-name&gt;net.trajano.openidconnect.provider.internal.MetricsApplication&lt;/servlet-name&gt;
+ *     &lt;url-pattern&gt;/ops/*&lt;/url-pattern&gt;
+ * &lt;/servlet-mapping&gt;
+ * </pre>
+ *
+ * @author Archimedes Trajano
+ */
+public class MetricsApplication extends Application {
+
+    @Override
+    public Set<Class<?>> getClasses() {
+
+        return Collections.<Class<?>> singleton(MetricsEndpoint.class);
+    }
+}
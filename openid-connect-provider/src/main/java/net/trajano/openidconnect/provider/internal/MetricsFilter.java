@@ -0,0 +1,87 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.io.IOException;
+
+import javax.ejb.EJB;
+import javax.ws.rs.Path;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import net.trajano.openidconnect.provider.ejb.ProviderMetrics;
+
+/**
+ * Records the {@link ProviderMetrics#PHASE_HANDLE} and
+ * {@link ProviderMetrics#PHASE_SERIALIZE} latencies of every endpoint. The
+ * endpoint is named by the {@link Path} of the resource class.
+ *
+ * @author Archimedes Trajano
+ */
+@Provider
+public class MetricsFilter implements
+    ContainerRequestFilter,
+    ContainerResponseFilter,
+    WriterInterceptor {
+
+    private static final String START = MetricsFilter.class.getName() + ".start";
+
+    @EJB
+    private ProviderMetrics metrics;
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    /**
+     * Gets the endpoint name of the matched resource.
+     *
+     * @return endpoint name or <code>null</code> if no resource was matched.
+     */
+    private String getEndpoint() {
+
+        final Class<?> resourceClass = resourceInfo.getResourceClass();
+        if (resourceClass == null) {
+            return null;
+        }
+        final Path path = resourceClass.getAnnotation(Path.class);
+        return path == null ? resourceClass.getSimpleName() : path.value();
+    }
+
+    @Override
+    public void aroundWriteTo(final WriterInterceptorContext context) throws IOException,
+        WebApplicationException {
+
+        final long start = System.nanoTime();
+        try {
+            context.proceed();
+        } finally {
+            final String endpoint = getEndpoint();
+            if (endpoint != null) {
+                metrics.record(endpoint, ProviderMetrics.PHASE_SERIALIZE, start);
+            }
+        }
+    }
+
+    @Override
+    public void filter(final ContainerRequestContext requestContext) {
+
+        requestContext.setProperty(START, System.nanoTime());
+    }
+
+    @Override
+    public void filter(final ContainerRequestContext requestContext,
+        final ContainerResponseContext responseContext) {
+
+        final Long start = (Long) requestContext.getProperty(START);
+        final String endpoint = getEndpoint();
+        if (start != null && endpoint != null) {
+            metrics.record(endpoint, ProviderMetrics.PHASE_HANDLE, start);
+        }
+    }
+}
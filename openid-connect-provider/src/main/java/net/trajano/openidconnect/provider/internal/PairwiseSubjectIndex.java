@@ -0,0 +1,217 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.security.GeneralSecurityException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.trajano.openidconnect.crypto.Encoding;
+import net.trajano.openidconnect.internal.CharSets;
+
+/**
+ * <p>
+ * Derives pairwise subject identifiers and maps them back to the local
+ * subject. The pairwise identifier is the base64url encoded HMAC-SHA256 of
+ * the sector identifier and the local subject separated by a zero byte, so
+ * it is stable for as long as the secret is kept and cannot be correlated
+ * across sectors.
+ * </p>
+ * <p>
+ * The derived identifiers are cached by sector and local subject and by
+ * pairwise subject up to a maximum number of entries, past which they are
+ * computed without being cached. The HMAC cannot be reversed so
+ * {@link #getLocalSubject(String, String, long)} only finds cached entries;
+ * the local subject of any other pairwise subject has to come from where the
+ * grant is stored. Entries that have not been used for a while are removed
+ * by {@link #evict(long)} so the cache follows the active subjects.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public class PairwiseSubjectIndex {
+
+    /**
+     * Derived identifier along with the time it was last used.
+     */
+    private static final class Entry {
+
+        private volatile long lastUsed;
+
+        private final String localSubject;
+
+        private final String sectorIdentifier;
+
+        private final String subject;
+
+        public Entry(final String sectorIdentifier, final String localSubject, final String subject, final long lastUsed) {
+
+            this.sectorIdentifier = sectorIdentifier;
+            this.localSubject = localSubject;
+            this.subject = subject;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private static final String HMAC = "HmacSHA256";
+
+    /**
+     * Creates the key of the derived identifier cache.
+     *
+     * @param sectorIdentifier
+     *            sector identifier
+     * @param localSubject
+     *            local subject
+     * @return cache key
+     */
+    private static String cacheKey(final String sectorIdentifier,
+        final String localSubject) {
+
+        return sectorIdentifier + '\u0000' + localSubject;
+    }
+
+    /**
+     * Derived identifiers keyed by {@link #cacheKey(String, String)}.
+     */
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private final SecretKeySpec key;
+
+    private final int maxCachedEntries;
+
+    /**
+     * Cached entries keyed by the pairwise subject.
+     */
+    private final ConcurrentMap<String, Entry> reverseIndex = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs the index.
+     *
+     * @param secret
+     *            HMAC secret
+     * @param maxCachedEntries
+     *            maximum number of cached derived identifiers
+     * @throws GeneralSecurityException
+     *             HMAC-SHA256 is not available or the secret is not usable
+     */
+    public PairwiseSubjectIndex(final byte[] secret, final int maxCachedEntries) throws GeneralSecurityException {
+
+        key = new SecretKeySpec(secret, HMAC);
+        this.maxCachedEntries = maxCachedEntries;
+        // fail on start up rather than on the first token
+        Mac.getInstance(HMAC)
+            .init(key);
+    }
+
+    /**
+     * Computes the pairwise subject.
+     *
+     * @param sectorIdentifier
+     *            sector identifier
+     * @param localSubject
+     *            local subject
+     * @return pairwise subject
+     */
+    private String compute(final String sectorIdentifier,
+        final String localSubject) {
+
+        try {
+            final Mac mac = Mac.getInstance(HMAC);
+            mac.init(key);
+            mac.update(sectorIdentifier.getBytes(CharSets.UTF8));
+            mac.update((byte) 0);
+            return Encoding.base64urlEncode(mac.doFinal(localSubject.getBytes(CharSets.UTF8)));
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the pairwise subject of the local subject for the sector and caches
+     * it if the cache is not full.
+     *
+     * @param sectorIdentifier
+     *            sector identifier
+     * @param localSubject
+     *            local subject
+     * @param now
+     *            current time in milliseconds
+     * @return pairwise subject
+     */
+    public String derive(final String sectorIdentifier,
+        final String localSubject,
+        final long now) {
+
+        final String cacheKey = cacheKey(sectorIdentifier, localSubject);
+        final Entry cached = cache.get(cacheKey);
+        if (cached != null) {
+            cached.lastUsed = now;
+            return cached.subject;
+        }
+
+        final String subject = compute(sectorIdentifier, localSubject);
+        if (cache.size() < maxCachedEntries) {
+            final Entry entry = new Entry(sectorIdentifier, localSubject, subject, now);
+            if (cache.putIfAbsent(cacheKey, entry) == null) {
+                reverseIndex.put(subject, entry);
+            }
+        }
+        return subject;
+    }
+
+    /**
+     * Removes the entries that have not been used since the given time.
+     *
+     * @param unusedSince
+     *            time in milliseconds
+     */
+    public void evict(final long unusedSince) {
+
+        final Iterator<Entry> i = cache.values()
+            .iterator();
+        while (i.hasNext()) {
+            final Entry entry = i.next();
+            if (entry.lastUsed < unusedSince) {
+                i.remove();
+                reverseIndex.remove(entry.subject, entry);
+            }
+        }
+    }
+
+    /**
+     * Gets the local subject of a cached pairwise subject that was derived for
+     * the sector.
+     *
+     * @param sectorIdentifier
+     *            sector identifier
+     * @param subject
+     *            pairwise subject
+     * @param now
+     *            current time in milliseconds
+     * @return local subject or <code>null</code> if the subject is not cached
+     *         or was derived for another sector.
+     */
+    public String getLocalSubject(final String sectorIdentifier,
+        final String subject,
+        final long now) {
+
+        final Entry entry = reverseIndex.get(subject);
+        if (entry == null || !entry.sectorIdentifier.equals(sectorIdentifier)) {
+            return null;
+        }
+        entry.lastUsed = now;
+        return entry.localSubject;
+    }
+
+    /**
+     * Number of cached pairwise subjects.
+     *
+     * @return cache size
+     */
+    public int size() {
+
+        return cache.size();
+    }
+}
@@ -28,6 +28,7 @@ public class ProviderV1 extends Application {
         classes.add(Jwks.class);
         classes.add(JsonWebKeyProvider.class);
         classes.add(JsonWebKeySetProvider.class);
+        classes.add(MetricsFilter.class);
         classes.add(TokenEndpoint.class);
         classes.add(UserinfoEndpoint.class);
         return classes;
@@ -0,0 +1,176 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Immutable set of registered redirect URIs. URIs are normalized before they
+ * are compared: the scheme and host are made lower case, the default port is
+ * dropped and an empty path becomes "/". URIs with a fragment or user info are
+ * never valid.
+ * </p>
+ * <p>
+ * Registered URIs are kept in a hash set. A registered URI whose host starts
+ * with <code>*.</code> matches any single label in that position, for example
+ * <code>https://*.example.com/cb</code> matches
+ * <code>https://app.example.com/cb</code> but not
+ * <code>https://example.com/cb</code> or
+ * <code>https://a.b.example.com/cb</code>. These are kept in a trie of the
+ * host labels from right to left so matching is proportional to the number of
+ * labels in the host rather than the number of registered URIs.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class RedirectUriSet {
+
+    /**
+     * Trie node for a host label.
+     */
+    private static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+
+        /**
+         * Scheme, port, path and query of the wildcard URIs whose host suffix
+         * ends at this node.
+         */
+        private final Set<String> wildcardRemainders = new HashSet<>();
+    }
+
+    /**
+     * Normalized parts of a URI.
+     */
+    private static final class Parts {
+
+        private final String host;
+
+        private final String remainder;
+
+        public Parts(final String host, final String remainder) {
+
+            this.host = host;
+            this.remainder = remainder;
+        }
+
+        @Override
+        public String toString() {
+
+            return host + ' ' + remainder;
+        }
+    }
+
+    private static final String WILDCARD = "://*.";
+
+    private static final String WILDCARD_LABEL = "wildcard.";
+
+    private static final String WILDCARD_PLACEHOLDER = "://" + WILDCARD_LABEL;
+
+    private static Parts normalize(final URI uri) {
+
+        if (!uri.isAbsolute() || uri.isOpaque() || uri.getRawFragment() != null || uri.getRawUserInfo() != null || uri.getHost() == null) {
+            return null;
+        }
+        final String scheme = uri.getScheme()
+            .toLowerCase(Locale.ENGLISH);
+        int port = uri.getPort();
+        if ("http".equals(scheme) && port == 80 || "https".equals(scheme) && port == 443) {
+            port = -1;
+        }
+        final StringBuilder remainder = new StringBuilder(scheme).append(' ')
+            .append(port)
+            .append(' ');
+        if (uri.getRawPath() == null || uri.getRawPath()
+            .isEmpty()) {
+            remainder.append('/');
+        } else {
+            remainder.append(uri.getRawPath());
+        }
+        if (uri.getRawQuery() != null) {
+            remainder.append('?')
+                .append(uri.getRawQuery());
+        }
+        return new Parts(uri.getHost()
+            .toLowerCase(Locale.ENGLISH), remainder.toString());
+    }
+
+    private final Set<String> exact = new HashSet<>();
+
+    private final Node wildcardRoot = new Node();
+
+    /**
+     * Builds the set.
+     *
+     * @param uris
+     *            registered URIs
+     * @throws IllegalArgumentException
+     *             if a URI cannot be used as a redirect URI.
+     */
+    public RedirectUriSet(final Collection<String> uris) {
+
+        for (final String uri : uris) {
+            // "*" is not valid in a host name so it is swapped for a label
+            final boolean wildcard = uri.contains(WILDCARD);
+            final Parts parts = normalize(URI.create(wildcard ? uri.replace(WILDCARD, WILDCARD_PLACEHOLDER) : uri));
+            if (parts == null) {
+                throw new IllegalArgumentException("invalid redirect URI " + uri);
+            }
+            if (wildcard) {
+                final String[] labels = parts.host.substring(WILDCARD_LABEL.length())
+                    .split("\\.");
+                Node node = wildcardRoot;
+                for (int i = labels.length - 1; i >= 0; --i) {
+                    Node child = node.children.get(labels[i]);
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(labels[i], child);
+                    }
+                    node = child;
+                }
+                node.wildcardRemainders.add(parts.remainder);
+            } else {
+                exact.add(parts.toString());
+            }
+        }
+    }
+
+    /**
+     * Checks if the URI matches a registered URI.
+     *
+     * @param uri
+     *            URI to check, may be <code>null</code>
+     * @return <code>true</code> if the URI is registered.
+     */
+    public boolean contains(final URI uri) {
+
+        if (uri == null) {
+            return false;
+        }
+        final Parts parts = normalize(uri);
+        if (parts == null) {
+            return false;
+        }
+        if (exact.contains(parts.toString())) {
+            return true;
+        }
+        if (wildcardRoot.children.isEmpty()) {
+            return false;
+        }
+        final String[] labels = parts.host.split("\\.");
+        Node node = wildcardRoot;
+        // the left most label is the one that the wildcard stands for
+        for (int i = labels.length - 1; i >= 1; --i) {
+            node = node.children.get(labels[i]);
+            if (node == null) {
+                return false;
+            }
+        }
+        return labels.length > 1 && node.wildcardRemainders.contains(parts.remainder);
+    }
+}
@@ -0,0 +1,225 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Per client token buckets. Each bucket is a single {@link AtomicLong} holding
+ * the time at which the bucket will be full again (the generic cell rate
+ * algorithm) so taking a token is one compare and set without locking.
+ * </p>
+ * <p>
+ * Clients with their own quota have a dedicated bucket that is created up
+ * front. Other clients get a bucket with the default quota when they are first
+ * seen, up to a maximum number of clients. Past that, the client ID is hashed
+ * to one of a fixed set of striped buckets so a flood of made up client IDs
+ * cannot grow the memory used.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class TokenBuckets {
+
+    /**
+     * Token bucket.
+     */
+    private static final class Bucket {
+
+        /**
+         * Nanosecond time at which the bucket is full again.
+         */
+        private final AtomicLong fullAt;
+
+        private final Quota quota;
+
+        public Bucket(final Quota quota, final long now) {
+
+            this.quota = quota;
+            fullAt = new AtomicLong(now);
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @param now
+         *            current nanosecond time
+         * @return 0 if a token was taken, otherwise nanoseconds until one is
+         *         available.
+         */
+        public long take(final long now) {
+
+            while (true) {
+                final long current = fullAt.get();
+                final long next = (current - now < 0 ? now : current) + quota.intervalNanos;
+                final long excess = next - now - quota.capacityNanos;
+                if (excess > 0) {
+                    return excess;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rate and burst size of a bucket.
+     */
+    public static final class Quota {
+
+        /**
+         * Parses a quota in the form <code>rate</code> or
+         * <code>rate/burst</code> where the rate is in requests per second.
+         *
+         * @param quota
+         *            quota
+         * @return parsed quota
+         * @throws IllegalArgumentException
+         *             if the quota is not valid.
+         */
+        public static Quota parse(final String quota) {
+
+            final int slash = quota.indexOf('/');
+            if (slash == -1) {
+                final double rate = Double.parseDouble(quota.trim());
+                return new Quota(rate, (int) Math.max(1, Math.ceil(rate)));
+            }
+            return new Quota(Double.parseDouble(quota.substring(0, slash)
+                .trim()), Integer.parseInt(quota.substring(slash + 1)
+                    .trim()));
+        }
+
+        private final long capacityNanos;
+
+        private final long intervalNanos;
+
+        /**
+         * Constructs the quota.
+         *
+         * @param rate
+         *            requests per second
+         * @param burst
+         *            number of requests that may be made at once
+         */
+        public Quota(final double rate, final int burst) {
+
+            if (!(rate > 0) || burst < 1) {
+                throw new IllegalArgumentException("rate and burst must be positive");
+            }
+            intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+            capacityNanos = intervalNanos * burst;
+        }
+    }
+
+    /**
+     * Buckets of clients without their own quota.
+     */
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Quota of clients without their own quota, <code>null</code> if they are
+     * not limited.
+     */
+    private final Quota defaultQuota;
+
+    /**
+     * Buckets of clients with their own quota.
+     */
+    private final Map<String, Bucket> dedicated = new HashMap<>();
+
+    private final int maxClients;
+
+    private final Bucket[] stripes;
+
+    /**
+     * Constructs the buckets.
+     *
+     * @param defaultQuota
+     *            quota of clients that do not have their own, may be
+     *            <code>null</code> if they are not limited
+     * @param quotas
+     *            quotas keyed by client ID
+     * @param maxClients
+     *            maximum number of clients without their own quota that get a
+     *            bucket to themselves
+     * @param stripeCount
+     *            number of shared buckets used past the maximum
+     * @param now
+     *            current nanosecond time
+     */
+    public TokenBuckets(final Quota defaultQuota, final Map<String, Quota> quotas, final int maxClients, final int stripeCount, final long now) {
+
+        this.defaultQuota = defaultQuota;
+        this.maxClients = maxClients;
+        for (final Map.Entry<String, Quota> e : quotas.entrySet()) {
+            dedicated.put(e.getKey(), new Bucket(e.getValue(), now));
+        }
+        stripes = new Bucket[defaultQuota == null ? 0 : stripeCount];
+        for (int i = 0; i < stripes.length; ++i) {
+            stripes[i] = new Bucket(defaultQuota, now);
+        }
+    }
+
+    /**
+     * Removes the buckets that are full as they are no different from a new
+     * bucket.
+     *
+     * @param now
+     *            current nanosecond time
+     */
+    public void evict(final long now) {
+
+        final Iterator<Bucket> i = buckets.values()
+            .iterator();
+        while (i.hasNext()) {
+            if (i.next().fullAt.get() - now <= 0) {
+                i.remove();
+            }
+        }
+    }
+
+    private Bucket getBucket(final String clientId,
+        final long now) {
+
+        final Bucket bucket = dedicated.get(clientId);
+        if (bucket != null || defaultQuota == null) {
+            return bucket;
+        }
+        final Bucket existing = buckets.get(clientId);
+        if (existing != null) {
+            return existing;
+        }
+        if (buckets.size() >= maxClients) {
+            return stripes[(clientId.hashCode() & Integer.MAX_VALUE) % stripes.length];
+        }
+        final Bucket created = new Bucket(defaultQuota, now);
+        final Bucket raced = buckets.putIfAbsent(clientId, created);
+        return raced != null ? raced : created;
+    }
+
+    /**
+     * Takes a token from the bucket of the client.
+     *
+     * @param clientId
+     *            client ID
+     * @param now
+     *            current nanosecond time
+     * @return 0 if the request is allowed, otherwise the number of nanoseconds
+     *         until it would be.
+     */
+    public long take(final String clientId,
+        final long now) {
+
+        final Bucket bucket = getBucket(clientId, now);
+        if (bucket == null) {
+            return 0;
+        }
+        return bucket.take(now);
+    }
+}
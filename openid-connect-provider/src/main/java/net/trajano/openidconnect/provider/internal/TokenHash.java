@@ -0,0 +1,42 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import net.trajano.openidconnect.crypto.Encoding;
+import net.trajano.openidconnect.crypto.JsonWebAlgorithm;
+import net.trajano.openidconnect.internal.CharSets;
+
+/**
+ * Computes the <code>at_hash</code> and <code>c_hash</code> values of an ID
+ * token. The value is the base64url encoding of the left-most half of the
+ * hash of the token using the hash algorithm of the <code>alg</code> the ID
+ * token is signed with, e.g. SHA-384 for ES384.
+ *
+ * @author Archimedes Trajano
+ */
+public final class TokenHash {
+
+    /**
+     * Computes the hash of the token.
+     *
+     * @param alg
+     *            JSON Web algorithm the ID token is signed with
+     * @param token
+     *            access token or code
+     * @return hash value
+     * @throws GeneralSecurityException
+     *             the algorithm does not have a hash algorithm
+     */
+    public static String compute(final String alg,
+        final String token) throws GeneralSecurityException {
+
+        final byte[] digestedBytes = MessageDigest.getInstance(JsonWebAlgorithm.getDigestAlg(alg))
+            .digest(token.getBytes(CharSets.US_ASCII));
+        return Encoding.base64urlEncode(digestedBytes, 0, digestedBytes.length / 2);
+    }
+
+    private TokenHash() {
+
+    }
+}
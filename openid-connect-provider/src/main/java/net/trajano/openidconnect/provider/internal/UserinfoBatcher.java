@@ -0,0 +1,211 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.trajano.openidconnect.provider.spi.BatchUserinfoProvider;
+import net.trajano.openidconnect.provider.spi.UserinfoProvider;
+import net.trajano.openidconnect.token.IdToken;
+import net.trajano.openidconnect.userinfo.Userinfo;
+
+/**
+ * <p>
+ * Loads {@link Userinfo} from a {@link UserinfoProvider} in the background.
+ * Concurrent requests for the same subject share a single lookup. Lookups are
+ * queued and the queue is drained after a short window so a
+ * {@link BatchUserinfoProvider} receives them together; other providers are
+ * called once per subject.
+ * </p>
+ * <p>
+ * The window starts with the first queued lookup. The queue is drained
+ * immediately when it reaches the maximum batch size or when the window is
+ * not positive.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public class UserinfoBatcher {
+
+    /**
+     * Result of a lookup that is completed by the batch that contains it.
+     */
+    private static final class PendingUserinfo extends FutureTask<Userinfo> {
+
+        private static final Callable<Userinfo> NOT_RUN = new Callable<Userinfo>() {
+
+            @Override
+            public Userinfo call() {
+
+                throw new IllegalStateException("completed by the batch");
+            }
+        };
+
+        private final IdToken idToken;
+
+        public PendingUserinfo(final IdToken idToken) {
+
+            super(NOT_RUN);
+            this.idToken = idToken;
+        }
+
+        public void complete(final Userinfo userinfo) {
+
+            set(userinfo);
+        }
+
+        public void fail(final Throwable e) {
+
+            setException(e);
+        }
+    }
+
+    private final long batchMillis;
+
+    private final ScheduledExecutorService executor;
+
+    private final Runnable flushTask = new Runnable() {
+
+        @Override
+        public void run() {
+
+            flush();
+        }
+    };
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final ConcurrentMap<String, PendingUserinfo> inFlight = new ConcurrentHashMap<>();
+
+    private final int maxBatchSize;
+
+    private final Queue<PendingUserinfo> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final UserinfoProvider userinfoProvider;
+
+    /**
+     * Constructs the batcher.
+     *
+     * @param userinfoProvider
+     *            provider
+     * @param executor
+     *            executor that performs the lookups
+     * @param batchMillis
+     *            time to wait for more lookups before calling the provider
+     * @param maxBatchSize
+     *            maximum number of subjects passed to the provider at once
+     */
+    public UserinfoBatcher(final UserinfoProvider userinfoProvider, final ScheduledExecutorService executor, final long batchMillis, final int maxBatchSize) {
+
+        this.userinfoProvider = userinfoProvider;
+        this.executor = executor;
+        this.batchMillis = batchMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Drains the queue in batches.
+     */
+    private void flush() {
+
+        flushScheduled.set(false);
+        while (true) {
+            final List<PendingUserinfo> batch = new ArrayList<>();
+            PendingUserinfo pending;
+            while (batch.size() < maxBatchSize && (pending = queue.poll()) != null) {
+                queued.decrementAndGet();
+                batch.add(pending);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            loadBatch(batch);
+        }
+    }
+
+    /**
+     * Gets the user info for the subject of the ID token. If a lookup for the
+     * subject is already in progress its result is shared.
+     *
+     * @param idToken
+     *            ID token
+     * @return user info
+     */
+    public Future<Userinfo> getUserinfo(final IdToken idToken) {
+
+        final PendingUserinfo pending = new PendingUserinfo(idToken);
+        final PendingUserinfo existing = inFlight.putIfAbsent(idToken.getSub(), pending);
+        if (existing != null) {
+            return existing;
+        }
+        queue.add(pending);
+        final int size = queued.incrementAndGet();
+        if (batchMillis <= 0 || size >= maxBatchSize) {
+            executor.execute(flushTask);
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(flushTask, batchMillis, TimeUnit.MILLISECONDS);
+        }
+        return pending;
+    }
+
+    /**
+     * Calls the provider for the ID tokens. Subclasses may override this to
+     * act on the results.
+     *
+     * @param idTokens
+     *            ID tokens with distinct subjects
+     * @return user info keyed by subject
+     */
+    protected Map<String, Userinfo> load(final List<IdToken> idTokens) {
+
+        if (userinfoProvider instanceof BatchUserinfoProvider) {
+            return ((BatchUserinfoProvider) userinfoProvider).getUserinfo(idTokens);
+        }
+        final Map<String, Userinfo> result = new HashMap<>();
+        for (final IdToken idToken : idTokens) {
+            result.put(idToken.getSub(), userinfoProvider.getUserinfo(idToken));
+        }
+        return result;
+    }
+
+    private void loadBatch(final List<PendingUserinfo> batch) {
+
+        final List<IdToken> idTokens = new ArrayList<>(batch.size());
+        for (final PendingUserinfo pending : batch) {
+            idTokens.add(pending.idToken);
+        }
+        Map<String, Userinfo> result = null;
+        RuntimeException failure = null;
+        try {
+            result = load(idTokens);
+        } catch (final RuntimeException e) {
+            failure = e;
+        }
+        for (final PendingUserinfo pending : batch) {
+            final String subject = pending.idToken.getSub();
+            // later requests start a new lookup rather than getting this one
+            inFlight.remove(subject, pending);
+            if (failure != null) {
+                pending.fail(failure);
+            } else if (result.get(subject) == null) {
+                pending.fail(new IllegalStateException("no user info for subject"));
+            } else {
+                pending.complete(result.get(subject));
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package net.trajano.openidconnect.provider.internal;
+
+import javax.json.stream.JsonGenerator;
+
+import net.trajano.openidconnect.userinfo.Userinfo;
+
+/**
+ * Standard claims of {@link Userinfo} other than <code>sub</code> along with
+ * how they are written. The ordinal is used as the bit position in a
+ * {@link UserinfoProjection}.
+ *
+ * @author Archimedes Trajano
+ */
+public enum UserinfoClaim {
+    address("address") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            if (userinfo.getAddress() != null) {
+                generator.write(claimName, userinfo.getAddress());
+            }
+        }
+    },
+    birthdate("birthdate") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getBirthdate());
+        }
+    },
+    email("email") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getEmail());
+        }
+    },
+    email_verified("email_verified") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            if (userinfo.isEmailVerified() != null) {
+                generator.write(claimName, userinfo.isEmailVerified());
+            }
+        }
+    },
+    family_name("family_name") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getFamilyName());
+        }
+    },
+    gender("gender") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getGender());
+        }
+    },
+    given_name("given_name") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getGivenName());
+        }
+    },
+    locale("locale") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            if (userinfo.getLocale() != null) {
+                generator.write(claimName, userinfo.getLocale()
+                    .toLanguageTag());
+            }
+        }
+    },
+    middle_name("middle_name") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getMiddleName());
+        }
+    },
+    name("name") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getName());
+        }
+    },
+    nickname("nickname") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getNickname());
+        }
+    },
+    phone_number("phone_number") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getPhoneNumber());
+        }
+    },
+    phone_number_verified("phone_number_verified") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            if (userinfo.isPhoneNumberVerified() != null) {
+                generator.write(claimName, userinfo.isPhoneNumberVerified());
+            }
+        }
+    },
+    picture("picture") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getPicture());
+        }
+    },
+    preferred_username("preferred_username") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getPreferredUsername());
+        }
+    },
+    profile("profile") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getProfile());
+        }
+    },
+    updated_at("updated_at") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            if (userinfo.getUpdatedAt() != null) {
+                generator.write(claimName, userinfo.getUpdatedAt());
+            }
+        }
+    },
+    website("website") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getWebsite());
+        }
+    },
+    zoneinfo("zoneinfo") {
+
+        @Override
+        public void write(final Userinfo userinfo,
+            final JsonGenerator generator) {
+
+            writeString(generator, userinfo.getZoneinfo());
+        }
+    };
+
+    /**
+     * Claim name in the JSON object.
+     */
+    protected final String claimName;
+
+    private UserinfoClaim(final String claimName) {
+
+        this.claimName = claimName;
+    }
+
+    public String getClaimName() {
+
+        return claimName;
+    }
+
+    /**
+     * Writes the claim if it is present in the {@link Userinfo}.
+     *
+     * @param userinfo
+     *            user info
+     * @param generator
+     *            generator positioned inside the response object
+     */
+    public abstract void write(Userinfo userinfo,
+        JsonGenerator generator);
+
+    protected void writeString(final JsonGenerator generator,
+        final String value) {
+
+        if (value != null) {
+            generator.write(claimName, value);
+        }
+    }
+}
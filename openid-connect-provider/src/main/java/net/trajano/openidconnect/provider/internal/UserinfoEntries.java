@@ -0,0 +1,181 @@
+package net.trajano.openidconnect.provider.internal;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.trajano.openidconnect.userinfo.Userinfo;
+
+/**
+ * <p>
+ * Per subject cache of {@link Userinfo} with a fixed time to live. The number
+ * of entries is bounded; results that arrive when the cache is full are not
+ * cached.
+ * </p>
+ * <p>
+ * Invalidations increment a generation. A load captures the generation
+ * before calling the provider and passes it to
+ * {@link #put(Map, long, long)} so a result that was being loaded while its
+ * subject was invalidated is not kept.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public class UserinfoEntries {
+
+    /**
+     * User info along with its expiration in milliseconds since the epoch.
+     */
+    private static final class CachedUserinfo {
+
+        private final long expiresAt;
+
+        private final Userinfo userinfo;
+
+        public CachedUserinfo(final Userinfo userinfo, final long expiresAt) {
+
+            this.userinfo = userinfo;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final ConcurrentMap<String, CachedUserinfo> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on every invalidation so a result that was being loaded
+     * while its subject was invalidated is not cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final int maxEntries;
+
+    private final long ttlMillis;
+
+    /**
+     * Constructs the cache.
+     *
+     * @param ttlMillis
+     *            milliseconds an entry is kept
+     * @param maxEntries
+     *            maximum number of cached subjects
+     */
+    public UserinfoEntries(final long ttlMillis, final int maxEntries) {
+
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Removes the expired entries.
+     *
+     * @param now
+     *            current time in milliseconds
+     */
+    public void evict(final long now) {
+
+        final Iterator<CachedUserinfo> i = entries.values()
+            .iterator();
+        while (i.hasNext()) {
+            if (now >= i.next().expiresAt) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets the cached user info.
+     *
+     * @param subject
+     *            subject
+     * @param now
+     *            current time in milliseconds
+     * @return user info or <code>null</code> if it is not cached or has
+     *         expired.
+     */
+    public Userinfo get(final String subject,
+        final long now) {
+
+        final CachedUserinfo cached = entries.get(subject);
+        if (cached == null || now >= cached.expiresAt) {
+            return null;
+        }
+        return cached.userinfo;
+    }
+
+    /**
+     * Gets the generation to pass to {@link #put(Map, long, long)}. This is
+     * called before the provider is called.
+     *
+     * @return current generation
+     */
+    public long getGeneration() {
+
+        return generation.get();
+    }
+
+    /**
+     * Discards the cached user info for the subject.
+     *
+     * @param subject
+     *            subject
+     */
+    public void invalidate(final String subject) {
+
+        generation.incrementAndGet();
+        entries.remove(subject);
+    }
+
+    /**
+     * Discards all cached user info.
+     */
+    public void invalidateAll() {
+
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Caches the loaded user info unless there was an invalidation while it
+     * was being loaded.
+     *
+     * @param result
+     *            user info keyed by subject
+     * @param loadedGeneration
+     *            generation when the load started
+     * @param now
+     *            current time in milliseconds
+     */
+    public void put(final Map<String, Userinfo> result,
+        final long loadedGeneration,
+        final long now) {
+
+        final long expiresAt = now + ttlMillis;
+        for (final Map.Entry<String, Userinfo> e : result.entrySet()) {
+            if (entries.size() >= maxEntries) {
+                break;
+            }
+            if (e.getValue() != null) {
+                entries.put(e.getKey(), new CachedUserinfo(e.getValue(), expiresAt));
+            }
+        }
+        // checked after the puts so an invalidation that races with them is
+        // not lost
+        if (generation.get() != loadedGeneration) {
+            for (final String subject : result.keySet()) {
+                entries.remove(subject);
+            }
+        }
+    }
+
+    /**
+     * Number of cached subjects.
+     *
+     * @return size
+     */
+    public int size() {
+
+        return entries.size();
+    }
+}
@@ -0,0 +1,153 @@
+package net.trajano.openidconnect.provider.internal;
+
+import javax.json.JsonObject;
+import javax.json.stream.JsonGenerator;
+
+import net.trajano.openidconnect.crypto.Encoding;
+import net.trajano.openidconnect.internal.CharSets;
+import net.trajano.openidconnect.userinfo.Userinfo;
+
+/**
+ * <p>
+ * Compiled form of a <code>userinfo</code> claims request. The permitted
+ * standard claims are kept as a bit mask over {@link UserinfoClaim} along with
+ * the claims to write in order, so producing a response does not need to
+ * look at the claims request again.
+ * </p>
+ * <p>
+ * Instances are immutable and may be shared.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class UserinfoProjection {
+
+    /**
+     * Projection that permits all the claims. This is used when the request
+     * did not ask for specific userinfo claims.
+     */
+    public static final UserinfoProjection ALL;
+
+    static {
+        long allMask = 0;
+        for (final UserinfoClaim claim : UserinfoClaim.values()) {
+            allMask |= 1L << claim.ordinal();
+        }
+        ALL = new UserinfoProjection(allMask);
+    }
+
+    /**
+     * Compiles the <code>userinfo</code> member of the claims request.
+     *
+     * @param userinfoClaims
+     *            requested userinfo claims
+     * @return projection
+     */
+    public static UserinfoProjection compile(final JsonObject userinfoClaims) {
+
+        long mask = 0;
+        for (final UserinfoClaim claim : UserinfoClaim.values()) {
+            if (userinfoClaims.containsKey(claim.getClaimName())) {
+                mask |= 1L << claim.ordinal();
+            }
+        }
+        return new UserinfoProjection(mask);
+    }
+
+    /**
+     * Claims to write in order.
+     */
+    private final UserinfoClaim[] claims;
+
+    private final long mask;
+
+    private UserinfoProjection(final long mask) {
+
+        this.mask = mask;
+        claims = new UserinfoClaim[Long.bitCount(mask)];
+        int i = 0;
+        for (final UserinfoClaim claim : UserinfoClaim.values()) {
+            if ((mask & 1L << claim.ordinal()) != 0) {
+                claims[i++] = claim;
+            }
+        }
+    }
+
+    /**
+     * Gets the value of the entity tag of the representation that
+     * {@link #write(Userinfo, String, JsonGenerator)} produces. The
+     * representation depends on the subject, its data and the claims written
+     * so the tag changes when any of them do.
+     *
+     * @param userinfo
+     *            user info
+     * @param subject
+     *            subject given to the client
+     * @return entity tag value or <code>null</code> if the user info has no
+     *         <code>updated_at</code> claim.
+     */
+    public String getEntityTag(final Userinfo userinfo,
+        final String subject) {
+
+        if (userinfo.getUpdatedAt() == null) {
+            return null;
+        }
+        return Encoding.base64urlEncode(subject.getBytes(CharSets.UTF8)) + "-" + userinfo.getUpdatedAt() + "-" + Long.toString(mask, 36);
+    }
+
+    public long getMask() {
+
+        return mask;
+    }
+
+    /**
+     * Checks if the claim is permitted.
+     *
+     * @param claim
+     *            claim
+     * @return <code>true</code> if the claim is written.
+     */
+    public boolean isPermitted(final UserinfoClaim claim) {
+
+        return (mask & 1L << claim.ordinal()) != 0;
+    }
+
+    /**
+     * Writes the <code>sub</code> claim and the permitted claims that are
+     * present as a JSON object.
+     *
+     * @param userinfo
+     *            user info
+     * @param generator
+     *            generator
+     */
+    public void write(final Userinfo userinfo,
+        final JsonGenerator generator) {
+
+        write(userinfo, userinfo.getSub(), generator);
+    }
+
+    /**
+     * Writes the given <code>sub</code> claim and the permitted claims that
+     * are present as a JSON object. This is used when the subject given to the
+     * client differs from the one of the user info.
+     *
+     * @param userinfo
+     *            user info
+     * @param subject
+     *            subject given to the client
+     * @param generator
+     *            generator
+     */
+    public void write(final Userinfo userinfo,
+        final String subject,
+        final JsonGenerator generator) {
+
+        generator.writeStartObject();
+        generator.write("sub", subject);
+        for (final UserinfoClaim claim : claims) {
+            claim.write(userinfo, generator);
+        }
+        generator.writeEnd();
+    }
+}
@@ -36,7 +36,10 @@ public interface Authenticator {
      * @param authenticationRequest
      *            authentication request
      * @param requestJwt
-     *            the request encoded in a JWT
+     *            the request encoded in a JWT or an opaque handle to the
+     *            request if the
+     *            {@link net.trajano.openidconnect.provider.ejb.AuthenticationRequestStore}
+     *            is enabled
      * @param req
      *            servlet request
      * @param contextUriBuilder
@@ -0,0 +1,29 @@
+package net.trajano.openidconnect.provider.spi;
+
+import java.util.List;
+import java.util.Map;
+
+import net.trajano.openidconnect.token.IdToken;
+import net.trajano.openidconnect.userinfo.Userinfo;
+
+/**
+ * A {@link UserinfoProvider} that can look up several subjects in one call to
+ * its backend. Lookups that arrive within a short window are passed to
+ * {@link #getUserinfo(List)} together rather than one at a time.
+ *
+ * @author Archimedes Trajano
+ */
+public interface BatchUserinfoProvider extends
+    UserinfoProvider {
+
+    /**
+     * Gets the user info for several ID tokens. Each subject appears only
+     * once.
+     *
+     * @param idTokens
+     *            ID tokens
+     * @return user info keyed by subject. A subject that is missing from the
+     *         map is treated as a failed lookup.
+     */
+    Map<String, Userinfo> getUserinfo(List<IdToken> idTokens);
+}
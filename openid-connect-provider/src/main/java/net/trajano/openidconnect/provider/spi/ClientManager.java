@@ -16,6 +16,18 @@ public interface ClientManager {
     String authenticateClient(String clientId,
             String clientSecret);
 
+    /**
+     * Gets the back-channel logout URI of the client. A logout token is sent
+     * to it when a session of a subject that the client holds tokens for is
+     * ended.
+     *
+     * @param clientId
+     *            client ID
+     * @return back-channel logout URI or <code>null</code> if the client does
+     *         not support back-channel logout.
+     */
+    URI getBackChannelLogoutUri(String clientId);
+
     /**
      * Checks if the redirect URI is valid for a given client ID.
      *
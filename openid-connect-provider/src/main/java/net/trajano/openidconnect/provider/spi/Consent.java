@@ -84,6 +84,21 @@ public class Consent implements Serializable {
         return true;
     }
 
+    public String getClientId() {
+
+        return clientId;
+    }
+
+    public Set<Scope> getScopes() {
+
+        return scopes;
+    }
+
+    public String getSubject() {
+
+        return subject;
+    }
+
     @Override
     public int hashCode() {
 
@@ -0,0 +1,100 @@
+package net.trajano.openidconnect.provider.spi;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonWriter;
+import javax.ws.rs.core.EntityTag;
+
+import net.trajano.openidconnect.crypto.Encoding;
+import net.trajano.openidconnect.crypto.JsonWebKey;
+import net.trajano.openidconnect.crypto.JsonWebKeySet;
+
+/**
+ * <p>
+ * Immutable JSON serialization of a JWKS along with a strong entity tag that
+ * is derived from the SHA-256 digest of the serialized bytes. Key providers
+ * build this once per version of the key set so that the JWKS endpoint only
+ * has to copy the bytes to the response.
+ * </p>
+ * <p>
+ * Since the entity tag is derived from the content, every node that serves
+ * the same keys produces the same entity tag.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class EncodedJsonWebKeySet {
+
+    private final byte[] bytes;
+
+    private final EntityTag entityTag;
+
+    private final JsonWebKeySet jwks;
+
+    /**
+     * Serializes the JWKS.
+     *
+     * @param jwks
+     *            JWKS
+     */
+    public EncodedJsonWebKeySet(final JsonWebKeySet jwks) {
+
+        this.jwks = jwks;
+
+        final JsonArrayBuilder keysArray = Json.createArrayBuilder();
+        for (final JsonWebKey key : jwks.getKeys()) {
+            final JsonObjectBuilder keyBuilder = Json.createObjectBuilder();
+            key.buildJsonObject(keyBuilder);
+            keysArray.add(keyBuilder);
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final JsonWriter w = Json.createWriter(baos);
+        w.write(Json.createObjectBuilder()
+            .add("keys", keysArray)
+            .build());
+        w.close();
+        bytes = baos.toByteArray();
+
+        try {
+            entityTag = new EntityTag(Encoding.base64urlEncode(MessageDigest.getInstance("SHA-256")
+                .digest(bytes)));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Serialized JWKS. The array is shared and must not be modified.
+     *
+     * @return UTF-8 encoded JSON
+     */
+    public byte[] getBytes() {
+
+        return bytes;
+    }
+
+    /**
+     * Strong entity tag of the serialized JWKS.
+     *
+     * @return entity tag
+     */
+    public EntityTag getEntityTag() {
+
+        return entityTag;
+    }
+
+    /**
+     * JWKS that was serialized.
+     *
+     * @return JWKS
+     */
+    public JsonWebKeySet getJwks() {
+
+        return jwks;
+    }
+}
@@ -18,6 +18,14 @@ public interface KeyProvider {
      */
     JsonWebKeySet getJwks();
 
+    /**
+     * Serialized form of {@link #getJwks()}. The same instance is returned
+     * until the published keys change.
+     *
+     * @return encoded JWKS
+     */
+    EncodedJsonWebKeySet getEncodedJwks();
+
     /**
      * JWKS containing the private keys.
      * 
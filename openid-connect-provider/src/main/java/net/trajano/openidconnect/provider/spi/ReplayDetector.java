@@ -0,0 +1,424 @@
+package net.trajano.openidconnect.provider.spi;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Remembers identifiers of single use values such as authorization codes
+ * until the values expire. Identifiers are kept in a ring of time buckets
+ * chosen by the expiration time of the value so the same identifier always
+ * lands in the same bucket. A bucket is cleared when it is reused for a later
+ * time slice which means the memory used is bounded by the number of values
+ * that are still valid rather than growing forever. {@link TokenStorage}
+ * implementations may use this to implement
+ * {@link TokenStorage#markCodeAsUsed(String, String)} and
+ * {@link TokenStorage#isCodeUsed(String)}.
+ * </p>
+ * <p>
+ * A value such as the grant that a code was exchanged for may be kept along
+ * with an identifier that is marked for the maximum lifetime. It is available
+ * through {@link #getConfirmedValue(String)} as long as the use can be
+ * confirmed.
+ * </p>
+ * <p>
+ * Optionally each bucket has a Bloom filter in front of it. Lookups of
+ * identifiers that were never used, which is the common case, are answered by
+ * the filter and the exact set is only consulted on a probable hit. With the
+ * filter the exact sets are also limited so the memory used stays bounded at
+ * any rate. A bucket starts sized for the expected number of identifiers and
+ * when it fills up its filter is rebuilt at double the size, up to
+ * {@link #MAX_GROWTH} times the expected number. Identifiers that do not fit
+ * after that are only recorded in the filter, so once a bucket overflows a
+ * probable hit that cannot be confirmed is treated as used. This errs on the
+ * side of rejecting a value rather than accepting a replay, but as it may be
+ * a false positive {@link #isConfirmedUsed(String)} tells whether the use can
+ * be confirmed before acting on it any further.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class ReplayDetector {
+
+    /**
+     * Identifiers of the values that expire within a time slice. This is only
+     * accessed while holding its monitor.
+     */
+    private static final class Bucket {
+
+        /**
+         * Bloom filter bits, <code>null</code> if there is no filter.
+         */
+        private long[] bits;
+
+        /**
+         * Number of identifiers the filter is sized for.
+         */
+        private int capacity;
+
+        private long epoch = -1;
+
+        /**
+         * Exact set of identifiers along with their values.
+         */
+        private final Map<String, String> ids = new HashMap<>();
+
+        /**
+         * Indicates that some identifiers are only in the filter.
+         */
+        private boolean overflowed;
+
+        public Bucket(final int capacity) {
+
+            this.capacity = capacity;
+            if (capacity > 0) {
+                bits = new long[(capacity * BITS_PER_ID + 63) / 64];
+            }
+        }
+    }
+
+    /**
+     * Bits in the filter per identifier. Along with {@link #HASHES} this gives
+     * a false positive rate of about 1%.
+     */
+    private static final int BITS_PER_ID = 10;
+
+    /**
+     * Number of bits set in the filter per identifier.
+     */
+    private static final int HASHES = 7;
+
+    /**
+     * Maximum factor by which a bucket grows past the expected number of
+     * identifiers.
+     */
+    public static final int MAX_GROWTH = 16;
+
+    /**
+     * 64-bit FNV-1a hash of the identifier. The filter positions are derived
+     * from the two halves.
+     *
+     * @param id
+     *            identifier
+     * @return hash
+     */
+    private static long hash(final String id) {
+
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); ++i) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private final long bucketMillis;
+
+    private final Bucket[] buckets;
+
+    private final long maxLifetimeMillis;
+
+    /**
+     * Expected number of identifiers in a bucket. Only used when there is a
+     * filter.
+     */
+    private final int maxIdsPerBucket;
+
+    /**
+     * Constructs the detector without a filter. The exact sets hold every
+     * identifier that is still valid.
+     *
+     * @param maxLifetimeMillis
+     *            longest time from now that a value may be valid
+     * @param bucketMillis
+     *            size of the time slice of each bucket
+     */
+    public ReplayDetector(final long maxLifetimeMillis, final long bucketMillis) {
+
+        this(maxLifetimeMillis, bucketMillis, 0);
+    }
+
+    /**
+     * Constructs the detector.
+     *
+     * @param maxLifetimeMillis
+     *            longest time from now that a value may be valid
+     * @param bucketMillis
+     *            size of the time slice of each bucket
+     * @param maxIdsPerBucket
+     *            expected number of identifiers per bucket. If positive, each
+     *            bucket has a filter sized for this many identifiers that
+     *            grows up to {@link #MAX_GROWTH} times it and the exact set is
+     *            limited to the size of the filter.
+     */
+    public ReplayDetector(final long maxLifetimeMillis, final long bucketMillis, final int maxIdsPerBucket) {
+
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.bucketMillis = bucketMillis;
+        this.maxIdsPerBucket = maxIdsPerBucket;
+        // extra buckets for the slice in progress and the slice being expired
+        buckets = new Bucket[(int) ((maxLifetimeMillis + bucketMillis - 1) / bucketMillis) + 2];
+        for (int i = 0; i < buckets.length; ++i) {
+            buckets[i] = new Bucket(maxIdsPerBucket);
+        }
+    }
+
+    /**
+     * Adds the identifier to the bucket. The caller must hold the monitor of
+     * the bucket.
+     */
+    private void add(final Bucket bucket,
+        final String id,
+        final String value,
+        final long hash) {
+
+        if (bucket.bits == null) {
+            bucket.ids.put(id, value);
+            return;
+        }
+        if (bucket.ids.size() >= bucket.capacity && !bucket.overflowed && bucket.capacity < maxIdsPerBucket * MAX_GROWTH) {
+            grow(bucket);
+        }
+        setBits(bucket.bits, hash);
+        if (bucket.ids.size() < bucket.capacity) {
+            bucket.ids.put(id, value);
+        } else {
+            bucket.overflowed = true;
+        }
+    }
+
+    /**
+     * Checks if the identifier is in the bucket. The caller must hold the
+     * monitor of the bucket.
+     */
+    private boolean contains(final Bucket bucket,
+        final String id,
+        final long hash) {
+
+        if (bucket.bits == null) {
+            return bucket.ids.containsKey(id);
+        }
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32) | 1;
+        final int size = bucket.bits.length * 64;
+        for (int i = 0; i < HASHES; ++i) {
+            final int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % size;
+            if ((bucket.bits[bit >>> 6] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return bucket.overflowed || bucket.ids.containsKey(id);
+    }
+
+    /**
+     * Doubles the size of the filter of the bucket and adds the identifiers
+     * of the exact set to it. This is only called before the bucket overflows
+     * so the exact set has every identifier of the bucket. The caller must
+     * hold the monitor of the bucket.
+     */
+    private static void grow(final Bucket bucket) {
+
+        bucket.capacity *= 2;
+        bucket.bits = new long[(bucket.capacity * BITS_PER_ID + 63) / 64];
+        for (final String id : bucket.ids.keySet()) {
+            setBits(bucket.bits, hash(id));
+        }
+    }
+
+    /**
+     * Sets the filter bits of the hash.
+     */
+    private static void setBits(final long[] bits,
+        final long hash) {
+
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32) | 1;
+        final int size = bits.length * 64;
+        for (int i = 0; i < HASHES; ++i) {
+            final int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % size;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private Bucket getBucket(final long epoch) {
+
+        return buckets[(int) (epoch % buckets.length)];
+    }
+
+    /**
+     * Gets the value that was kept by {@link #markUsed(String, String)} for
+     * an identifier whose use is confirmed.
+     *
+     * @param id
+     *            identifier
+     * @return value or <code>null</code> if the use cannot be confirmed or no
+     *         value was kept.
+     */
+    public String getConfirmedValue(final String id) {
+
+        final long currentEpoch = System.currentTimeMillis() / bucketMillis;
+        for (final Bucket bucket : buckets) {
+            synchronized (bucket) {
+                if (bucket.epoch >= currentEpoch && bucket.ids.containsKey(id)) {
+                    return bucket.ids.get(id);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the identifier is known for certain to have been marked as
+     * used within the maximum lifetime. Unlike {@link #isUsed(String)} this
+     * does not count a probable hit of a bucket that overflowed, so it is
+     * <code>false</code> when a rejected value may have been a false positive
+     * of the filter.
+     *
+     * @param id
+     *            identifier
+     * @return <code>true</code> if the use is confirmed.
+     */
+    public boolean isConfirmedUsed(final String id) {
+
+        final long currentEpoch = System.currentTimeMillis() / bucketMillis;
+        for (final Bucket bucket : buckets) {
+            synchronized (bucket) {
+                if (bucket.epoch >= currentEpoch && bucket.ids.containsKey(id)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the identifier was marked as used by
+     * {@link #markUsed(String)} within the maximum lifetime. All the buckets
+     * that are still valid are checked.
+     *
+     * @param id
+     *            identifier
+     * @return <code>true</code> if used.
+     */
+    public boolean isUsed(final String id) {
+
+        final long currentEpoch = System.currentTimeMillis() / bucketMillis;
+        final long hash = hash(id);
+        for (final Bucket bucket : buckets) {
+            synchronized (bucket) {
+                if (bucket.epoch >= currentEpoch && contains(bucket, id, hash)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the identifier was already used.
+     *
+     * @param id
+     *            identifier
+     * @param expiresAt
+     *            expiration of the value in milliseconds since the epoch
+     * @return <code>true</code> if used.
+     */
+    public boolean isUsed(final String id,
+        final long expiresAt) {
+
+        final long epoch = expiresAt / bucketMillis;
+        final long hash = hash(id);
+        final Bucket bucket = getBucket(epoch);
+        synchronized (bucket) {
+            return bucket.epoch == epoch && contains(bucket, id, hash);
+        }
+    }
+
+    /**
+     * Marks the identifier as used for the maximum lifetime. This is for
+     * values whose expiration is not known.
+     *
+     * @param id
+     *            identifier
+     * @return <code>true</code> if this is the first use, <code>false</code>
+     *         if it was already used.
+     */
+    public boolean markUsed(final String id) {
+
+        return markUsed(id, (String) null);
+    }
+
+    /**
+     * Marks the identifier as used for the maximum lifetime and keeps a value
+     * along with it. This is for values whose expiration is not known.
+     *
+     * @param id
+     *            identifier
+     * @param value
+     *            value that is kept, may be <code>null</code>
+     * @return <code>true</code> if this is the first use, <code>false</code>
+     *         if it was already used.
+     */
+    public boolean markUsed(final String id,
+        final String value) {
+
+        if (isUsed(id)) {
+            return false;
+        }
+        return markUsed(id, System.currentTimeMillis() + maxLifetimeMillis, value);
+    }
+
+    /**
+     * Marks the identifier as used.
+     *
+     * @param id
+     *            identifier
+     * @param expiresAt
+     *            expiration of the value in milliseconds since the epoch
+     * @return <code>true</code> if this is the first use, <code>false</code>
+     *         if it was already used or it expired so long ago that it cannot
+     *         be tracked anymore.
+     * @throws IllegalArgumentException
+     *             if the expiration is further in the future than the
+     *             detector can track.
+     */
+    public boolean markUsed(final String id,
+        final long expiresAt) {
+
+        return markUsed(id, expiresAt, null);
+    }
+
+    private boolean markUsed(final String id,
+        final long expiresAt,
+        final String value) {
+
+        final long epoch = expiresAt / bucketMillis;
+        final long currentEpoch = System.currentTimeMillis() / bucketMillis;
+        if (epoch - currentEpoch >= buckets.length - 1) {
+            throw new IllegalArgumentException("expiration is beyond the tracked lifetime");
+        }
+        final long hash = hash(id);
+        final Bucket bucket = getBucket(epoch);
+        synchronized (bucket) {
+            if (bucket.epoch > epoch) {
+                return false;
+            }
+            if (bucket.epoch < epoch) {
+                bucket.ids.clear();
+                if (bucket.bits != null) {
+                    Arrays.fill(bucket.bits, 0L);
+                }
+                bucket.overflowed = false;
+                bucket.epoch = epoch;
+            } else if (contains(bucket, id, hash)) {
+                return false;
+            }
+            add(bucket, id, value, hash);
+            return true;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import net.trajano.openidconnect.auth.AuthenticationRequest;
 import net.trajano.openidconnect.core.Scope;
 import net.trajano.openidconnect.token.IdToken;
 import net.trajano.openidconnect.token.IdTokenResponse;
+import net.trajano.openidconnect.token.TokenResponse;
 
 /**
  * This provides storage and retrieval for the token responses. Implementers
@@ -78,7 +79,65 @@ public interface TokenProvider {
             AuthenticationRequest request) throws IOException,
                     GeneralSecurityException;
 
+    /**
+     * Gets the token response that was stored for the exact consent.
+     *
+     * @param consent
+     *            consent
+     * @return token response
+     * @deprecated consent is tracked separately from the token responses, use
+     *             {@link #isConsented(Consent)}.
+     */
+    @Deprecated
     IdTokenResponse getByConsent(Consent consent);
 
+    /**
+     * Checks if the subject has consented to at least the scopes in the
+     * consent for the client. Consent is recorded when a token is created
+     * through {@link #createNewToken(String, URI, AuthenticationRequest)}.
+     *
+     * @param consent
+     *            requested consent
+     * @return <code>true</code> if consented.
+     */
+    boolean isConsented(Consent consent);
+
+    /**
+     * Gets an access token for the <code>client_credentials</code> grant. The
+     * client must already be authenticated. Implementations may return the
+     * same token to multiple requests while it is still valid.
+     *
+     * @param clientId
+     *            authenticated client ID
+     * @param issuerUri
+     *            issuer URI
+     * @param scopes
+     *            requested scopes, may be empty
+     * @return token response without a refresh token
+     */
+    TokenResponse getClientCredentialsToken(@NotNull String clientId,
+            @NotNull URI issuerUri,
+            @NotNull Set<Scope> scopes);
+
+    /**
+     * Gets an access token for the <code>client_credentials</code> grant only
+     * if one can be returned without signing, such as a token that was issued
+     * to an earlier request and is still valid. This is called on the request
+     * thread so it must not perform any cryptographic work.
+     *
+     * @param clientId
+     *            authenticated client ID
+     * @param issuerUri
+     *            issuer URI
+     * @param scopes
+     *            requested scopes, may be empty
+     * @return token response without a refresh token or <code>null</code> if
+     *         one has to be obtained through
+     *         {@link #getClientCredentialsToken(String, URI, Set)}.
+     */
+    TokenResponse getCachedClientCredentialsToken(@NotNull String clientId,
+            @NotNull URI issuerUri,
+            @NotNull Set<Scope> scopes);
+
     JsonObject getClaimsByAccessToken(String accessToken);
 }
@@ -1,5 +1,7 @@
 package net.trajano.openidconnect.provider.spi;
 
+import java.util.Map;
+
 import javax.json.JsonObject;
 
 import net.trajano.openidconnect.token.IdToken;
@@ -12,8 +14,42 @@ import net.trajano.openidconnect.token.IdTokenResponse;
  */
 public interface TokenStorage {
 
+    /**
+     * <p>
+     * Adds the refresh token family to the grants of the subject so it is
+     * returned by {@link #getBySubject(String)}. This is called after the
+     * response that starts the family is stored.
+     * </p>
+     * <p>
+     * The subject is the local subject given by the {@link Authenticator}
+     * which may differ from the <code>sub</code> of the stored ID token when
+     * pairwise subjects are used.
+     * </p>
+     * 
+     * @param subject
+     *            local subject
+     * @param family
+     *            family ID
+     */
+    void addSubjectGrant(String subject,
+            String family);
+
     IdTokenResponse getByAccessToken(String accessToken);
 
+    /**
+     * <p>
+     * Gets the local subject that was passed to
+     * {@link #addSubjectGrant(String, String)} for the family. This is used to
+     * resolve pairwise subjects on any node rather than only on the node that
+     * issued the token.
+     * </p>
+     * 
+     * @param family
+     *            family ID
+     * @return local subject or <code>null</code> if the family is not known.
+     */
+    String getLocalSubject(String family);
+
     JsonObject getClaimsByAccessToken(String accessToken);
 
     /**
@@ -24,6 +60,107 @@ public interface TokenStorage {
      */
     IdTokenResponse getByCode(String code);
 
+    /**
+     * Gets the response by refresh token. This only returns the response if
+     * the refresh token is the current one for its family.
+     * 
+     * @param refreshToken
+     *            refresh token
+     * @return the {@link IdTokenResponse} or <code>null</code> if the refresh
+     *         token is not current.
+     */
+    IdTokenResponse getByRefreshToken(String refreshToken);
+
+    /**
+     * Gets the current response of every refresh token family that was
+     * granted to the subject and has not been revoked. This is expected to be
+     * an index lookup rather than a scan of the storage.
+     * 
+     * @param subject
+     *            local subject
+     * @return current token responses keyed by family ID, empty if the
+     *         subject has no grants.
+     */
+    Map<String, IdTokenResponse> getBySubject(String subject);
+
+    /**
+     * <p>
+     * Gets the refresh token family that the refresh token belongs to. A family
+     * is started when a response is stored and its ID is the refresh token that
+     * was issued at that time. Every refresh token that has been rotated out
+     * of the family still resolves to the family so that reuse can be
+     * detected.
+     * </p>
+     * 
+     * @param refreshToken
+     *            refresh token
+     * @return family ID or <code>null</code> if the refresh token is not known.
+     */
+    String getRefreshTokenFamily(String refreshToken);
+
+    /**
+     * <p>
+     * Gets the response that the refresh token was just rotated into. This
+     * only returns the response if the refresh token was the current one for
+     * its family immediately before the latest rotation, the rotation
+     * happened within a short grace period chosen by the storage and the
+     * family has not been revoked.
+     * </p>
+     * <p>
+     * This lets parallel refreshes of the same token that are handled by
+     * different nodes receive the result of the rotation that won rather than
+     * being treated as reuse.
+     * </p>
+     * 
+     * @param refreshToken
+     *            refresh token that was presented
+     * @return the current {@link IdTokenResponse} of the family or
+     *         <code>null</code> if the refresh token was not rotated recently.
+     */
+    IdTokenResponse getRotatedResponse(String refreshToken);
+
+    /**
+     * <p>
+     * Atomically replaces the current refresh token of the family with the one
+     * in the new response. This only succeeds if the expected refresh token is
+     * still the current one for the family and the family has not been
+     * revoked.
+     * </p>
+     * <p>
+     * On success the mappings for the previous access token and refresh token
+     * are removed and the new response is stored as per
+     * {@link #store(IdToken, IdTokenResponse, JsonObject)} except that it is
+     * added to the existing family rather than starting a new one.
+     * </p>
+     * 
+     * @param family
+     *            family ID
+     * @param expectedRefreshToken
+     *            refresh token that is expected to be current
+     * @param idToken
+     *            id token
+     * @param idTokenResponse
+     *            new token response
+     * @param claims
+     *            claims requested
+     * @return <code>true</code> if the rotation was performed.
+     */
+    boolean rotateRefreshToken(String family,
+            String expectedRefreshToken,
+            IdToken idToken,
+            IdTokenResponse idTokenResponse,
+            JsonObject claims);
+
+    /**
+     * Revokes every token in the family. This is expected to be a constant
+     * time operation as it only needs to mark the family as revoked and remove
+     * the mappings for its current access token and refresh token.
+     * 
+     * @param family
+     *            family ID
+     */
+    void revokeRefreshTokenFamily(String family);
+
     /**
      * Removes the mapping to the {@link IdTokenResponse} for a code.
      * 
@@ -81,12 +218,16 @@ public interface TokenStorage {
      * implementations of the {@link TokenStorage} that support composite key
      * building.
      * </p>
+     * <p>
+     * The {@link IdTokenResponse} carries the decoded {@link IdToken} (see
+     * {@link IdTokenResponse#getIdToken()}) so the provider does not need to
+     * verify its own signature when the response is retrieved. Implementations
+     * that serialize the response should retain it.
+     * </p>
      * 
      * <pre>
      * accessTokenToTokenResponse.put(idTokenResponse.getAccessToken(), idTokenResponse);
      * refreshTokenToTokenResponse.put(idTokenResponse.getRefreshToken(), idTokenResponse);
-     * Consent consent = new Consent(idToken, idTokenResponse);
-     * subjectAndClientIdToTokenResponse.put(consent, idTokenResponse);
      * </pre>
      * 
      * @param idToken
@@ -131,12 +272,66 @@ public interface TokenStorage {
             String code,
             JsonObject claims);
 
+    /**
+     * Consent is tracked by the {@link TokenProvider} so storage
+     * implementations do not need to keep a consent mapping and may return
+     * <code>null</code>. The default token provider keeps consent in a per
+     * node cache.
+     *
+     * @param consent
+     *            consent
+     * @return token response or <code>null</code>
+     * @deprecated use {@link TokenProvider#isConsented(Consent)}
+     */
+    @Deprecated
     IdTokenResponse getByConsent(Consent consent);
 
+    /**
+     * @param consent
+     *            consent
+     * @return removed token response or <code>null</code>
+     * @deprecated storage implementations do not need to keep a consent
+     *             mapping.
+     */
+    @Deprecated
     IdTokenResponse removeMappingForConsent(Consent consent);
 
-    void markCodeAsUsed(String code);
+    /**
+     * Records that the code was exchanged along with the refresh token family
+     * it granted. Codes only need to be remembered for a limited time, see
+     * {@link ReplayDetector} for a bounded implementation.
+     *
+     * @param code
+     *            code
+     * @param family
+     *            family ID, <code>null</code> if it is not known
+     */
+    void markCodeAsUsed(String code,
+        String family);
 
+    /**
+     * Checks if the code was exchanged already. An implementation that can
+     * give false positives, such as one backed by a filter, returns
+     * <code>true</code> when it is not sure so the code is rejected.
+     *
+     * @param code
+     *            code
+     * @return <code>true</code> if the code was used.
+     */
     boolean isCodeUsed(String code);
 
+    /**
+     * Gets the refresh token family that was granted by a code that is known
+     * for certain to have been exchanged already. This is only called after
+     * {@link #isCodeUsed(String)} returns <code>true</code> to find the family
+     * that is revoked, a code whose use cannot be confirmed is rejected
+     * without revoking anything.
+     *
+     * @param code
+     *            code
+     * @return family ID passed to {@link #markCodeAsUsed(String, String)} or
+     *         <code>null</code> if the use of the code cannot be confirmed.
+     */
+    String getUsedCodeFamily(String code);
+
 }
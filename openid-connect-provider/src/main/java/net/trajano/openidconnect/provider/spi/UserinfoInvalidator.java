@@ -0,0 +1,27 @@
+package net.trajano.openidconnect.provider.spi;
+
+/**
+ * <p>
+ * Invalidation hooks for cached {@link net.trajano.openidconnect.userinfo.Userinfo}
+ * data. A {@link UserinfoProvider} whose backing data changes can inject this
+ * using <code>@EJB</code> and call it so the change is visible before the
+ * cached entry expires.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public interface UserinfoInvalidator {
+
+    /**
+     * Discards the cached user info for the subject.
+     *
+     * @param subject
+     *            subject
+     */
+    void invalidate(String subject);
+
+    /**
+     * Discards all cached user info.
+     */
+    void invalidateAll();
+}
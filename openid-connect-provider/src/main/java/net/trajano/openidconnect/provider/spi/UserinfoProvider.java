@@ -5,7 +5,18 @@ import net.trajano.openidconnect.token.IdToken;
 import net.trajano.openidconnect.userinfo.Userinfo;
 
 /**
+ * <p>
  * The user info provider
+ * </p>
+ * <p>
+ * The user info endpoint may cache the result of
+ * {@link #getUserinfo(IdToken)} per subject when the
+ * <code>userinfoCacheSeconds</code> environment entry is set. In that case the
+ * user info returned for a subject must not depend on the client and the
+ * implementation should call {@link UserinfoInvalidator} when the data for a
+ * subject changes. The <code>updated_at</code> claim is used to build the
+ * entity tag of the response so it should be set.
+ * </p>
  *
  * @author Archimedes
  */
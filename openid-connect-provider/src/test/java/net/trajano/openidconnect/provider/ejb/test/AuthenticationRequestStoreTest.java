@@ -0,0 +1,105 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import javax.json.Json;
+
+import net.trajano.openidconnect.auth.AuthenticationRequest;
+import net.trajano.openidconnect.core.OpenIdConnectException;
+import net.trajano.openidconnect.core.OpenIdConnectKey;
+import net.trajano.openidconnect.provider.ejb.AuthenticationRequestStore;
+
+import org.junit.Test;
+
+public class AuthenticationRequestStoreTest {
+
+    private static AuthenticationRequest buildRequest() throws Exception {
+
+        return new AuthenticationRequest(Json.createObjectBuilder()
+            .add(OpenIdConnectKey.CLIENT_ID, "client")
+            .add(OpenIdConnectKey.REDIRECT_URI, "https://client.example/cb")
+            .add(OpenIdConnectKey.RESPONSE_TYPE, "code")
+            .add(OpenIdConnectKey.SCOPE, "openid")
+            .build());
+    }
+
+    private static void assertExpired(final AuthenticationRequestStore store,
+        final String handle) throws Exception {
+
+        try {
+            store.resolve(handle);
+            fail("expected the handle to be expired");
+        } catch (final OpenIdConnectException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+
+        final AuthenticationRequestStore store = new AuthenticationRequestStore();
+        assertFalse(store.isEnabled());
+        assertNull(store.put(buildRequest()));
+        assertEquals(0, store.getStoredCount());
+    }
+
+    @Test
+    public void testExpiredHandle() throws Exception {
+
+        final AuthenticationRequestStore store = new AuthenticationRequestStore();
+        store.setTtlSeconds(1);
+        final String handle = store.put(buildRequest());
+        Thread.sleep(1100);
+
+        assertExpired(store, handle);
+        assertEquals(1, store.getStoredCount());
+        store.evict();
+        assertEquals(0, store.getStoredCount());
+    }
+
+    @Test
+    public void testIssueResolveRemove() throws Exception {
+
+        final AuthenticationRequestStore store = new AuthenticationRequestStore();
+        store.setTtlSeconds(60);
+        final AuthenticationRequest request = buildRequest();
+
+        final String handle = store.put(request);
+        assertNotNull(handle);
+        assertEquals(-1, handle.indexOf('.'));
+        assertSame(request, store.resolve(handle));
+
+        // a live handle is kept by eviction
+        store.evict();
+        assertSame(request, store.resolve(handle));
+
+        store.remove(handle);
+        assertEquals(0, store.getStoredCount());
+        assertExpired(store, handle);
+    }
+
+    @Test
+    public void testStoreFull() throws Exception {
+
+        final AuthenticationRequestStore store = new AuthenticationRequestStore();
+        store.setTtlSeconds(60);
+        store.setMaxEntries(1);
+
+        assertNotNull(store.put(buildRequest()));
+        assertNull(store.put(buildRequest()));
+        assertEquals(1, store.getStoredCount());
+    }
+
+    @Test(expected = OpenIdConnectException.class)
+    public void testUnknownHandle() throws Exception {
+
+        final AuthenticationRequestStore store = new AuthenticationRequestStore();
+        store.setTtlSeconds(60);
+        store.resolve("unknown");
+    }
+}
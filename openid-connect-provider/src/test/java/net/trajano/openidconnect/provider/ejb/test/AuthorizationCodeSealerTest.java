@@ -0,0 +1,98 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.trajano.openidconnect.crypto.JsonWebKey;
+import net.trajano.openidconnect.provider.ejb.AuthorizationCodeSealer;
+import net.trajano.openidconnect.provider.ejb.AuthorizationCodeSealer.SealedCode;
+import net.trajano.openidconnect.provider.ejb.DefaultKeyProvider;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AuthorizationCodeSealerTest {
+
+    private static DefaultKeyProvider keyProvider;
+
+    private static AuthorizationCodeSealer buildSealer(final int codeSeconds) {
+
+        final AuthorizationCodeSealer sealer = new AuthorizationCodeSealer();
+        sealer.setKeyProvider(keyProvider);
+        sealer.setCodeSeconds(codeSeconds);
+        sealer.init();
+        return sealer;
+    }
+
+    @BeforeClass
+    public static void setupKeyProvider() {
+
+        keyProvider = new DefaultKeyProvider();
+        keyProvider.generateKeys();
+    }
+
+    @Test
+    public void testConsumeOnce() throws Exception {
+
+        final AuthorizationCodeSealer sealer = buildSealer(60);
+        final String code = sealer.seal("accessToken");
+
+        final SealedCode sealedCode = sealer.open(code);
+        assertFalse(sealer.isConsumed(sealedCode));
+        assertTrue(sealer.consume(sealedCode));
+        assertTrue(sealer.isConsumed(sealer.open(code)));
+        assertFalse(sealer.consume(sealer.open(code)));
+    }
+
+    @Test
+    public void testExpiredCode() throws Exception {
+
+        final AuthorizationCodeSealer sealer = buildSealer(0);
+        assertNull(sealer.open(sealer.seal("accessToken")));
+    }
+
+    @Test
+    public void testSealOpen() throws Exception {
+
+        final AuthorizationCodeSealer sealer = buildSealer(60);
+        final String code = sealer.seal("accessToken");
+        assertTrue(AuthorizationCodeSealer.isSealed(code));
+        assertTrue(code.startsWith(keyProvider.getSecretKeyId() + "."));
+
+        final SealedCode sealedCode = sealer.open(code);
+        assertNotNull(sealedCode);
+        assertEquals("accessToken", sealedCode.getAccessToken());
+    }
+
+    @Test
+    public void testTamperedCipherText() throws Exception {
+
+        final AuthorizationCodeSealer sealer = buildSealer(60);
+        final String code = sealer.seal("accessToken");
+
+        final int i = code.indexOf('.') + 20;
+        final char replacement = code.charAt(i) == 'A' ? 'B' : 'A';
+        assertNull(sealer.open(code.substring(0, i) + replacement + code.substring(i + 1)));
+        assertNull(sealer.open(code.substring(0, code.length() - 4)));
+    }
+
+    @Test
+    public void testTamperedKid() throws Exception {
+
+        final AuthorizationCodeSealer sealer = buildSealer(60);
+        final String code = sealer.seal("accessToken");
+        final String data = code.substring(code.indexOf('.'));
+
+        assertNull(sealer.open("unknown" + data));
+        for (final JsonWebKey jwk : keyProvider.getPrivateJwks()
+            .getKeys()) {
+            if (!jwk.getKid()
+                .equals(keyProvider.getSecretKeyId())) {
+                assertNull(sealer.open(jwk.getKid() + data));
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.EnumSet;
+import java.util.Set;
+
+import net.trajano.openidconnect.core.Scope;
+import net.trajano.openidconnect.provider.ejb.ClientCredentialsTokenCache;
+import net.trajano.openidconnect.provider.ejb.DefaultKeyProvider;
+import net.trajano.openidconnect.provider.spi.KeyProvider;
+import net.trajano.openidconnect.provider.spi.TokenStorage;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The tests control when tokens are due for refresh or expire through the
+ * token lifetime and the refresh ahead percentage rather than waiting.
+ */
+public class ClientCredentialsTokenCacheTest {
+
+    private static final URI ISSUER = URI.create("https://op.example");
+
+    private static final Set<Scope> SCOPES = EnumSet.of(Scope.openid);
+
+    private static DefaultKeyProvider signingKeyProvider;
+
+    @BeforeClass
+    public static void setupKeyProvider() {
+
+        signingKeyProvider = new DefaultKeyProvider();
+        signingKeyProvider.generateKeys();
+    }
+
+    private KeyProvider keyProvider;
+
+    /**
+     * Builds a cache whose key provider counts the signatures through the
+     * token IDs that are requested.
+     *
+     * @param lifetime
+     *            token lifetime in seconds, tokens expire immediately if 0
+     * @param refreshAheadPercent
+     *            tokens are due for refresh immediately if 100
+     * @return cache
+     */
+    private ClientCredentialsTokenCache buildCache(final int lifetime,
+        final int refreshAheadPercent) {
+
+        keyProvider = mock(KeyProvider.class);
+        when(keyProvider.getPrivateJwks()).thenReturn(signingKeyProvider.getPrivateJwks());
+        when(keyProvider.nextEncodedToken()).thenReturn("jti1", "jti2", "jti3", "jti4");
+        final TokenStorage tokenStorage = mock(TokenStorage.class);
+        when(tokenStorage.getDefaultExpiration()).thenReturn(lifetime);
+
+        final ClientCredentialsTokenCache cache = new ClientCredentialsTokenCache();
+        cache.setKeyProvider(keyProvider);
+        cache.setRefreshAheadPercent(refreshAheadPercent);
+        cache.setTokenStorage(tokenStorage);
+        return cache;
+    }
+
+    @Test
+    public void testGetCachedTokenNeverSigns() {
+
+        final ClientCredentialsTokenCache cache = buildCache(3600, 25);
+        assertNull(cache.getCachedToken("client", ISSUER, SCOPES));
+        verify(keyProvider, never()).nextEncodedToken();
+
+        final String accessToken = cache.getToken("client", ISSUER, SCOPES)
+            .getAccessToken();
+        assertEquals(accessToken, cache.getCachedToken("client", ISSUER, SCOPES)
+            .getAccessToken());
+        assertEquals(accessToken, cache.getToken("client", ISSUER, SCOPES)
+            .getAccessToken());
+        assertNull(cache.getCachedToken("client", ISSUER, EnumSet.of(Scope.openid, Scope.profile)));
+        assertNull(cache.getCachedToken("other", ISSUER, SCOPES));
+        verify(keyProvider, times(1)).nextEncodedToken();
+    }
+
+    @Test
+    public void testGetCachedTokenNeverSignsExpiredToken() {
+
+        final ClientCredentialsTokenCache cache = buildCache(0, 25);
+        cache.getToken("client", ISSUER, SCOPES);
+        assertNull(cache.getCachedToken("client", ISSUER, SCOPES));
+        verify(keyProvider, times(1)).nextEncodedToken();
+    }
+
+    @Test
+    public void testIssuerIsNotPartOfTheKey() {
+
+        final ClientCredentialsTokenCache cache = buildCache(3600, 25);
+        cache.getToken("client", ISSUER, SCOPES);
+        assertNull(cache.getCachedToken("client", URI.create("https://other.example"), SCOPES));
+
+        cache.getToken("client", URI.create("https://other.example"), SCOPES);
+        assertEquals(1, cache.getEntryCount());
+        assertNull(cache.getCachedToken("client", ISSUER, SCOPES));
+        verify(keyProvider, times(2)).nextEncodedToken();
+    }
+
+    @Test
+    public void testRefreshAheadDropsUnusedExpiredTokens() {
+
+        final ClientCredentialsTokenCache cache = buildCache(0, 25);
+        cache.getToken("client", ISSUER, SCOPES);
+
+        // the token was handed out so it is re-signed once
+        cache.refreshAhead();
+        verify(keyProvider, times(2)).nextEncodedToken();
+        assertEquals(1, cache.getEntryCount());
+
+        // the re-signed token expired without being used
+        cache.refreshAhead();
+        verify(keyProvider, times(2)).nextEncodedToken();
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testRefreshAheadResignsOnlyUsedTokens() {
+
+        final ClientCredentialsTokenCache cache = buildCache(3600, 100);
+        final String accessToken = cache.getToken("client", ISSUER, SCOPES)
+            .getAccessToken();
+
+        cache.refreshAhead();
+        verify(keyProvider, times(2)).nextEncodedToken();
+        final String refreshedAccessToken = cache.getCachedToken("client", ISSUER, SCOPES)
+            .getAccessToken();
+        assertNotEquals(accessToken, refreshedAccessToken);
+
+        // the refreshed token was handed out by getCachedToken
+        cache.refreshAhead();
+        verify(keyProvider, times(3)).nextEncodedToken();
+
+        // the latest token was not handed out and has not expired
+        cache.refreshAhead();
+        verify(keyProvider, times(3)).nextEncodedToken();
+        assertEquals(1, cache.getEntryCount());
+    }
+}
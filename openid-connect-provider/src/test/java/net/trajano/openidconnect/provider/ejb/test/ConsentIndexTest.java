@@ -0,0 +1,35 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+
+import net.trajano.openidconnect.core.Scope;
+import net.trajano.openidconnect.provider.ejb.ConsentIndex;
+import net.trajano.openidconnect.provider.spi.Consent;
+
+import org.junit.Test;
+
+public class ConsentIndexTest {
+
+    @Test
+    public void testSupersetConsent() {
+
+        final ConsentIndex index = new ConsentIndex();
+        index.grant(new Consent("sub", "client", EnumSet.of(Scope.openid, Scope.profile, Scope.email)));
+
+        assertTrue(index.isConsented(new Consent("sub", "client", EnumSet.of(Scope.openid, Scope.profile))));
+        assertTrue(index.isConsented(new Consent("sub", "client", EnumSet.of(Scope.openid, Scope.profile, Scope.email))));
+        assertFalse(index.isConsented(new Consent("sub", "client", EnumSet.of(Scope.openid, Scope.address))));
+        assertFalse(index.isConsented(new Consent("sub", "other", EnumSet.of(Scope.openid))));
+        assertFalse(index.isConsented(new Consent("other", "client", EnumSet.of(Scope.openid))));
+
+        // granting again merges the scopes
+        index.grant(new Consent("sub", "client", EnumSet.of(Scope.openid, Scope.address)));
+        assertTrue(index.isConsented(new Consent("sub", "client", EnumSet.of(Scope.address, Scope.email))));
+
+        index.revoke("sub", "client");
+        assertFalse(index.isConsented(new Consent("sub", "client", EnumSet.of(Scope.openid))));
+    }
+}
@@ -0,0 +1,225 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.ejb.EJB;
+
+import net.trajano.openidconnect.crypto.Encoding;
+import net.trajano.openidconnect.provider.endpoints.TokenEndpoint;
+
+/**
+ * <p>
+ * Approximates the per call work that the container did for the endpoints
+ * and the default SPI beans before they were made singletons, relative to
+ * calling a shared instance directly:
+ * </p>
+ * <ul>
+ * <li>request scoped endpoint: a new {@link TokenEndpoint} is created and
+ * each of its <code>&#064;EJB</code> fields is injected by reflection. This is
+ * a lower bound as CDI also creates a contextual instance and a proxy.</li>
+ * <li>pooled stateless bean: an instance is taken from and returned to a
+ * bounded pool.</li>
+ * <li>container managed singleton: a read lock is taken around the call.</li>
+ * <li><code>nextEncodedToken</code>: a write lock is taken around the random
+ * token generation as <code>DefaultKeyProvider</code> did.</li>
+ * </ul>
+ * <p>
+ * Each case is run with one thread and with one thread per processor. The
+ * loop and the clock add to every case so the overhead is the difference from
+ * the shared instance. This is not run as part of the build, run the
+ * <code>main</code> method with the test class path.
+ * </p>
+ * <p>
+ * No container is involved so the pool, the container lock and the injection
+ * are stand-ins. The results illustrate the relative cost of that work rather
+ * than measure the dispatch of a particular container.
+ * </p>
+ */
+public class ContainerOverheadBenchmark {
+
+    /**
+     * Call being measured.
+     */
+    private interface Call {
+
+        Object call() throws Exception;
+    }
+
+    private static final long DURATION_NANOS = 3000000000L;
+
+    private static final List<Field> EJB_FIELDS = new ArrayList<>();
+
+    private static final ReentrantReadWriteLock LOCK = new ReentrantReadWriteLock();
+
+    private static final int POOL_SIZE = 32;
+
+    private static final BlockingQueue<Object> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private static final Object SHARED = new Object();
+
+    static {
+        for (final Field field : TokenEndpoint.class.getDeclaredFields()) {
+            if (field.isAnnotationPresent(EJB.class)) {
+                field.setAccessible(true);
+                EJB_FIELDS.add(field);
+            }
+        }
+        for (int i = 0; i < POOL_SIZE; ++i) {
+            POOL.add(new Object());
+        }
+    }
+
+    /**
+     * Stands in for the business method, cheap enough that the container work
+     * dominates.
+     */
+    private static Object businessMethod(final Object instance) {
+
+        return instance.hashCode();
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        final int processors = Runtime.getRuntime()
+            .availableProcessors();
+        System.out.println("case\tthreads\tns/call");
+        for (final int threads : processors == 1 ? new int[] {
+            1 } : new int[] {
+            1,
+            processors }) {
+            report("shared instance", threads, new Call() {
+
+                @Override
+                public Object call() {
+
+                    return businessMethod(SHARED);
+                }
+            });
+            report("request scoped endpoint", threads, new Call() {
+
+                @Override
+                public Object call() throws Exception {
+
+                    final TokenEndpoint endpoint = new TokenEndpoint();
+                    for (final Field field : EJB_FIELDS) {
+                        field.set(endpoint, null);
+                    }
+                    return businessMethod(endpoint);
+                }
+            });
+            report("pooled stateless bean", threads, new Call() {
+
+                @Override
+                public Object call() throws Exception {
+
+                    final Object instance = POOL.take();
+                    try {
+                        return businessMethod(instance);
+                    } finally {
+                        POOL.add(instance);
+                    }
+                }
+            });
+            report("container read lock", threads, new Call() {
+
+                @Override
+                public Object call() {
+
+                    final Lock lock = LOCK.readLock();
+                    lock.lock();
+                    try {
+                        return businessMethod(SHARED);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+            report("token, no lock", threads, new Call() {
+
+                @Override
+                public Object call() {
+
+                    return nextEncodedToken();
+                }
+            });
+            report("token, write lock", threads, new Call() {
+
+                @Override
+                public Object call() {
+
+                    final Lock lock = LOCK.writeLock();
+                    lock.lock();
+                    try {
+                        return nextEncodedToken();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        }
+    }
+
+    private static String nextEncodedToken() {
+
+        final byte[] randomTokenBytes = new byte[16];
+        ThreadLocalRandom.current()
+            .nextBytes(randomTokenBytes);
+        return Encoding.base64urlEncode(randomTokenBytes);
+    }
+
+    private static void report(final String name,
+        final int threads,
+        final Call call) throws Exception {
+
+        // warm up
+        run(threads, call, DURATION_NANOS / 3);
+        final long calls = run(threads, call, DURATION_NANOS);
+        System.out.println(String.format("%s\t%d\t%.1f", name, threads, (double) DURATION_NANOS * threads / calls));
+    }
+
+    /**
+     * Runs the call on the threads for the duration.
+     *
+     * @return total number of calls
+     */
+    private static long run(final int threads,
+        final Call call,
+        final long durationNanos) throws Exception {
+
+        final AtomicLong total = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; ++i) {
+            new Thread() {
+
+                @Override
+                public void run() {
+
+                    long count = 0;
+                    final long start = System.nanoTime();
+                    try {
+                        while (System.nanoTime() - start < durationNanos) {
+                            call.call();
+                            ++count;
+                        }
+                    } catch (final Exception e) {
+                        throw new IllegalStateException(e);
+                    } finally {
+                        total.addAndGet(count);
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        return total.get();
+    }
+}
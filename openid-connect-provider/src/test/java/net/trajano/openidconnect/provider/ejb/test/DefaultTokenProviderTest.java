@@ -0,0 +1,172 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.json.Json;
+
+import net.trajano.openidconnect.provider.ejb.AuthorizationCodeSealer;
+import net.trajano.openidconnect.provider.ejb.DefaultKeyProvider;
+import net.trajano.openidconnect.provider.ejb.DefaultTokenProvider;
+import net.trajano.openidconnect.provider.ejb.ProviderMetrics;
+import net.trajano.openidconnect.provider.ejb.RefreshTokenSingleFlight;
+import net.trajano.openidconnect.provider.spi.TokenStorage;
+import net.trajano.openidconnect.token.IdToken;
+import net.trajano.openidconnect.token.IdTokenResponse;
+import net.trajano.openidconnect.token.TokenResponse;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class DefaultTokenProviderTest {
+
+    private static DefaultKeyProvider keyProvider;
+
+    private static IdTokenResponse buildResponse(final String accessToken,
+        final String refreshToken) {
+
+        final IdToken idToken = new IdToken();
+        idToken.setAud("client");
+        idToken.setIss("https://op.example");
+        idToken.setSub("sub");
+        final IdTokenResponse response = new IdTokenResponse();
+        response.setAccessToken(accessToken);
+        response.setRefreshToken(refreshToken);
+        response.setScope("openid");
+        response.setTokenType(TokenResponse.BEARER);
+        response.setIdToken(idToken);
+        return response;
+    }
+
+    @BeforeClass
+    public static void setupKeyProvider() {
+
+        keyProvider = new DefaultKeyProvider();
+        keyProvider.generateKeys();
+    }
+
+    private DefaultTokenProvider tokenProvider;
+
+    private TokenStorage tokenStorage;
+
+    @Before
+    public void setupTokenProvider() {
+
+        tokenStorage = mock(TokenStorage.class);
+        tokenProvider = new DefaultTokenProvider();
+        tokenProvider.setKeyProvider(keyProvider);
+        tokenProvider.setMetrics(new ProviderMetrics());
+        tokenProvider.setRefreshTokenSingleFlight(new RefreshTokenSingleFlight());
+        tokenProvider.setTokenStorage(tokenStorage);
+    }
+
+    @Test
+    public void testReplayedCodeRevokesFamily() throws Exception {
+
+        final IdTokenResponse response = buildResponse("a1", "r1");
+        when(tokenStorage.getByCode("code")).thenReturn(response);
+        when(tokenStorage.getRefreshTokenFamily("r1")).thenReturn("r1");
+
+        assertSame(response, tokenProvider.getByCode("code", true));
+        verify(tokenStorage).removeMappingForCode("code");
+        verify(tokenStorage).markCodeAsUsed("code", "r1");
+
+        when(tokenStorage.isCodeUsed("code")).thenReturn(true);
+        when(tokenStorage.getUsedCodeFamily("code")).thenReturn("r1");
+        assertNull(tokenProvider.getByCode("code", true));
+        verify(tokenStorage).revokeRefreshTokenFamily("r1");
+    }
+
+    @Test
+    public void testReplayedCodeWithoutConfirmedUseIsOnlyRejected() throws Exception {
+
+        when(tokenStorage.getByCode("code")).thenReturn(buildResponse("a1", "r1"));
+        when(tokenStorage.getRefreshTokenFamily("r1")).thenReturn("r1");
+        when(tokenStorage.isCodeUsed("code")).thenReturn(true);
+
+        assertNull(tokenProvider.getByCode("code", true));
+        verify(tokenStorage, never()).revokeRefreshTokenFamily("r1");
+    }
+
+    @Test
+    public void testReplayedSealedCodeRevokesFamily() throws Exception {
+
+        final AuthorizationCodeSealer codeSealer = new AuthorizationCodeSealer();
+        codeSealer.setKeyProvider(keyProvider);
+        codeSealer.init();
+        tokenProvider.setCodeSealer(codeSealer);
+
+        final IdTokenResponse response = buildResponse("a1", "r1");
+        when(tokenStorage.getByAccessToken("a1")).thenReturn(response);
+        when(tokenStorage.getRefreshTokenFamily("r1")).thenReturn("r1");
+
+        final String code = codeSealer.seal("a1");
+        assertSame(response, tokenProvider.getByCode(code, false));
+        assertSame(response, tokenProvider.getByCode(code, true));
+        verify(tokenStorage, never()).revokeRefreshTokenFamily("r1");
+
+        assertNull(tokenProvider.getByCode(code, true));
+        verify(tokenStorage).revokeRefreshTokenFamily("r1");
+        verify(tokenStorage).removeMappingForAccessToken("a1");
+        verify(tokenStorage).removeMappingForRefreshToken("r1");
+    }
+
+    @Test
+    public void testRefreshInGracePeriodGetsRotatedResponse() throws Exception {
+
+        final IdTokenResponse rotated = buildResponse("a2", "r2");
+        when(tokenStorage.getRefreshTokenFamily("r1")).thenReturn("r1");
+        when(tokenStorage.getRotatedResponse("r1")).thenReturn(rotated);
+
+        assertSame(rotated, tokenProvider.refreshToken("client", "r1", null, null));
+        verify(tokenStorage, never()).revokeRefreshTokenFamily("r1");
+    }
+
+    @Test
+    public void testRefreshLosingRotationRaceGetsWinningResponse() throws Exception {
+
+        final IdTokenResponse winner = buildResponse("a2", "r2");
+        when(tokenStorage.getRefreshTokenFamily("r1")).thenReturn("r1");
+        when(tokenStorage.getByRefreshToken("r1")).thenReturn(buildResponse("a1", "r1"));
+        when(tokenStorage.getClaimsByAccessToken("a1")).thenReturn(Json.createObjectBuilder()
+            .build());
+        // the compare-and-rotate is not stubbed so it reports a lost race
+        when(tokenStorage.getRotatedResponse("r1")).thenReturn(winner);
+
+        assertSame(winner, tokenProvider.refreshToken("client", "r1", null, null));
+        verify(tokenStorage, never()).revokeRefreshTokenFamily("r1");
+    }
+
+    @Test
+    public void testRefreshLosingRotationRaceAfterGracePeriodRevokesFamily() throws Exception {
+
+        when(tokenStorage.getRefreshTokenFamily("r1")).thenReturn("r1");
+        when(tokenStorage.getByRefreshToken("r1")).thenReturn(buildResponse("a1", "r1"));
+        when(tokenStorage.getClaimsByAccessToken("a1")).thenReturn(Json.createObjectBuilder()
+            .build());
+
+        assertNull(tokenProvider.refreshToken("client", "r1", null, null));
+        verify(tokenStorage).revokeRefreshTokenFamily("r1");
+    }
+
+    @Test
+    public void testRefreshTokenReuseAfterGracePeriodRevokesFamily() throws Exception {
+
+        when(tokenStorage.getRefreshTokenFamily("r1")).thenReturn("r1");
+
+        assertNull(tokenProvider.refreshToken("client", "r1", null, null));
+        verify(tokenStorage).revokeRefreshTokenFamily("r1");
+    }
+
+    @Test
+    public void testUnknownRefreshToken() throws Exception {
+
+        assertNull(tokenProvider.refreshToken("client", "r1", null, null));
+        verify(tokenStorage, never()).revokeRefreshTokenFamily("r1");
+    }
+}
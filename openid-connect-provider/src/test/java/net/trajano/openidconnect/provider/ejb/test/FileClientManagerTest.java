@@ -0,0 +1,107 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import net.trajano.openidconnect.internal.Log;
+import net.trajano.openidconnect.provider.ejb.FileClientManager;
+
+import org.junit.Test;
+
+public class FileClientManagerTest {
+
+    private static final class RecordingHandler extends Handler {
+
+        private final List<LogRecord> records = new ArrayList<>();
+
+        @Override
+        public void close() {
+
+        }
+
+        @Override
+        public void flush() {
+
+        }
+
+        @Override
+        public void publish(final LogRecord record) {
+
+            records.add(record);
+        }
+    }
+
+    private static void writeRegistry(final Path file,
+        final String secret,
+        final long modified) throws Exception {
+
+        Files.write(file, ("{\"clients\":[{\"client_id\":\"app\",\"client_secret\":\"" + secret + "\",\"redirect_uris\":[\"https://app.example.com/cb\"]}]}").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+    }
+
+    @Test
+    public void testInvalidFileReportedOnce() throws Exception {
+
+        final Path file = Files.createTempFile("clients", ".json");
+        final RecordingHandler handler = new RecordingHandler();
+        Log.getInstance()
+            .addHandler(handler);
+        try {
+            writeRegistry(file, "one", 1000000L);
+            final FileClientManager clientManager = new FileClientManager();
+            clientManager.setClientRegistryFile(file.toString());
+            clientManager.load();
+
+            Files.write(file, "not json".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(2000000L));
+            clientManager.refresh();
+            clientManager.refresh();
+            assertEquals(1, handler.records.size());
+            assertEquals("app", clientManager.authenticateClient("app", "one"));
+
+            writeRegistry(file, "two", 3000000L);
+            clientManager.refresh();
+            assertEquals(1, handler.records.size());
+            assertNull(clientManager.authenticateClient("app", "one"));
+            assertEquals("app", clientManager.authenticateClient("app", "two"));
+        } finally {
+            Log.getInstance()
+                .removeHandler(handler);
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMissingFileReportedOnce() throws Exception {
+
+        final Path file = Files.createTempFile("clients", ".json");
+        final RecordingHandler handler = new RecordingHandler();
+        Log.getInstance()
+            .addHandler(handler);
+        try {
+            writeRegistry(file, "one", 1000000L);
+            final FileClientManager clientManager = new FileClientManager();
+            clientManager.setClientRegistryFile(file.toString());
+            clientManager.load();
+
+            Files.delete(file);
+            clientManager.refresh();
+            clientManager.refresh();
+            assertEquals(1, handler.records.size());
+            assertEquals("app", clientManager.authenticateClient("app", "one"));
+        } finally {
+            Log.getInstance()
+                .removeHandler(handler);
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import java.io.ByteArrayOutputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPublicKey;
+
+import javax.ws.rs.core.MediaType;
+
+import net.trajano.openidconnect.crypto.EcWebKey;
+import net.trajano.openidconnect.crypto.JsonWebAlgorithm;
+import net.trajano.openidconnect.crypto.JsonWebKey;
+import net.trajano.openidconnect.crypto.JsonWebKeySet;
+import net.trajano.openidconnect.crypto.JsonWebTokenBuilder;
+import net.trajano.openidconnect.crypto.JsonWebTokenProcessor;
+import net.trajano.openidconnect.crypto.NamedEllipticCurve;
+import net.trajano.openidconnect.crypto.RsaWebKey;
+import net.trajano.openidconnect.rs.IdTokenProvider;
+import net.trajano.openidconnect.token.IdToken;
+
+/**
+ * <p>
+ * Measures the throughput of the signing key options of
+ * {@link net.trajano.openidconnect.provider.ejb.DefaultKeyProvider}. This is
+ * not run as part of the build, run the <code>main</code> method with the test
+ * class path.
+ * </p>
+ * <p>
+ * With the <code>jca</code> argument it measures the raw JCA signature
+ * operations on a {@value #JCA_PAYLOAD_SIZE} byte payload along with the key
+ * generation time and the JWS signature size. This is what the table of the
+ * <code>key-algorithms</code> site page reports. With the <code>jws</code>
+ * argument, the default, it measures end to end using the same ID token
+ * serialization and JWS code that
+ * {@link net.trajano.openidconnect.provider.ejb.DefaultTokenProvider#createNewToken}
+ * uses.
+ * </p>
+ */
+public class KeyAlgorithmBenchmark {
+
+    private static final long DURATION_NANOS = 5000000000L;
+
+    /**
+     * Number of keys generated to measure the key generation time.
+     */
+    private static final int GENERATED_KEYS = 10;
+
+    /**
+     * Payload size for the raw JCA measurements, roughly the size of a signed
+     * ID token.
+     */
+    private static final int JCA_PAYLOAD_SIZE = 600;
+
+    private static final String[][] OPTIONS = { { JsonWebAlgorithm.RS256, "1024" }, { JsonWebAlgorithm.RS256, "2048" }, { JsonWebAlgorithm.RS256, "3072" }, { "ES256", "256" }, { "ES384", "384" }, { "ES512", "521" } };
+
+    private static JsonWebKey[] generate(final String alg,
+        final int keySize) throws Exception {
+
+        final NamedEllipticCurve curve = JsonWebAlgorithm.getCurve(alg);
+        final JsonWebKey privateJwk;
+        final JsonWebKey publicJwk;
+        if (curve != null) {
+            final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+            keyPairGenerator.initialize(curve.toECParameterSpec());
+            final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            privateJwk = new EcWebKey("k", curve, (ECPrivateKey) keyPair.getPrivate(), (ECPublicKey) keyPair.getPublic());
+            publicJwk = new EcWebKey("k", curve, (ECPublicKey) keyPair.getPublic());
+        } else {
+            final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(keySize);
+            final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            privateJwk = new RsaWebKey("k", (RSAPrivateCrtKey) keyPair.getPrivate());
+            publicJwk = new RsaWebKey("k", (RSAPublicKey) keyPair.getPublic());
+        }
+        privateJwk.setAlg(alg);
+        publicJwk.setAlg(alg);
+        return new JsonWebKey[] { privateJwk, publicJwk };
+    }
+
+    /**
+     * Measures the raw JCA signature operations.
+     */
+    private static void jca() throws Exception {
+
+        final byte[] payload = new byte[JCA_PAYLOAD_SIZE];
+        System.out.println("alg\tsize\tsign/s\tverify/s\tkeygen ms\tsignature bytes");
+        for (final String[] option : OPTIONS) {
+            final String alg = option[0];
+            final int keySize = Integer.parseInt(option[1]);
+            final NamedEllipticCurve curve = JsonWebAlgorithm.getCurve(alg);
+
+            final long generateStart = System.nanoTime();
+            KeyPair keyPair = null;
+            for (int i = 0; i < GENERATED_KEYS; ++i) {
+                final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(curve != null ? "EC" : "RSA");
+                if (curve != null) {
+                    keyPairGenerator.initialize(curve.toECParameterSpec());
+                } else {
+                    keyPairGenerator.initialize(keySize);
+                }
+                keyPair = keyPairGenerator.generateKeyPair();
+            }
+            final double generateMillis = (System.nanoTime() - generateStart) / 1e6 / GENERATED_KEYS;
+
+            final Signature signer = Signature.getInstance(JsonWebAlgorithm.toJca(alg));
+            signer.initSign(keyPair.getPrivate());
+            final Signature verifier = Signature.getInstance(JsonWebAlgorithm.toJca(alg));
+            verifier.initVerify(keyPair.getPublic());
+
+            // warm up and sample signature
+            byte[] signature = null;
+            for (int i = 0; i < 200; ++i) {
+                signer.update(payload);
+                signature = signer.sign();
+                verifier.update(payload);
+                verifier.verify(signature);
+            }
+
+            long count = 0;
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < DURATION_NANOS) {
+                signer.update(payload);
+                signer.sign();
+                ++count;
+            }
+            final double signRate = count * 1e9 / (System.nanoTime() - start);
+
+            count = 0;
+            start = System.nanoTime();
+            while (System.nanoTime() - start < DURATION_NANOS) {
+                verifier.update(payload);
+                verifier.verify(signature);
+                ++count;
+            }
+            final double verifyRate = count * 1e9 / (System.nanoTime() - start);
+
+            // JWS uses R || S for ECDSA rather than the DER form of JCA
+            final int signatureSize;
+            if (curve != null) {
+                signatureSize = 2 * ((((ECPublicKey) keyPair.getPublic()).getParams()
+                    .getCurve()
+                    .getField()
+                    .getFieldSize() + 7) / 8);
+            } else {
+                signatureSize = signature.length;
+            }
+            System.out.println(String.format("%s\t%s\t%.0f\t%.0f\t%.1f\t%d", alg, option[1], signRate, verifyRate, generateMillis, signatureSize));
+        }
+    }
+
+    /**
+     * Measures end to end using the ID token serialization and JWS code.
+     */
+    private static void jws() throws Exception {
+
+        final IdToken idToken = new IdToken();
+        idToken.setSub("subject");
+        idToken.setAud("client");
+        idToken.setAzp("client");
+        idToken.setIss("https://op.example.com");
+        idToken.setNonce("nonce");
+        idToken.setAcr("0");
+        idToken.resetIssueAndExpiration(3600);
+
+        System.out.println("alg\tsize\tsign/s\tverify/s");
+        for (final String[] option : OPTIONS) {
+            final JsonWebKey[] keys = generate(option[0], Integer.parseInt(option[1]));
+            final JsonWebKeySet privateJwks = new JsonWebKeySet();
+            privateJwks.add(keys[0]);
+            final JsonWebKeySet jwks = new JsonWebKeySet();
+            jwks.add(keys[1]);
+
+            // warm up and sample token
+            String token = null;
+            for (int i = 0; i < 200; ++i) {
+                token = sign(idToken, privateJwks);
+                new JsonWebTokenProcessor(token).jwks(jwks)
+                    .getPayload();
+            }
+
+            long count = 0;
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < DURATION_NANOS) {
+                sign(idToken, privateJwks);
+                ++count;
+            }
+            final double signRate = count * 1e9 / (System.nanoTime() - start);
+
+            count = 0;
+            start = System.nanoTime();
+            while (System.nanoTime() - start < DURATION_NANOS) {
+                new JsonWebTokenProcessor(token).jwks(jwks)
+                    .getPayload();
+                ++count;
+            }
+            final double verifyRate = count * 1e9 / (System.nanoTime() - start);
+
+            System.out.println(String.format("%s\t%s\t%.0f\t%.0f", option[0], option[1], signRate, verifyRate));
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        if (args.length > 0 && "jca".equals(args[0])) {
+            jca();
+        } else {
+            jws();
+        }
+    }
+
+    private static String sign(final IdToken idToken,
+        final JsonWebKeySet privateJwks) throws Exception {
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new IdTokenProvider().writeTo(idToken, IdToken.class, IdToken.class, null, MediaType.APPLICATION_JSON_TYPE, null, baos);
+        baos.close();
+        return new JsonWebTokenBuilder().jwk(privateJwks)
+            .payload(baos.toByteArray())
+            .toString();
+    }
+}
@@ -1,9 +1,13 @@
 package net.trajano.openidconnect.provider.ejb.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -13,8 +17,10 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Providers;
 
+import net.trajano.openidconnect.crypto.JsonWebKey;
 import net.trajano.openidconnect.crypto.JsonWebKeySet;
 import net.trajano.openidconnect.provider.ejb.DefaultKeyProvider;
+import net.trajano.openidconnect.provider.spi.EncodedJsonWebKeySet;
 import net.trajano.openidconnect.rs.JsonWebKeyProvider;
 import net.trajano.openidconnect.rs.JsonWebKeySetProvider;
 
@@ -36,6 +42,26 @@ public class KeyProviderTest {
         KeyProviderTest.providers = providers;
     }
 
+    @Test
+    public void testEncodedJwks() throws Exception {
+
+        final DefaultKeyProvider keyProvider = new DefaultKeyProvider();
+        keyProvider.generateKeys();
+
+        final EncodedJsonWebKeySet encodedJwks = keyProvider.getEncodedJwks();
+        assertSame(encodedJwks, keyProvider.getEncodedJwks());
+        assertSame(keyProvider.getJwks(), encodedJwks.getJwks());
+
+        final MessageBodyWriter<JsonWebKeySet> writer = providers.getMessageBodyWriter(JsonWebKeySet.class, null, null, MediaType.APPLICATION_JSON_TYPE);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writer.writeTo(keyProvider.getJwks(), JsonWebKeySet.class, null, null, MediaType.APPLICATION_JSON_TYPE, null, baos);
+        baos.close();
+        assertEquals(Json.createReader(new ByteArrayInputStream(baos.toByteArray()))
+                .readObject(), Json.createReader(new ByteArrayInputStream(encodedJwks.getBytes()))
+                .readObject());
+        assertEquals(new EncodedJsonWebKeySet(keyProvider.getJwks()).getEntityTag(), encodedJwks.getEntityTag());
+    }
+
     @Test
     public void testKeyProvider() throws Exception {
 
@@ -44,6 +70,17 @@ public class KeyProviderTest {
 
     }
 
+    @Test
+    public void testRefreshKeysKeepsUnchangedState() throws Exception {
+
+        final DefaultKeyProvider keyProvider = new DefaultKeyProvider();
+        keyProvider.generateKeys();
+
+        final EncodedJsonWebKeySet encodedJwks = keyProvider.getEncodedJwks();
+        keyProvider.refreshKeys();
+        assertSame(encodedJwks, keyProvider.getEncodedJwks());
+    }
+
     @Test
     public void testPrivateJwksToJson() throws Exception {
 
@@ -112,4 +149,35 @@ public class KeyProviderTest {
         assertEquals(publicJwks.size(), found);
 
     }
+
+    @Test
+    public void testSharedKeyRingFile() throws Exception {
+
+        final Path dir = Files.createTempDirectory("keyring");
+        final Path file = dir.resolve("jwks.json");
+        try {
+            final DefaultKeyProvider first = new DefaultKeyProvider();
+            first.setKeyRingFile(file.toString());
+            first.generateKeys();
+            assertTrue(Files.exists(file));
+
+            final DefaultKeyProvider second = new DefaultKeyProvider();
+            second.setKeyRingFile(file.toString());
+            second.generateKeys();
+
+            assertEquals(first.getSecretKeyId(), second.getSecretKeyId());
+            assertEquals(first.getJwks()
+                    .getKeys().length, second.getJwks()
+                    .getKeys().length);
+            for (final JsonWebKey jwk : first.getPrivateJwks()
+                    .getSigningKeys()) {
+                assertEquals(jwk.toJcaKey(), second.getPrivateJwks()
+                        .getKey(jwk.getKid()));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir.resolve("jwks.json.lock"));
+            Files.delete(dir);
+        }
+    }
 }
@@ -0,0 +1,91 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+
+import javax.servlet.http.HttpServletRequest;
+
+import net.trajano.openidconnect.provider.ejb.DefaultKeyProvider;
+import net.trajano.openidconnect.provider.ejb.ProviderConfigurationCache;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ProviderConfigurationCacheTest {
+
+    private static DefaultKeyProvider keyProvider;
+
+    private static HttpServletRequest buildRequest(final String host) {
+
+        final HttpServletRequest req = mock(HttpServletRequest.class);
+        when(req.getScheme()).thenReturn("https");
+        when(req.getServerName()).thenReturn(host);
+        when(req.getServerPort()).thenReturn(443);
+        when(req.getContextPath()).thenReturn("/op");
+        when(req.getRequestURL()).thenReturn(new StringBuffer("https://" + host + "/op/.well-known/openid-configuration"));
+        return req;
+    }
+
+    @BeforeClass
+    public static void setupKeyProvider() throws Exception {
+
+        keyProvider = new DefaultKeyProvider();
+        keyProvider.generateKeys();
+    }
+
+    @Test
+    public void testConfiguredIssuer() throws Exception {
+
+        final ProviderConfigurationCache cache = new ProviderConfigurationCache();
+        cache.setKeyProvider(keyProvider);
+        cache.setConfiguredIssuer("https://op.example.com/op");
+        cache.init();
+
+        final HttpServletRequest req = buildRequest("op.example.com");
+        cache.putDocument(req, new byte[] { '{', '}' });
+
+        // any host gets the same issuer and document
+        final HttpServletRequest junk = buildRequest("junk.example.com");
+        assertEquals(URI.create("https://op.example.com/op"), cache.getIssuer(junk));
+        assertNotNull(cache.getDocument(junk));
+        assertEquals(1, cache.getDocumentCount());
+    }
+
+    @Test
+    public void testIssuerFromRequest() throws Exception {
+
+        final ProviderConfigurationCache cache = new ProviderConfigurationCache();
+        cache.setKeyProvider(keyProvider);
+        cache.init();
+
+        assertEquals(URI.create("https://op.example.com/op"), cache.getIssuer(buildRequest("op.example.com")));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedHostEvicted() throws Exception {
+
+        final ProviderConfigurationCache cache = new ProviderConfigurationCache();
+        cache.setKeyProvider(keyProvider);
+        cache.setMaxHosts(2);
+        cache.init();
+
+        final HttpServletRequest a = buildRequest("a.example.com");
+        final HttpServletRequest b = buildRequest("b.example.com");
+        final HttpServletRequest c = buildRequest("c.example.com");
+        cache.putDocument(a, new byte[] { '{', '}' });
+        cache.putDocument(b, new byte[] { '{', '}' });
+        assertNotNull(cache.getDocument(a));
+
+        // new hosts are still cached once the limit is reached
+        cache.putDocument(c, new byte[] { '{', '}' });
+        assertEquals(2, cache.getDocumentCount());
+        assertNotNull(cache.getDocument(a));
+        assertNull(cache.getDocument(b));
+        assertNotNull(cache.getDocument(c));
+    }
+}
@@ -0,0 +1,116 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.trajano.openidconnect.provider.ejb.RefreshTokenSingleFlight;
+import net.trajano.openidconnect.token.IdTokenResponse;
+
+import org.junit.Test;
+
+public class RefreshTokenSingleFlightTest {
+
+    /**
+     * Rotation that counts how often it is performed.
+     */
+    private static final class CountingRotation implements
+        Callable<IdTokenResponse> {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private final IdTokenResponse response;
+
+        public CountingRotation(final IdTokenResponse response) {
+
+            this.response = response;
+        }
+
+        @Override
+        public IdTokenResponse call() throws Exception {
+
+            calls.incrementAndGet();
+            return response;
+        }
+    }
+
+    @Test
+    public void testCompletedRotationIsShared() throws Exception {
+
+        final RefreshTokenSingleFlight singleFlight = new RefreshTokenSingleFlight();
+        final IdTokenResponse response = new IdTokenResponse();
+        final CountingRotation rotation = new CountingRotation(response);
+
+        assertSame(response, singleFlight.execute("r1", rotation));
+        singleFlight.evict();
+        assertSame(response, singleFlight.execute("r1", rotation));
+        assertEquals(1, rotation.calls.get());
+    }
+
+    @Test
+    public void testConcurrentRefreshesShareRotation() throws Exception {
+
+        final RefreshTokenSingleFlight singleFlight = new RefreshTokenSingleFlight();
+        final IdTokenResponse response = new IdTokenResponse();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingRotation waiterRotation = new CountingRotation(new IdTokenResponse());
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<IdTokenResponse> leader = executor.submit(new Callable<IdTokenResponse>() {
+
+                @Override
+                public IdTokenResponse call() throws Exception {
+
+                    return singleFlight.execute("r1", new Callable<IdTokenResponse>() {
+
+                        @Override
+                        public IdTokenResponse call() throws Exception {
+
+                            started.countDown();
+                            release.await();
+                            return response;
+                        }
+                    });
+                }
+            });
+            started.await();
+            final Future<IdTokenResponse> waiter = executor.submit(new Callable<IdTokenResponse>() {
+
+                @Override
+                public IdTokenResponse call() throws Exception {
+
+                    return singleFlight.execute("r1", waiterRotation);
+                }
+            });
+            release.countDown();
+
+            assertSame(response, leader.get(10, TimeUnit.SECONDS));
+            assertSame(response, waiter.get(10, TimeUnit.SECONDS));
+            assertEquals(0, waiterRotation.calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedRotationIsNotShared() throws Exception {
+
+        final RefreshTokenSingleFlight singleFlight = new RefreshTokenSingleFlight();
+        final CountingRotation failedRotation = new CountingRotation(null);
+        assertNull(singleFlight.execute("r1", failedRotation));
+
+        final IdTokenResponse response = new IdTokenResponse();
+        assertSame(response, singleFlight.execute("r1", new CountingRotation(response)));
+        assertEquals(1, failedRotation.calls.get());
+    }
+}
@@ -0,0 +1,77 @@
+package net.trajano.openidconnect.provider.ejb.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import net.trajano.openidconnect.crypto.JsonWebTokenBuilder;
+import net.trajano.openidconnect.provider.ejb.DefaultKeyProvider;
+import net.trajano.openidconnect.provider.ejb.RequestObjectCache;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RequestObjectCacheTest {
+
+    private static DefaultKeyProvider keyProvider;
+
+    private static String buildRequestJwt(final String state) throws Exception {
+
+        return new JsonWebTokenBuilder().payload(Json.createObjectBuilder()
+            .add("state", state)
+            .build())
+            .toString();
+    }
+
+    @BeforeClass
+    public static void setupKeyProvider() throws Exception {
+
+        keyProvider = new DefaultKeyProvider();
+        keyProvider.generateKeys();
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+
+        final RequestObjectCache cache = new RequestObjectCache();
+        cache.setKeyProvider(keyProvider);
+        cache.setMaxEntries(1);
+
+        final String cachedJwt = buildRequestJwt("a");
+        final JsonObject cached = cache.getRequestObject(cachedJwt);
+
+        // the cache is full so the request object is processed every time
+        final String uncachedJwt = buildRequestJwt("b");
+        final JsonObject uncached = cache.getRequestObject(uncachedJwt);
+        assertEquals("b", uncached.getString("state"));
+        assertNotSame(uncached, cache.getRequestObject(uncachedJwt));
+
+        assertSame(cached, cache.getRequestObject(cachedJwt));
+    }
+
+    @Test
+    public void testCacheHit() throws Exception {
+
+        final RequestObjectCache cache = new RequestObjectCache();
+        cache.setKeyProvider(keyProvider);
+
+        final String requestJwt = buildRequestJwt("a");
+        final JsonObject requestObject = cache.getRequestObject(requestJwt);
+        assertEquals("a", requestObject.getString("state"));
+        assertSame(requestObject, cache.getRequestObject(requestJwt));
+
+        // live entries are kept by eviction
+        cache.evict();
+        assertSame(requestObject, cache.getRequestObject(requestJwt));
+    }
+
+    @Test
+    public void testNullRequestJwt() throws Exception {
+
+        assertNull(new RequestObjectCache().getRequestObject(null));
+    }
+}
@@ -1,5 +1,8 @@
 package net.trajano.openidconnect.provider.test;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.net.URI;
 
 import net.trajano.openidconnect.provider.internal.FormPostBuilder;
@@ -8,6 +11,17 @@ import org.junit.Test;
 
 public class FormPostBuilderTest {
 
+    @Test
+    public void testEscaping() {
+
+        final FormPostBuilder b = new FormPostBuilder(URI.create("https://i.trajano.net/cb?a=1&b=2"));
+        b.put("state", "'><script>alert(\"x\")</script>");
+        final String formPost = b.buildFormPost();
+        assertTrue(formPost.contains("action=\"https://i.trajano.net/cb?a=1&amp;b=2\""));
+        assertTrue(formPost.contains("value='&#39;&gt;&lt;script&gt;alert(&quot;x&quot;)&lt;/script&gt;'"));
+        assertFalse(formPost.contains("<script>"));
+    }
+
     @Test
     public void testFormPostBuilder() {
 
@@ -15,4 +29,14 @@ public class FormPostBuilderTest {
         b.put("state", "asdfasdfasdf");
         System.out.println(b.buildFormPost());
     }
+
+    @Test
+    public void testInputOrder() {
+
+        final FormPostBuilder b = new FormPostBuilder(URI.create("https://i.trajano.net/cb"));
+        b.put("state", "s");
+        b.put("code", "c");
+        final String formPost = b.buildFormPost();
+        assertTrue(formPost.contains("<form method=\"post\" action=\"https://i.trajano.net/cb\"><input type='hidden' name='state' value='s' /><input type='hidden' name='code' value='c' /></form>"));
+    }
 }
@@ -0,0 +1,58 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.util.Collections;
+
+import net.trajano.openidconnect.crypto.JsonWebAlgorithm;
+import net.trajano.openidconnect.crypto.JsonWebKeySet;
+import net.trajano.openidconnect.crypto.RsaWebKey;
+import net.trajano.openidconnect.provider.internal.KeyRing;
+
+import org.junit.Test;
+
+public class KeyRingTest {
+
+    private static KeyRing.Entry generateEntry(final String kid,
+        final long notBefore) throws Exception {
+
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        final RsaWebKey jwk = new RsaWebKey(kid, (RSAPrivateCrtKey) keyPairGenerator.generateKeyPair()
+            .getPrivate());
+        jwk.setAlg(JsonWebAlgorithm.RS256);
+        return new KeyRing.Entry(jwk, notBefore, 0);
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+
+        final KeyRing initial = new KeyRing(Collections.singletonList(generateEntry("old", 1000)));
+        final KeyRing rotated = initial.rotate(Collections.singletonList(generateEntry("new", 2000)), 2000, 1500, 600);
+
+        // next key is published but not used for signing before it is active
+        final JsonWebKeySet before = rotated.buildPrivateJwks(1500, 600);
+        assertEquals(2, before.getKeys().length);
+        assertEquals(1, before.getSigningKeys().length);
+        assertEquals("old", before.getSigningKeys()[0].getKid());
+        assertNotNull(rotated.buildJwks(1500, 600)
+            .getJwk("new"));
+        assertEquals(2000, rotated.getNextChange(1500, 600));
+
+        // switch happens at the activation time, old key is kept for verification
+        final JsonWebKeySet after = rotated.buildPrivateJwks(2000, 600);
+        assertEquals(2, after.getKeys().length);
+        assertEquals(1, after.getSigningKeys().length);
+        assertEquals("new", after.getSigningKeys()[0].getKid());
+        assertEquals(2600, rotated.getNextChange(2000, 600));
+
+        // old key is retired after the retention period
+        final JsonWebKeySet retired = rotated.buildJwks(2600, 600);
+        assertEquals(1, retired.getKeys().length);
+        assertNull(retired.getJwk("old"));
+    }
+}
@@ -0,0 +1,46 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import net.trajano.openidconnect.provider.internal.LatencyHistogram;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testQuantiles() {
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertTrue(Double.isNaN(histogram.getQuantileNanos(0.5)));
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(1000, histogram.getCount());
+
+        final double median = histogram.getQuantileNanos(0.5);
+        assertTrue(median >= TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(median <= TimeUnit.MILLISECONDS.toNanos(500) * 1.07);
+
+        final double p99 = histogram.getQuantileNanos(0.99);
+        assertTrue(p99 >= TimeUnit.MILLISECONDS.toNanos(990));
+        assertTrue(p99 <= TimeUnit.MILLISECONDS.toNanos(990) * 1.07);
+    }
+
+    @Test
+    public void testRotate() {
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.SECONDS.toNanos(10));
+        histogram.rotate();
+        histogram.record(5000);
+        // the previous window is still included
+        assertTrue(histogram.getQuantileNanos(1) >= TimeUnit.SECONDS.toNanos(10));
+        histogram.rotate();
+        assertTrue(histogram.getQuantileNanos(1) <= 5000);
+        assertEquals(2, histogram.getCount());
+    }
+}
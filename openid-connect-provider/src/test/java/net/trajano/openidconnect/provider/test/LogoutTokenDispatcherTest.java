@@ -0,0 +1,215 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.trajano.openidconnect.provider.internal.LogoutTokenDispatcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Delivers logout tokens to a stub receiver running on the loopback
+ * interface.
+ */
+public class LogoutTokenDispatcherTest {
+
+    /**
+     * Stub back-channel logout receiver. It answers with the queued status
+     * codes then with <code>200</code>.
+     */
+    private static final class StubReceiver implements
+        HttpHandler {
+
+        private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+
+        private volatile CountDownLatch release;
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private final List<Integer> statuses = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+
+            try (final InputStream is = exchange.getRequestBody(); final Scanner scanner = new Scanner(is, "US-ASCII")) {
+                bodies.add(scanner.useDelimiter("\\A")
+                    .next());
+            }
+            requests.incrementAndGet();
+            if (release != null) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread()
+                        .interrupt();
+                }
+            }
+            final int status = statuses.isEmpty() ? 200 : statuses.remove(0);
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        }
+    }
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private StubReceiver receiver;
+
+    private ExecutorService receiverExecutor;
+
+    private HttpServer server;
+
+    private URI uri;
+
+    /**
+     * Waits until there are no pending deliveries.
+     */
+    private static void awaitIdle(final LogoutTokenDispatcher dispatcher) throws InterruptedException {
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (dispatcher.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, dispatcher.getPendingCount());
+    }
+
+    @Before
+    public void startReceiver() throws IOException {
+
+        receiver = new StubReceiver();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/logout", receiver);
+        receiverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(receiverExecutor);
+        server.start();
+        uri = URI.create("http://127.0.0.1:" + server.getAddress()
+            .getPort() + "/logout");
+        executor = new ScheduledThreadPoolExecutor(4);
+    }
+
+    @After
+    public void stopReceiver() {
+
+        if (receiver.release != null) {
+            receiver.release.countDown();
+        }
+        executor.shutdownNow();
+        server.stop(0);
+        receiverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+
+        receiver.release = new CountDownLatch(1);
+        final LogoutTokenDispatcher dispatcher = new LogoutTokenDispatcher(executor, 2, 1, 10, 5000);
+        assertTrue(dispatcher.dispatch(uri, "a"));
+        assertTrue(dispatcher.dispatch(uri, "b"));
+        // the receiver is holding both deliveries
+        assertFalse(dispatcher.dispatch(uri, "c"));
+        assertEquals(1, dispatcher.getDroppedCount());
+
+        receiver.release.countDown();
+        awaitIdle(dispatcher);
+        assertEquals(2, dispatcher.getDeliveredCount());
+    }
+
+    @Test
+    public void testDeliver() throws Exception {
+
+        final LogoutTokenDispatcher dispatcher = new LogoutTokenDispatcher(executor, 10, 3, 10, 5000);
+        assertTrue(dispatcher.dispatch(uri, "header.payload.signature"));
+        awaitIdle(dispatcher);
+        assertEquals(1, dispatcher.getDeliveredCount());
+        assertEquals("logout_token=header.payload.signature", receiver.bodies.get(0));
+    }
+
+    @Test
+    public void testNoRetryOnClientError() throws Exception {
+
+        receiver.statuses.add(400);
+        final LogoutTokenDispatcher dispatcher = new LogoutTokenDispatcher(executor, 10, 3, 10, 5000);
+        dispatcher.dispatch(uri, "token");
+        awaitIdle(dispatcher);
+        assertEquals(1, receiver.requests.get());
+        assertEquals(1, dispatcher.getFailedCount());
+    }
+
+    @Test
+    public void testNotHttp() throws Exception {
+
+        final LogoutTokenDispatcher dispatcher = new LogoutTokenDispatcher(executor, 10, 3, 10, 5000);
+        dispatcher.dispatch(URI.create("/logout"), "token");
+        dispatcher.dispatch(URI.create("file:///logout"), "token");
+        awaitIdle(dispatcher);
+        assertEquals(0, receiver.requests.get());
+        assertEquals(2, dispatcher.getFailedCount());
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+
+        receiver.release = new CountDownLatch(1);
+        final LogoutTokenDispatcher dispatcher = new LogoutTokenDispatcher(executor, 10, 1, 10, 5000);
+        for (int i = 0; i < 4; ++i) {
+            dispatcher.dispatch(uri, "token" + i);
+        }
+        // all four deliveries reach the receiver while it holds them
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (receiver.requests.get() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, receiver.requests.get());
+        assertEquals(0, dispatcher.getDeliveredCount());
+
+        receiver.release.countDown();
+        awaitIdle(dispatcher);
+        assertEquals(4, dispatcher.getDeliveredCount());
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+
+        receiver.statuses.add(503);
+        receiver.statuses.add(500);
+        final LogoutTokenDispatcher dispatcher = new LogoutTokenDispatcher(executor, 10, 3, 10, 5000);
+        dispatcher.dispatch(uri, "token");
+        awaitIdle(dispatcher);
+        assertEquals(3, receiver.requests.get());
+        assertEquals(1, dispatcher.getDeliveredCount());
+        assertEquals(0, dispatcher.getFailedCount());
+    }
+
+    @Test
+    public void testRetryExhausted() throws Exception {
+
+        final LogoutTokenDispatcher dispatcher = new LogoutTokenDispatcher(executor, 10, 2, 10, 5000);
+        // nothing is listening on the port once the receiver is stopped
+        server.stop(0);
+        dispatcher.dispatch(uri, "token");
+        awaitIdle(dispatcher);
+        assertEquals(0, dispatcher.getDeliveredCount());
+        assertEquals(1, dispatcher.getFailedCount());
+    }
+}
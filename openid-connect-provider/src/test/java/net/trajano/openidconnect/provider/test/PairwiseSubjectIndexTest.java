@@ -0,0 +1,66 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.security.GeneralSecurityException;
+
+import net.trajano.openidconnect.provider.internal.PairwiseSubjectIndex;
+
+import org.junit.Test;
+
+public class PairwiseSubjectIndexTest {
+
+    private static final byte[] SECRET = new byte[32];
+
+    @Test
+    public void testDerive() throws GeneralSecurityException {
+
+        final PairwiseSubjectIndex index = new PairwiseSubjectIndex(SECRET, 10);
+        final String subject = index.derive("sector", "user", 0);
+        assertEquals(subject, index.derive("sector", "user", 0));
+        assertNotEquals(subject, index.derive("other", "user", 0));
+        assertNotEquals(subject, index.derive("sector", "other", 0));
+        assertFalse(subject.contains("user"));
+
+        // same secret gives the same subjects without the cache
+        assertEquals(subject, new PairwiseSubjectIndex(SECRET, 0).derive("sector", "user", 0));
+        assertNotEquals(subject, new PairwiseSubjectIndex(new byte[] {
+            1,
+            2,
+            3 }, 10).derive("sector", "user", 0));
+    }
+
+    @Test
+    public void testEvict() throws GeneralSecurityException {
+
+        final PairwiseSubjectIndex index = new PairwiseSubjectIndex(SECRET, 10);
+        final String a = index.derive("sector", "a", 100);
+        final String b = index.derive("sector", "b", 100);
+        index.getLocalSubject("sector", b, 200);
+        index.evict(150);
+        assertNull(index.getLocalSubject("sector", a, 300));
+        assertEquals("b", index.getLocalSubject("sector", b, 300));
+        assertEquals(1, index.size());
+
+        // derived again after eviction
+        assertEquals(a, index.derive("sector", "a", 400));
+        assertEquals("a", index.getLocalSubject("sector", a, 400));
+    }
+
+    @Test
+    public void testReverse() throws GeneralSecurityException {
+
+        final PairwiseSubjectIndex index = new PairwiseSubjectIndex(SECRET, 1);
+        final String a = index.derive("sector", "a", 0);
+        // the cache is full so it is derived but not cached
+        final String b = index.derive("sector", "b", 0);
+        assertEquals("a", index.getLocalSubject("sector", a, 0));
+        assertNull(index.getLocalSubject("sector", b, 0));
+        assertNull(index.getLocalSubject("other", a, 0));
+        assertNull(index.getLocalSubject("sector", "unknown", 0));
+        assertEquals(1, index.size());
+    }
+}
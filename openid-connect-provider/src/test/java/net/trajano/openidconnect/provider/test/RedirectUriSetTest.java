@@ -0,0 +1,43 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Arrays;
+
+import net.trajano.openidconnect.provider.internal.RedirectUriSet;
+
+import org.junit.Test;
+
+public class RedirectUriSetTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFragmentNotAllowed() {
+
+        new RedirectUriSet(Arrays.asList("https://app.example.com/cb#x"));
+    }
+
+    @Test
+    public void testNormalized() {
+
+        final RedirectUriSet set = new RedirectUriSet(Arrays.asList("https://App.Example.com:443/cb", "http://localhost:8080"));
+        assertTrue(set.contains(URI.create("HTTPS://app.example.com/cb")));
+        assertTrue(set.contains(URI.create("http://localhost:8080/")));
+        assertFalse(set.contains(URI.create("https://app.example.com/cb/")));
+        assertFalse(set.contains(URI.create("http://app.example.com/cb")));
+        assertFalse(set.contains(URI.create("https://user@app.example.com/cb")));
+        assertFalse(set.contains(null));
+    }
+
+    @Test
+    public void testWildcard() {
+
+        final RedirectUriSet set = new RedirectUriSet(Arrays.asList("https://*.example.com/cb"));
+        assertTrue(set.contains(URI.create("https://app.example.com/cb")));
+        assertFalse(set.contains(URI.create("https://example.com/cb")));
+        assertFalse(set.contains(URI.create("https://a.b.example.com/cb")));
+        assertFalse(set.contains(URI.create("https://app.example.org/cb")));
+        assertFalse(set.contains(URI.create("https://app.example.com/other")));
+    }
+}
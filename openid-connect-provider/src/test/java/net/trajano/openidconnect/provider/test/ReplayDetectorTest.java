@@ -0,0 +1,107 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.trajano.openidconnect.provider.spi.ReplayDetector;
+
+import org.junit.Test;
+
+public class ReplayDetectorTest {
+
+    @Test
+    public void testExpiredLongAgo() {
+
+        final ReplayDetector detector = new ReplayDetector(60000L, 10000L);
+        final long now = System.currentTimeMillis();
+        assertTrue(detector.markUsed("a", now + 60000L));
+        // same bucket slot, one full rotation earlier
+        assertFalse(detector.markUsed("b", now + 60000L - 80000L));
+    }
+
+    @Test
+    public void testFilterGrowth() {
+
+        final ReplayDetector detector = new ReplayDetector(60000L, 10000L, 100);
+        final long expiresAt = System.currentTimeMillis() + 30000L;
+        // the bucket grows rather than overflowing so every identifier is
+        // still confirmed
+        for (int i = 0; i < 100 * ReplayDetector.MAX_GROWTH; ++i) {
+            assertTrue(detector.markUsed("id" + i, expiresAt));
+        }
+        for (int i = 0; i < 100 * ReplayDetector.MAX_GROWTH; ++i) {
+            assertTrue(detector.isUsed("id" + i, expiresAt));
+            assertTrue(detector.isConfirmedUsed("id" + i));
+        }
+    }
+
+    @Test
+    public void testFilterOverflow() {
+
+        final ReplayDetector detector = new ReplayDetector(60000L, 10000L, 100);
+        final long expiresAt = System.currentTimeMillis() + 30000L;
+        final int limit = 100 * ReplayDetector.MAX_GROWTH;
+        for (int i = 0; i < limit; ++i) {
+            assertTrue(detector.markUsed("id" + i, expiresAt));
+        }
+        // past the limit identifiers are only kept in the filter
+        for (int i = limit; i < limit + 50; ++i) {
+            detector.markUsed("id" + i, expiresAt);
+        }
+        for (int i = 0; i < limit + 50; ++i) {
+            assertTrue(detector.isUsed("id" + i, expiresAt));
+            assertFalse(detector.markUsed("id" + i, expiresAt));
+        }
+        // a probable hit that cannot be confirmed
+        assertTrue(detector.isUsed("id" + (limit + 49)));
+        assertFalse(detector.isConfirmedUsed("id" + (limit + 49)));
+    }
+
+    @Test
+    public void testMarkUsedWithoutExpiration() {
+
+        final ReplayDetector detector = new ReplayDetector(600000L, 60000L, 1000);
+        assertFalse(detector.isUsed("a"));
+        assertTrue(detector.markUsed("a"));
+        assertTrue(detector.isUsed("a"));
+        assertFalse(detector.markUsed("a"));
+        assertFalse(detector.isUsed("b"));
+    }
+
+    @Test
+    public void testMarkUsedWithValue() {
+
+        final ReplayDetector detector = new ReplayDetector(600000L, 60000L, 1000);
+        assertTrue(detector.markUsed("a", "family"));
+        assertTrue(detector.markUsed("b"));
+        assertEquals("family", detector.getConfirmedValue("a"));
+        assertNull(detector.getConfirmedValue("b"));
+        assertNull(detector.getConfirmedValue("c"));
+
+        // the first value is kept
+        assertFalse(detector.markUsed("a", "other"));
+        assertEquals("family", detector.getConfirmedValue("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooFarInTheFuture() {
+
+        final ReplayDetector detector = new ReplayDetector(60000L, 10000L);
+        detector.markUsed("a", System.currentTimeMillis() + 120000L);
+    }
+
+    @Test
+    public void testUsedOnce() {
+
+        final ReplayDetector detector = new ReplayDetector(60000L, 10000L);
+        final long expiresAt = System.currentTimeMillis() + 30000L;
+        assertFalse(detector.isUsed("a", expiresAt));
+        assertTrue(detector.markUsed("a", expiresAt));
+        assertTrue(detector.isUsed("a", expiresAt));
+        assertFalse(detector.markUsed("a", expiresAt));
+        assertFalse(detector.isUsed("b", expiresAt));
+        assertTrue(detector.markUsed("b", expiresAt));
+    }
+}
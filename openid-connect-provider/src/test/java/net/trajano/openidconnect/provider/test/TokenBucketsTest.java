@@ -0,0 +1,53 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.trajano.openidconnect.provider.internal.TokenBuckets;
+import net.trajano.openidconnect.provider.internal.TokenBuckets.Quota;
+
+import org.junit.Test;
+
+public class TokenBucketsTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstAndRefill() {
+
+        final long now = 1000 * SECOND;
+        final TokenBuckets buckets = new TokenBuckets(null, Collections.singletonMap("app", Quota.parse("2/3")), 10, 1, now);
+
+        assertEquals(0, buckets.take("app", now));
+        assertEquals(0, buckets.take("app", now));
+        assertEquals(0, buckets.take("app", now));
+        // the next token is available after half a second
+        assertEquals(SECOND / 2, buckets.take("app", now));
+        assertEquals(0, buckets.take("app", now + SECOND / 2));
+        // clients without a quota are not limited
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(0, buckets.take("other", now));
+        }
+    }
+
+    @Test
+    public void testStripesWhenFull() {
+
+        final long now = -5 * SECOND;
+        final Map<String, Quota> none = Collections.emptyMap();
+        final TokenBuckets buckets = new TokenBuckets(new Quota(1, 1), none, 1, 1, now);
+
+        assertEquals(0, buckets.take("a", now));
+        assertTrue(buckets.take("a", now) > 0);
+        // past the maximum the clients share the stripe
+        assertEquals(0, buckets.take("b", now));
+        assertTrue(buckets.take("c", now) > 0);
+
+        buckets.evict(now + SECOND);
+        assertEquals(0, buckets.take("c", now + SECOND));
+    }
+}
@@ -0,0 +1,49 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+
+import net.trajano.openidconnect.provider.internal.TokenHash;
+
+import org.junit.Test;
+
+/**
+ * The expected values are the base64url encoded left-most half of the
+ * digests of {@link #TOKEN} as computed independently.
+ */
+public class TokenHashTest {
+
+    private static final String TOKEN = "jHkWEdUXMU1BwAsC4vtUsZwnNLhg2UXj2ndwV6nrXU8";
+
+    @Test
+    public void testES256() throws GeneralSecurityException {
+
+        assertEquals("Jy7u7Cqe6Kw62yI0YBvoAQ", TokenHash.compute("ES256", TOKEN));
+    }
+
+    @Test
+    public void testES384() throws GeneralSecurityException {
+
+        assertEquals("EwbQCMCWAmw8qdRwrmvVOBOKMWfDLuOg", TokenHash.compute("ES384", TOKEN));
+    }
+
+    @Test
+    public void testES512() throws GeneralSecurityException {
+
+        assertEquals("vhSZuSvoiB89cOlwE_SHTz1Cq8GH5Hw39s1O4I23OKA", TokenHash.compute("ES512", TOKEN));
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void testNone() throws GeneralSecurityException {
+
+        TokenHash.compute("none", TOKEN);
+    }
+
+    @Test
+    public void testRS256() throws GeneralSecurityException {
+
+        assertEquals("Jy7u7Cqe6Kw62yI0YBvoAQ", TokenHash.compute("RS256", TOKEN));
+    }
+}
@@ -0,0 +1,121 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.trajano.openidconnect.core.Scope;
+import net.trajano.openidconnect.provider.internal.UserinfoBatcher;
+import net.trajano.openidconnect.provider.spi.BatchUserinfoProvider;
+import net.trajano.openidconnect.token.IdToken;
+import net.trajano.openidconnect.userinfo.Userinfo;
+
+import org.junit.Test;
+
+public class UserinfoBatcherTest {
+
+    /**
+     * Counts the backend calls.
+     */
+    private static class CountingProvider implements
+        BatchUserinfoProvider {
+
+        private final AtomicInteger batchCalls = new AtomicInteger();
+
+        private final AtomicInteger singleCalls = new AtomicInteger();
+
+        @Override
+        public String[] claimsSupported() {
+
+            return new String[0];
+        }
+
+        @Override
+        public Userinfo getUserinfo(final IdToken idToken) {
+
+            singleCalls.incrementAndGet();
+            return userinfo(idToken.getSub());
+        }
+
+        @Override
+        public Map<String, Userinfo> getUserinfo(final List<IdToken> idTokens) {
+
+            batchCalls.incrementAndGet();
+            final Map<String, Userinfo> result = new HashMap<>();
+            for (final IdToken idToken : idTokens) {
+                result.put(idToken.getSub(), userinfo(idToken.getSub()));
+            }
+            return result;
+        }
+
+        @Override
+        public Scope[] scopesSupported() {
+
+            return new Scope[0];
+        }
+    }
+
+    private static IdToken idToken(final String subject) {
+
+        final IdToken idToken = new IdToken();
+        idToken.setSub(subject);
+        return idToken;
+    }
+
+    private static Userinfo userinfo(final String subject) {
+
+        final Userinfo userinfo = new Userinfo();
+        userinfo.setSub(subject);
+        return userinfo;
+    }
+
+    @Test
+    public void testBatchAndCoalesce() throws Exception {
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final CountingProvider provider = new CountingProvider();
+            final UserinfoBatcher batcher = new UserinfoBatcher(provider, executor, 200, 10);
+
+            final Future<Userinfo> a1 = batcher.getUserinfo(idToken("a"));
+            final Future<Userinfo> a2 = batcher.getUserinfo(idToken("a"));
+            final Future<Userinfo> b = batcher.getUserinfo(idToken("b"));
+            assertSame(a1, a2);
+            assertEquals("a", a1.get()
+                .getSub());
+            assertEquals("b", b.get()
+                .getSub());
+            assertEquals(1, provider.batchCalls.get());
+            assertEquals(0, provider.singleCalls.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxBatchSize() throws Exception {
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final CountingProvider provider = new CountingProvider();
+            // the window is long enough that only the size triggers the flush
+            final UserinfoBatcher batcher = new UserinfoBatcher(provider, executor, 60000, 2);
+
+            final Future<Userinfo> a = batcher.getUserinfo(idToken("a"));
+            final Future<Userinfo> b = batcher.getUserinfo(idToken("b"));
+            assertEquals("a", a.get()
+                .getSub());
+            assertEquals("b", b.get()
+                .getSub());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.trajano.openidconnect.provider.internal.UserinfoEntries;
+import net.trajano.openidconnect.userinfo.Userinfo;
+
+import org.junit.Test;
+
+public class UserinfoEntriesTest {
+
+    private static Map<String, Userinfo> result(final String subject) {
+
+        final Userinfo userinfo = new Userinfo();
+        userinfo.setSub(subject);
+        return Collections.singletonMap(subject, userinfo);
+    }
+
+    @Test
+    public void testBounded() {
+
+        final UserinfoEntries entries = new UserinfoEntries(1000, 2);
+        final Map<String, Userinfo> result = new HashMap<>();
+        result.putAll(result("a"));
+        result.putAll(result("b"));
+        result.putAll(result("c"));
+        entries.put(result, entries.getGeneration(), 0);
+        assertEquals(2, entries.size());
+    }
+
+    @Test
+    public void testExpiry() {
+
+        final UserinfoEntries entries = new UserinfoEntries(1000, 10);
+        final Map<String, Userinfo> result = result("a");
+        entries.put(result, entries.getGeneration(), 0);
+        assertSame(result.get("a"), entries.get("a", 999));
+        assertNull(entries.get("a", 1000));
+        assertNull(entries.get("b", 0));
+
+        entries.evict(1000);
+        assertEquals(0, entries.size());
+    }
+
+    @Test
+    public void testInvalidate() {
+
+        final UserinfoEntries entries = new UserinfoEntries(1000, 10);
+        entries.put(result("a"), entries.getGeneration(), 0);
+        entries.put(result("b"), entries.getGeneration(), 0);
+        entries.invalidate("a");
+        assertNull(entries.get("a", 0));
+        assertEquals("b", entries.get("b", 0)
+            .getSub());
+
+        entries.invalidateAll();
+        assertEquals(0, entries.size());
+    }
+
+    /**
+     * A load that started before an invalidation must not cache its stale
+     * result.
+     */
+    @Test
+    public void testInvalidatedWhileLoading() {
+
+        final UserinfoEntries entries = new UserinfoEntries(1000, 10);
+        final long loadedGeneration = entries.getGeneration();
+        entries.invalidate("a");
+        entries.put(result("a"), loadedGeneration, 0);
+        assertNull(entries.get("a", 0));
+
+        // a load that started after the invalidation is cached
+        entries.put(result("a"), entries.getGeneration(), 0);
+        assertEquals("a", entries.get("a", 0)
+            .getSub());
+    }
+}
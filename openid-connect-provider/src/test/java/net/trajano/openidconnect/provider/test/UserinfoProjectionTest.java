@@ -0,0 +1,104 @@
+package net.trajano.openidconnect.provider.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Locale;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+
+import net.trajano.openidconnect.provider.internal.UserinfoClaim;
+import net.trajano.openidconnect.provider.internal.UserinfoProjection;
+import net.trajano.openidconnect.userinfo.Userinfo;
+
+import org.junit.Test;
+
+public class UserinfoProjectionTest {
+
+    private static JsonObject project(final UserinfoProjection projection,
+        final Userinfo userinfo) {
+
+        final StringWriter w = new StringWriter();
+        final JsonGenerator generator = Json.createGenerator(w);
+        projection.write(userinfo, generator);
+        generator.close();
+        return Json.createReader(new StringReader(w.toString()))
+            .readObject();
+    }
+
+    @Test
+    public void testAll() {
+
+        final Userinfo userinfo = new Userinfo();
+        userinfo.setSub("sub");
+        userinfo.setLocale(Locale.CANADA_FRENCH);
+        userinfo.setEmailVerified(true);
+
+        final JsonObject json = project(UserinfoProjection.ALL, userinfo);
+        assertEquals("sub", json.getString("sub"));
+        assertEquals("fr-CA", json.getString("locale"));
+        assertTrue(json.getBoolean("email_verified"));
+        // claims that are not present are omitted
+        assertFalse(json.containsKey("email"));
+        assertFalse(json.containsKey("updated_at"));
+    }
+
+    /**
+     * The entity tag is what <code>If-None-Match</code> is compared against
+     * for the <code>304</code> response so it must be stable while nothing
+     * that is written changes.
+     */
+    @Test
+    public void testEntityTag() {
+
+        final Userinfo userinfo = new Userinfo();
+        userinfo.setSub("sub");
+        assertNull(UserinfoProjection.ALL.getEntityTag(userinfo, "sub"));
+
+        userinfo.setUpdatedAt(1234L);
+        final String entityTag = UserinfoProjection.ALL.getEntityTag(userinfo, "sub");
+        assertEquals(entityTag, UserinfoProjection.ALL.getEntityTag(userinfo, "sub"));
+        assertNotEquals(entityTag, UserinfoProjection.ALL.getEntityTag(userinfo, "pairwise"));
+        assertNotEquals(entityTag, UserinfoProjection.compile(Json.createObjectBuilder()
+            .add("email", JsonValue.NULL)
+            .build())
+            .getEntityTag(userinfo, "sub"));
+
+        userinfo.setUpdatedAt(1235L);
+        assertNotEquals(entityTag, UserinfoProjection.ALL.getEntityTag(userinfo, "sub"));
+    }
+
+    @Test
+    public void testProjection() {
+
+        final JsonObject claims = Json.createObjectBuilder()
+            .add("email", JsonValue.NULL)
+            .add("updated_at", JsonValue.NULL)
+            .add("custom", JsonValue.NULL)
+            .build();
+        final UserinfoProjection projection = UserinfoProjection.compile(claims);
+        assertTrue(projection.isPermitted(UserinfoClaim.email));
+        assertTrue(projection.isPermitted(UserinfoClaim.updated_at));
+        assertFalse(projection.isPermitted(UserinfoClaim.name));
+
+        final Userinfo userinfo = new Userinfo();
+        userinfo.setSub("sub");
+        userinfo.setEmail("a@example.com");
+        userinfo.setName("A");
+        userinfo.setUpdatedAt(1234L);
+
+        final JsonObject json = project(projection, userinfo);
+        assertEquals(3, json.size());
+        assertEquals("a@example.com", json.getString("email"));
+        assertEquals(1234L, json.getJsonNumber("updated_at")
+            .longValue());
+    }
+}